@@ -0,0 +1,195 @@
+package com.responsive.ai.sql_prompter.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Small bounded cache with least-recently-used eviction and a fixed time-to-live per entry.
+ * All operations are O(1) and hold the lock only for the duration of the map access. A
+ * {@link ReentrantLock} is used rather than a monitor so contended callers on virtual threads
+ * park instead of pinning their carrier thread.
+ *
+ * @param <K> key type
+ * @param <V> value type, expected to be immutable or treated as read-only by callers
+ */
+public class LruTtlCache<K, V> {
+
+    private final String name;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<K, Entry<V>> entries;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param name name used for logging and metric tags
+     * @param maxEntries maximum number of entries kept before the least recently used one is evicted
+     * @param ttl how long an entry stays valid after it was written; zero or negative disables expiry
+     */
+    public LruTtlCache(String name, int maxEntries, Duration ttl) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.name = Objects.requireNonNull(name);
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl == null || ttl.isNegative() ? 0 : ttl.toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > LruTtlCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached value, or null if absent or expired.
+     */
+    public V get(K key) {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            Entry<V> entry = entries.get(key);
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            if (isExpired(entry, now)) {
+                entries.remove(key);
+                evictions.incrementAndGet();
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void put(K key, V value) {
+        Objects.requireNonNull(value, "Cached values cannot be null");
+        Entry<V> entry = new Entry<>(value, System.nanoTime());
+        lock.lock();
+        try {
+            entries.put(key, entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidate(K key) {
+        lock.lock();
+        try {
+            entries.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            entries.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops all expired entries. Expired entries are also removed lazily on access,
+     * so calling this is only needed to release memory held by keys that are never read again.
+     */
+    public void purgeExpired() {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            Iterator<Entry<V>> it = entries.values().iterator();
+            while (it.hasNext()) {
+                if (isExpired(it.next(), now)) {
+                    it.remove();
+                    evictions.incrementAndGet();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Registers hit/miss/eviction counters and a size gauge, following Micrometer's cache meter names.
+     */
+    public LruTtlCache<K, V> bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("cache.gets", this, LruTtlCache::getHitCount)
+                .tag("cache", name).tag("result", "hit")
+                .description("Number of cache lookups that returned a value")
+                .register(registry);
+        FunctionCounter.builder("cache.gets", this, LruTtlCache::getMissCount)
+                .tag("cache", name).tag("result", "miss")
+                .description("Number of cache lookups that found no live entry")
+                .register(registry);
+        FunctionCounter.builder("cache.evictions", this, LruTtlCache::getEvictionCount)
+                .tag("cache", name)
+                .description("Number of entries evicted by size or expiry")
+                .register(registry);
+        Gauge.builder("cache.size", this, LruTtlCache::size)
+                .tag("cache", name)
+                .description("Number of entries currently held")
+                .register(registry);
+        return this;
+    }
+
+    private boolean isExpired(Entry<V> entry, long now) {
+        return ttlNanos > 0 && now - entry.writtenAt > ttlNanos;
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long writtenAt;
+
+        private Entry(V value, long writtenAt) {
+            this.value = value;
+            this.writtenAt = writtenAt;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.responsive.ai.sql_prompter.cache;
+
+import com.responsive.ai.sql_prompter.concurrent.Deadline;
+import com.responsive.ai.sql_prompter.exception.DeadlineExceededException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls for the same key into a single execution.
+ * The first caller (the leader) runs the loader; callers arriving while it is running
+ * wait for and share its result or exception. Nothing is retained once the leader finishes,
+ * so this complements rather than replaces a result cache.
+ *
+ * @param <K> key type
+ * @param <V> result type, shared between all waiting callers and therefore treated as read-only
+ */
+public class SingleFlight<K, V> {
+
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final Counter leaders;
+    private final Counter coalesced;
+
+    /**
+     * @param name metric name; leaders and coalesced callers are counted under the {@code role} tag
+     * @param registry registry to publish the counters and the in-flight gauge to
+     */
+    public SingleFlight(String name, MeterRegistry registry) {
+        Objects.requireNonNull(name);
+        this.leaders = Counter.builder(name)
+                .tag("role", "leader")
+                .description("Calls that executed the loader")
+                .register(registry);
+        this.coalesced = Counter.builder(name)
+                .tag("role", "coalesced")
+                .description("Calls that waited on an identical in-flight call")
+                .register(registry);
+        Gauge.builder(name + ".inflight", inFlight, Map::size)
+                .description("Distinct keys currently being loaded")
+                .register(registry);
+    }
+
+    /**
+     * Runs the loader for the key, or joins an identical call that is already running.
+     */
+    public V execute(K key, Supplier<V> loader) {
+        return execute(key, loader, null);
+    }
+
+    /**
+     * Like {@link #execute(Object, Supplier)}, but a caller joining an in-flight call only waits
+     * until its own deadline. The leader's loader is expected to honor the leader's deadline;
+     * when the leader runs out of it, callers with time left start over and one of them runs
+     * its own loader as the new leader.
+     * @param deadline the caller's deadline, or null to wait for as long as the leader takes
+     * @throws DeadlineExceededException If the deadline passes while waiting for the leader
+     */
+    public V execute(K key, Supplier<V> loader, Deadline deadline) {
+        while (true) {
+            CompletableFuture<V> own = new CompletableFuture<>();
+            CompletableFuture<V> existing = inFlight.putIfAbsent(key, own);
+            if (existing == null) {
+                return lead(key, own, loader);
+            }
+            coalesced.increment();
+            try {
+                return deadline == null ? await(existing) : await(existing, deadline);
+            } catch (DeadlineExceededException e) {
+                // Either this caller's deadline passed while waiting, or the leader's did
+                if (deadline != null && deadline.isExpired()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private V lead(K key, CompletableFuture<V> own, Supplier<V> loader) {
+        leaders.increment();
+        try {
+            V value = loader.get();
+            own.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, own);
+        }
+    }
+
+    private V await(CompletableFuture<V> future, Deadline deadline) {
+        try {
+            return future.get(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw deadline.exceeded("waiting for an identical in-flight call", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for an in-flight call", e);
+        } catch (ExecutionException e) {
+            return rethrow(e.getCause(), new CompletionException(e.getCause()));
+        }
+    }
+
+    private V await(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            return rethrow(e.getCause(), e);
+        }
+    }
+
+    private V rethrow(Throwable cause, RuntimeException wrapper) {
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw wrapper;
+    }
+}
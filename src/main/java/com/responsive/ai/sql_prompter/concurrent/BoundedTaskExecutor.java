@@ -0,0 +1,160 @@
+package com.responsive.ai.sql_prompter.concurrent;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Bounded executor for slow, blocking work such as LLM calls.
+ * <p>
+ * By default this is a fixed-size platform thread pool with a bounded queue. With
+ * {@link #virtualThreads} every task gets its own virtual thread and the bound is a permit count
+ * instead, so many more slow requests can be held open at the cost of one small stack each.
+ * Either way, once the bound is reached {@link #submit} fails immediately with a
+ * {@link RejectedExecutionException} instead of letting callers pile up, so the caller can answer
+ * with 503 while the servlet threads stay free for other traffic.
+ */
+public class BoundedTaskExecutor {
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final int maxConcurrency;
+    private final Timer queueWait;
+    private final Counter rejected;
+
+    /**
+     * Creates a platform thread pool.
+     * @param name metric prefix and worker thread name prefix
+     * @param poolSize number of worker threads
+     * @param queueCapacity tasks allowed to wait for a worker before new ones are rejected
+     * @param registry registry for the queue-wait timer, rejection counter and pool gauges
+     */
+    public BoundedTaskExecutor(String name, int poolSize, int queueCapacity, MeterRegistry registry) {
+        this(name, new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), namedDaemonThreads(name),
+                new ThreadPoolExecutor.AbortPolicy()), 0, registry);
+    }
+
+    private BoundedTaskExecutor(String name, ExecutorService executor, int maxConcurrency, MeterRegistry registry) {
+        Objects.requireNonNull(name);
+        this.executor = executor;
+        this.maxConcurrency = maxConcurrency;
+        this.permits = maxConcurrency > 0 ? new Semaphore(maxConcurrency) : null;
+        this.queueWait = Timer.builder(name + ".queue.wait")
+                .description("Time tasks spent queued before a worker picked them up")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(registry);
+        this.rejected = Counter.builder(name + ".rejected")
+                .description("Tasks rejected because the pool and its queue were full")
+                .register(registry);
+        Gauge.builder(name + ".queue.depth", this, BoundedTaskExecutor::getQueueDepth)
+                .description("Tasks waiting for a worker")
+                .register(registry);
+        Gauge.builder(name + ".active", this, BoundedTaskExecutor::getActiveCount)
+                .description("Workers currently running a task")
+                .register(registry);
+    }
+
+    /**
+     * Creates an executor that runs each task on a new virtual thread, allowing at most
+     * {@code maxConcurrency} tasks at once. The project compiles for Java 17, so the
+     * virtual thread factory is looked up reflectively.
+     * @throws IllegalStateException if the running JDK has no virtual threads
+     */
+    public static BoundedTaskExecutor virtualThreads(String name, int maxConcurrency, MeterRegistry registry) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("maxConcurrency must be positive");
+        }
+        return new BoundedTaskExecutor(name, newVirtualThreadPerTaskExecutor(), maxConcurrency, registry);
+    }
+
+    /**
+     * @return true if the running JDK supports virtual threads (Java 21+)
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return Runtime.version().feature() >= 21;
+    }
+
+    /**
+     * Queues the task on the pool.
+     * @return future completed with the task's result or exception
+     * @throws RejectedExecutionException if the pool is saturated or shut down
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        if (permits != null && !permits.tryAcquire()) {
+            throw reject(null);
+        }
+        long enqueuedAt = System.nanoTime();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                queueWait.record(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS);
+                try {
+                    return task.get();
+                } finally {
+                    if (permits != null) {
+                        permits.release();
+                    }
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            if (permits != null) {
+                permits.release();
+            }
+            throw reject(e);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private RejectedExecutionException reject(RejectedExecutionException cause) {
+        rejected.increment();
+        return new RejectedExecutionException("Server is busy processing other queries. Please try again later.", cause);
+    }
+
+    private int getQueueDepth() {
+        return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getQueue().size() : 0;
+    }
+
+    private int getActiveCount() {
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getActiveCount();
+        }
+        return maxConcurrency - permits.availablePermits();
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (!isVirtualThreadsSupported()) {
+            throw new IllegalStateException("Virtual threads require Java 21 or newer, running on " + Runtime.version());
+        }
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to create virtual thread executor", e);
+        }
+    }
+
+    private static ThreadFactory namedDaemonThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
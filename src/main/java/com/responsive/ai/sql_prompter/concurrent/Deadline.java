@@ -0,0 +1,149 @@
+package com.responsive.ai.sql_prompter.concurrent;
+
+import com.responsive.ai.sql_prompter.exception.DeadlineExceededException;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Time budget of one request, passed along from prompt building through model generation to
+ * query execution. Each stage checks the budget before it starts, blocking calls are interrupted
+ * when it runs out, and MongoDB gets the remainder as maxTimeMS so the server stops working on a
+ * query the client no longer waits for.
+ */
+public final class Deadline {
+
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "deadline-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long budgetMillis;
+    private final long expiresAtNanos;
+
+    private Deadline(long budgetMillis) {
+        this.budgetMillis = budgetMillis;
+        this.expiresAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+    }
+
+    /**
+     * @return a deadline expiring the given number of milliseconds from now
+     */
+    public static Deadline afterMillis(long budgetMillis) {
+        if (budgetMillis <= 0) {
+            throw new IllegalArgumentException("budgetMillis must be positive");
+        }
+        return new Deadline(budgetMillis);
+    }
+
+    public long getBudgetMillis() {
+        return budgetMillis;
+    }
+
+    /**
+     * @return milliseconds left, rounded up so a live deadline never reports 0; 0 once expired
+     */
+    public long remainingMillis() {
+        long remainingNanos = expiresAtNanos - System.nanoTime();
+        return remainingNanos <= 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(remainingNanos + 999_999);
+    }
+
+    public boolean isExpired() {
+        return remainingMillis() == 0;
+    }
+
+    /**
+     * @param stage what is about to run, for the error message
+     * @throws DeadlineExceededException If the deadline has passed
+     */
+    public void check(String stage) {
+        if (isExpired()) {
+            throw exceeded(stage, null);
+        }
+    }
+
+    /**
+     * @return an exception reporting that the budget ran out during the given stage
+     */
+    public DeadlineExceededException exceeded(String stage, Throwable cause) {
+        return new DeadlineExceededException("Query exceeded its deadline of " + budgetMillis + " ms during " + stage, cause);
+    }
+
+    /**
+     * Runs a blocking call on the current thread and interrupts it if the deadline passes first.
+     * The interrupt makes the HTTP clients used for model calls abort the request, so the model
+     * stops generating for a client that has already been answered.
+     * @throws DeadlineExceededException If the deadline passed before or during the call
+     */
+    public <T> T callInterruptibly(String stage, Supplier<T> call) {
+        check(stage);
+        Interrupter interrupter = new Interrupter(Thread.currentThread());
+        ScheduledFuture<?> timer = WATCHDOG.schedule(interrupter, expiresAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        T result;
+        try {
+            result = call.get();
+        } catch (RuntimeException | Error e) {
+            if (interrupter.finish()) {
+                throw exceeded(stage, e);
+            }
+            throw e;
+        } finally {
+            timer.cancel(false);
+        }
+        // A result that arrived just as the deadline passed is still used; the next stage's check fails fast
+        interrupter.finish();
+        return result;
+    }
+
+    /**
+     * Interrupts the caller at most once, and never after the call has finished.
+     */
+    private static final class Interrupter implements Runnable {
+        private final Thread thread;
+        private final ReentrantLock lock = new ReentrantLock();
+        private boolean finished;
+        private boolean fired;
+
+        private Interrupter(Thread thread) {
+            this.thread = thread;
+        }
+
+        @Override
+        public void run() {
+            lock.lock();
+            try {
+                if (!finished) {
+                    fired = true;
+                    thread.interrupt();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Marks the call as finished and clears an interrupt this watchdog delivered.
+         * @return true if the watchdog fired
+         */
+        private boolean finish() {
+            lock.lock();
+            try {
+                if (!finished) {
+                    finished = true;
+                    if (fired) {
+                        Thread.interrupted();
+                    }
+                }
+                return fired;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -1,10 +1,19 @@
 package com.responsive.ai.sql_prompter.config;
 
+import com.responsive.ai.sql_prompter.cache.LruTtlCache;
+import com.responsive.ai.sql_prompter.cache.SingleFlight;
+import com.responsive.ai.sql_prompter.concurrent.BoundedTaskExecutor;
+import com.responsive.ai.sql_prompter.model.MongoQuery;
 import com.responsive.ai.sql_prompter.service.AiQueryService;
 import com.responsive.ai.sql_prompter.service.DatabaseSchemaService;
+import com.responsive.ai.sql_prompter.service.QueryEngine;
+import com.responsive.ai.sql_prompter.service.QueryRewriter;
+import com.responsive.ai.sql_prompter.service.SchemaPruner;
+import com.responsive.ai.sql_prompter.service.StreamingJsonChatModel;
 import com.responsive.ai.sql_prompter.service.impl.QueryExecutionServiceImpl;
 import dev.langchain4j.model.chat.ChatLanguageModel;
 import dev.langchain4j.model.ollama.OllamaChatModel;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -25,16 +34,54 @@ public class AiConfig {
     @Value("${ollama.model:llama3}")
     private String ollamaModel;
 
+    @Value("${ollama.streaming.enabled:true}")
+    private boolean ollamaStreamingEnabled;
+
+    @Value("${ollama.timeout-seconds:120}")
+    private long ollamaTimeoutSeconds;
+
+    @Value("${ai.query-cache.max-entries:500}")
+    private int queryCacheMaxEntries;
+
+    @Value("${ai.query-cache.ttl-seconds:1800}")
+    private long queryCacheTtlSeconds;
+
+    @Value("${query.rewrite.enabled:true}")
+    private boolean queryRewriteEnabled;
+
+    @Value("${query.rewrite.collation-locale:en}")
+    private String queryRewriteCollationLocale;
+
+    @Value("${ai.executor.pool-size:4}")
+    private int aiExecutorPoolSize;
+
+    @Value("${ai.executor.queue-capacity:16}")
+    private int aiExecutorQueueCapacity;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreadsEnabled;
+
+    @Value("${ai.executor.virtual.max-concurrency:256}")
+    private int aiExecutorVirtualMaxConcurrency;
+
     @Bean
-    public ChatLanguageModel chatLanguageModel() {
-        log.info("Initializing OllamaChatModel with baseUrl: '{}' and model: '{}'", ollamaBaseUrl, ollamaModel);
+    public ChatLanguageModel chatLanguageModel(MeterRegistry meterRegistry) {
+        log.info("Initializing {} with baseUrl: '{}' and model: '{}'",
+                ollamaStreamingEnabled ? "StreamingJsonChatModel" : "OllamaChatModel", ollamaBaseUrl, ollamaModel);
         try {
-            OllamaChatModel model = OllamaChatModel.builder()
-                    .baseUrl(ollamaBaseUrl)
-                    .modelName(ollamaModel)
-                    .temperature(0.0)
-                    .timeout(Duration.ofMinutes(5))
-                    .build();
+            ChatLanguageModel model;
+            if (ollamaStreamingEnabled) {
+                // Streams tokens and cancels generation once the JSON query object is complete
+                model = new StreamingJsonChatModel(ollamaBaseUrl, ollamaModel, 0.0,
+                        Duration.ofSeconds(ollamaTimeoutSeconds), meterRegistry);
+            } else {
+                model = OllamaChatModel.builder()
+                        .baseUrl(ollamaBaseUrl)
+                        .modelName(ollamaModel)
+                        .temperature(0.0)
+                        .timeout(Duration.ofSeconds(ollamaTimeoutSeconds))
+                        .build();
+            }
             
             // Test the model with a simple prompt
             String testResponse = model.generate("Say 'Hello, Ollama!'").trim();
@@ -42,18 +89,45 @@ public class AiConfig {
             
             return model;
         } catch (Exception e) {
-            log.error("Failed to initialize OllamaChatModel. Please verify:", e);
+            log.error("Failed to initialize Ollama chat model. Please verify:", e);
             log.error("1. Ollama service is running at: {}", ollamaBaseUrl);
             log.error("2. Model '{}' is available (check with 'ollama list')", ollamaModel);
             log.error("3. No firewall is blocking the connection");
-            throw new RuntimeException("Failed to initialize OllamaChatModel: " + e.getMessage(), e);
+            throw new RuntimeException("Failed to initialize Ollama chat model: " + e.getMessage(), e);
         }
     }
 
     @Bean
     public AiQueryService aiQueryService(MongoTemplate mongoTemplate, 
                                         DatabaseSchemaService schemaService,
-                                        ChatLanguageModel chatLanguageModel) {
-        return new AiQueryService(mongoTemplate, schemaService, chatLanguageModel);
+                                        ChatLanguageModel chatLanguageModel,
+                                        QueryEngine queryEngine,
+                                        MeterRegistry meterRegistry) {
+        LruTtlCache<String, MongoQuery> queryCache = new LruTtlCache<String, MongoQuery>(
+                "ai.query", queryCacheMaxEntries, Duration.ofSeconds(queryCacheTtlSeconds))
+                .bindTo(meterRegistry);
+        SingleFlight<String, MongoQuery> queryGenerations =
+                new SingleFlight<>("ai.query.generations", meterRegistry);
+        return new AiQueryService(mongoTemplate, schemaService, chatLanguageModel, queryCache, queryGenerations,
+                new SchemaPruner(meterRegistry),
+                new QueryRewriter(meterRegistry, queryRewriteEnabled, queryRewriteCollationLocale), queryEngine);
+    }
+
+    /**
+     * Dedicated pool for AI query requests so slow generations never hold servlet threads.
+     * With spring.threads.virtual.enabled each request runs on its own virtual thread instead.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public BoundedTaskExecutor aiTaskExecutor(MeterRegistry meterRegistry) {
+        if (virtualThreadsEnabled) {
+            if (BoundedTaskExecutor.isVirtualThreadsSupported()) {
+                log.info("AI requests run on virtual threads, at most {} at once", aiExecutorVirtualMaxConcurrency);
+                return BoundedTaskExecutor.virtualThreads("ai.executor", aiExecutorVirtualMaxConcurrency, meterRegistry);
+            }
+            log.warn("spring.threads.virtual.enabled is set but Java {} has no virtual threads, using a thread pool",
+                    Runtime.version().feature());
+        }
+        log.info("AI worker pool: {} threads, queue capacity {}", aiExecutorPoolSize, aiExecutorQueueCapacity);
+        return new BoundedTaskExecutor("ai.executor", aiExecutorPoolSize, aiExecutorQueueCapacity, meterRegistry);
     }
 }
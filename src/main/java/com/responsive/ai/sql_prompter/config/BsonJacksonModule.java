@@ -0,0 +1,98 @@
+package com.responsive.ai.sql_prompter.config;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import org.bson.BsonRegularExpression;
+import org.bson.BsonTimestamp;
+import org.bson.BsonUndefined;
+import org.bson.types.Binary;
+import org.bson.types.Code;
+import org.bson.types.Decimal128;
+import org.bson.types.MaxKey;
+import org.bson.types.MinKey;
+import org.bson.types.ObjectId;
+import org.bson.types.Symbol;
+
+import java.io.IOException;
+
+/**
+ * Jackson serializers for the BSON value types the driver puts into decoded documents, so query
+ * results can be written to the response as-is instead of being converted to plain maps first.
+ * Documents themselves are maps and need no serializer; dates keep Jackson's default rendering.
+ */
+public class BsonJacksonModule extends SimpleModule {
+    private static final long serialVersionUID = 1L;
+
+    public BsonJacksonModule() {
+        super("BsonJacksonModule");
+        addSerializer(ObjectId.class, new ToStringSerializer<>(ObjectId::toHexString));
+        addSerializer(Code.class, new ToStringSerializer<>(Code::getCode));
+        addSerializer(Symbol.class, new ToStringSerializer<>(Symbol::getSymbol));
+        addSerializer(BsonRegularExpression.class,
+                new ToStringSerializer<>(regex -> "/" + regex.getPattern() + "/" + regex.getOptions()));
+        addSerializer(MinKey.class, new ToStringSerializer<>(key -> "MinKey"));
+        addSerializer(MaxKey.class, new ToStringSerializer<>(key -> "MaxKey"));
+        addSerializer(Decimal128.class, new Decimal128Serializer());
+        addSerializer(Binary.class, new BinarySerializer());
+        addSerializer(BsonTimestamp.class, new TimestampSerializer());
+        addSerializer(BsonUndefined.class, new UndefinedSerializer());
+    }
+
+    private interface StringConverter<T> {
+        String convert(T value);
+    }
+
+    private static final class ToStringSerializer<T> extends JsonSerializer<T> {
+        private final StringConverter<T> converter;
+
+        private ToStringSerializer(StringConverter<T> converter) {
+            this.converter = converter;
+        }
+
+        @Override
+        public void serialize(T value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+            gen.writeString(converter.convert(value));
+        }
+    }
+
+    /**
+     * Finite decimals are written as JSON numbers without going through BigDecimal;
+     * NaN and infinities have no JSON number form and are written as strings.
+     */
+    private static final class Decimal128Serializer extends JsonSerializer<Decimal128> {
+        @Override
+        public void serialize(Decimal128 value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+            if (value.isNaN() || value.isInfinite()) {
+                gen.writeString(value.toString());
+            } else {
+                gen.writeNumber(value.toString());
+            }
+        }
+    }
+
+    private static final class BinarySerializer extends JsonSerializer<Binary> {
+        @Override
+        public void serialize(Binary value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+            gen.writeBinary(value.getData());
+        }
+    }
+
+    private static final class TimestampSerializer extends JsonSerializer<BsonTimestamp> {
+        @Override
+        public void serialize(BsonTimestamp value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+            gen.writeStartObject();
+            gen.writeNumberField("t", value.getTime());
+            gen.writeNumberField("i", value.getInc());
+            gen.writeEndObject();
+        }
+    }
+
+    private static final class UndefinedSerializer extends JsonSerializer<BsonUndefined> {
+        @Override
+        public void serialize(BsonUndefined value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+            gen.writeNull();
+        }
+    }
+}
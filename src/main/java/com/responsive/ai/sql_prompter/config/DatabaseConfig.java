@@ -1,27 +1,259 @@
 package com.responsive.ai.sql_prompter.config;
 
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCompressor;
+import com.mongodb.ReadPreference;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.mongodb.MongoMetricsCommandListener;
+import io.micrometer.core.instrument.binder.mongodb.MongoMetricsConnectionPoolListener;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 import org.springframework.data.mongodb.MongoDatabaseFactory;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
 import org.springframework.data.mongodb.core.SimpleMongoClientDatabaseFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
 @Configuration
 public class DatabaseConfig {
 
+    private static final Pattern TARGET_NAME = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    @Value("${spring.data.mongodb.uri:mongodb://localhost:27017/}")
+    private String connectionString;
+
     @Value("${spring.data.mongodb.database}")
     private String databaseName;
 
+    @Value("${mongodb.client.pool.min-size:0}")
+    private int poolMinSize;
+
+    @Value("${mongodb.client.pool.max-size:100}")
+    private int poolMaxSize;
+
+    @Value("${mongodb.client.pool.max-wait-ms:5000}")
+    private long poolMaxWaitMs;
+
+    @Value("${mongodb.client.pool.max-idle-time-ms:60000}")
+    private long poolMaxIdleTimeMs;
+
+    @Value("${mongodb.client.pool.max-connecting:2}")
+    private int poolMaxConnecting;
+
+    @Value("${mongodb.client.connect-timeout-ms:10000}")
+    private int connectTimeoutMs;
+
+    @Value("${mongodb.client.socket-timeout-ms:0}")
+    private int socketTimeoutMs;
+
+    @Value("${mongodb.client.server-selection-timeout-ms:5000}")
+    private long serverSelectionTimeoutMs;
+
+    @Value("${mongodb.client.compressors:}")
+    private List<String> compressors;
+
+    @Value("${mongodb.client.read-preference:primary}")
+    private String readPreference;
+
+    @Value("${mongodb.read.query.read-preference:primary}")
+    private String queryReadPreference;
+
+    @Value("${mongodb.read.query.tags:}")
+    private String queryTags;
+
+    @Value("${mongodb.read.query.max-staleness-seconds:0}")
+    private long queryMaxStalenessSeconds;
+
+    @Value("${mongodb.read.schema.read-preference:secondaryPreferred}")
+    private String schemaReadPreference;
+
+    @Value("${mongodb.read.schema.tags:nodeType:ANALYTICS}")
+    private String schemaTags;
+
+    @Value("${mongodb.default-target:default}")
+    private String defaultTargetName;
+
+    @Value("${mongodb.targets:}")
+    private List<String> targetNames;
+
+    @Value("${mongodb.target.pool.max-size:20}")
+    private int targetPoolMaxSize;
+
+    /**
+     * Settings shared by the blocking and the reactive client. The mongodb.client.* properties are
+     * applied first and options in the connection string last, so the URI takes precedence over them.
+     * Command latency (mongodb.driver.commands), pool size and checked-out gauges (mongodb.driver.pool.*)
+     * and checkout waits (mongodb.driver.pool.checkout) are exported to the meter registry.
+     */
     @Bean
-    public MongoDatabaseFactory mongoDatabaseFactory() {
-        return new SimpleMongoClientDatabaseFactory("mongodb://localhost:27017/" + databaseName);
+    public MongoClientSettings mongoClientSettings(MeterRegistry meterRegistry) {
+        return clientSettings(connectionString, poolMaxSize, meterRegistry);
+    }
+
+    /**
+     * @return settings from the mongodb.client.* properties, with the pool capped at poolMaxSize,
+     *         overridden by the options given in the uri
+     */
+    MongoClientSettings clientSettings(String uri, int poolMaxSize, MeterRegistry meterRegistry) {
+        ConnectionString connection = new ConnectionString(uri);
+        // The minimum must not exceed the maximum the pool ends up with
+        int maxSize = connection.getMaxConnectionPoolSize() != null ? connection.getMaxConnectionPoolSize() : poolMaxSize;
+        return MongoClientSettings.builder()
+                .applyToConnectionPoolSettings(pool -> pool
+                        .minSize(Math.min(poolMinSize, maxSize))
+                        .maxSize(poolMaxSize)
+                        .maxWaitTime(poolMaxWaitMs, TimeUnit.MILLISECONDS)
+                        .maxConnectionIdleTime(poolMaxIdleTimeMs, TimeUnit.MILLISECONDS)
+                        .maxConnecting(poolMaxConnecting)
+                        .addConnectionPoolListener(new MongoMetricsConnectionPoolListener(meterRegistry))
+                        .addConnectionPoolListener(new MongoCheckoutTimer(meterRegistry)))
+                .applyToSocketSettings(socket -> socket
+                        .connectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+                        .readTimeout(socketTimeoutMs, TimeUnit.MILLISECONDS))
+                .applyToClusterSettings(cluster -> cluster
+                        .serverSelectionTimeout(serverSelectionTimeoutMs, TimeUnit.MILLISECONDS))
+                .compressorList(compressors(compressors))
+                .readPreference(ReadPreference.valueOf(readPreference))
+                .applyConnectionString(connection)
+                .addCommandListener(new MongoMetricsCommandListener(meterRegistry))
+                .build();
+    }
+
+    /**
+     * @param names compressor names in order of preference; zstd and snappy need zstd-jni and snappy-java at runtime
+     */
+    private static List<MongoCompressor> compressors(List<String> names) {
+        List<MongoCompressor> result = new ArrayList<>();
+        for (String name : names) {
+            switch (name.trim().toLowerCase(Locale.ROOT)) {
+                case "":
+                    break;
+                case "zstd":
+                    result.add(MongoCompressor.createZstdCompressor());
+                    break;
+                case "snappy":
+                    result.add(MongoCompressor.createSnappyCompressor());
+                    break;
+                case "zlib":
+                    result.add(MongoCompressor.createZlibCompressor());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown MongoDB compressor: " + name);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Read preferences of user queries and schema sampling. Everything else, including the seeder,
+     * uses the client's read preference (mongodb.client.read-preference, primary by default).
+     */
+    @Bean
+    public ReadRouting readRouting() {
+        return new ReadRouting(
+                ReadRouting.readPreference(queryReadPreference, queryTags, queryMaxStalenessSeconds),
+                ReadRouting.readPreference(schemaReadPreference, schemaTags, 0));
+    }
+
+    @Bean(destroyMethod = "close")
+    public MongoClient mongoClient(MongoClientSettings mongoClientSettings) {
+        return MongoClients.create(mongoClientSettings);
+    }
+
+    /**
+     * The default target (spring.data.mongodb.database on the application's clients) and the targets
+     * listed in mongodb.targets. For each listed target, mongodb.target.&lt;name&gt;.database names its
+     * database (default: the target name) and mongodb.target.&lt;name&gt;.max-rows optionally lowers
+     * query.engine.max-rows. A target with mongodb.target.&lt;name&gt;.uri gets its own clients with a pool
+     * of at most mongodb.target.&lt;name&gt;.pool.max-size connections; without one it shares the default pool.
+     */
+    @Bean(destroyMethod = "close")
+    public QueryTargets queryTargets(MongoClient mongoClient,
+                                     MongoTemplate mongoTemplate,
+                                     com.mongodb.reactivestreams.client.MongoClient reactiveMongoClient,
+                                     ReactiveMongoTemplate reactiveMongoTemplate,
+                                     MeterRegistry meterRegistry,
+                                     Environment environment) {
+        List<QueryTarget> targets = new ArrayList<>();
+        targets.add(new QueryTarget(defaultTargetName, databaseName, mongoTemplate, reactiveMongoTemplate, null,
+                List.of()));
+        try {
+            for (String name : targetNames) {
+                if (!name.isBlank()) {
+                    targets.add(createTarget(name.trim(), mongoClient, reactiveMongoClient, meterRegistry, environment));
+                }
+            }
+        } catch (RuntimeException e) {
+            // Close the clients of the targets created so far
+            new QueryTargets(targets, defaultTargetName).close();
+            throw e;
+        }
+        return new QueryTargets(targets, defaultTargetName);
+    }
+
+    private QueryTarget createTarget(String name,
+                                     MongoClient mongoClient,
+                                     com.mongodb.reactivestreams.client.MongoClient reactiveMongoClient,
+                                     MeterRegistry meterRegistry,
+                                     Environment environment) {
+        if (!TARGET_NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid query target name: " + name);
+        }
+        String prefix = "mongodb.target." + name + ".";
+        String database = environment.getProperty(prefix + "database", name);
+        Integer maxRows = environment.getProperty(prefix + "max-rows", Integer.class);
+        String uri = environment.getProperty(prefix + "uri");
+        if (uri == null || uri.isBlank()) {
+            return new QueryTarget(name, database,
+                    new MongoTemplate(new SimpleMongoClientDatabaseFactory(mongoClient, database)),
+                    new ReactiveMongoTemplate(reactiveMongoClient, database), maxRows, List.of());
+        }
+
+        int poolMaxSize = environment.getProperty(prefix + "pool.max-size", Integer.class, targetPoolMaxSize);
+        // Same timeouts, compressors and listeners as the default clients; nothing from the default URI,
+        // such as its credentials, is carried over to the target's cluster
+        MongoClientSettings settings = clientSettings(uri, poolMaxSize, meterRegistry);
+        MongoClient client = MongoClients.create(settings);
+        com.mongodb.reactivestreams.client.MongoClient reactiveClient =
+                com.mongodb.reactivestreams.client.MongoClients.create(settings);
+        return new QueryTarget(name, database,
+                new MongoTemplate(new SimpleMongoClientDatabaseFactory(client, database)),
+                new ReactiveMongoTemplate(reactiveClient, database), maxRows, List.of(client, reactiveClient));
+    }
+
+    /**
+     * Database of the default target; queries on other targets use the templates of their {@link QueryTarget}.
+     */
+    @Bean
+    public MongoDatabaseFactory mongoDatabaseFactory(MongoClient mongoClient) {
+        return new SimpleMongoClientDatabaseFactory(mongoClient, databaseName);
+    }
+
+    @Bean
+    public MongoTemplate mongoTemplate(MongoDatabaseFactory mongoDatabaseFactory) {
+        return new MongoTemplate(mongoDatabaseFactory);
+    }
+
+    /**
+     * Reactive Streams client for the streaming endpoints, with the same settings as the blocking one.
+     */
+    @Bean(destroyMethod = "close")
+    public com.mongodb.reactivestreams.client.MongoClient reactiveMongoClient(MongoClientSettings mongoClientSettings) {
+        return com.mongodb.reactivestreams.client.MongoClients.create(mongoClientSettings);
     }
 
     @Bean
-    public MongoTemplate mongoTemplate() {
-        return new MongoTemplate(mongoDatabaseFactory());
+    public ReactiveMongoTemplate reactiveMongoTemplate(com.mongodb.reactivestreams.client.MongoClient reactiveMongoClient) {
+        return new ReactiveMongoTemplate(reactiveMongoClient, databaseName);
     }
 }
@@ -0,0 +1,45 @@
+package com.responsive.ai.sql_prompter.config;
+
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionPoolListener;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long operations wait to check a connection out of the driver's pool. Waits close to
+ * mongodb.client.pool.max-wait-ms, or checkout timeouts, mean the pool is too small for the load.
+ */
+public class MongoCheckoutTimer implements ConnectionPoolListener {
+
+    private final MeterRegistry meterRegistry;
+    private final Timer checkedOut;
+
+    public MongoCheckoutTimer(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.checkedOut = timer("checked_out");
+    }
+
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+        checkedOut.record(event.getElapsedTime(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+        // TIMEOUT, CONNECTION_ERROR, POOL_CLOSED or UNKNOWN
+        timer(event.getReason().name().toLowerCase(Locale.ROOT))
+                .record(event.getElapsedTime(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+    }
+
+    private Timer timer(String outcome) {
+        return Timer.builder("mongodb.driver.pool.checkout")
+                .tag("outcome", outcome)
+                .description("Time operations waited for a pooled connection")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,66 @@
+package com.responsive.ai.sql_prompter.config;
+
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A named database that queries can be sent to, e.g. one tenant's database. Targets on the
+ * application's own cluster share its connection pool; targets on other clusters have their own
+ * clients, whose pools are bounded by mongodb.target.&lt;name&gt;.pool.max-size.
+ * <p>
+ * Services take the target as a parameter and run every operation on its templates, so a request
+ * stays on its target when its work moves between threads.
+ */
+public final class QueryTarget {
+
+    private final String name;
+    private final String database;
+    private final MongoTemplate mongoTemplate;
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+    private final Integer maxRows;
+    private final List<AutoCloseable> clients;
+
+    /**
+     * @param maxRows most rows a non-streaming query on this target may return; null for query.engine.max-rows
+     * @param clients clients created for this target alone, closed with it; empty if the pool is shared
+     */
+    public QueryTarget(String name, String database, MongoTemplate mongoTemplate,
+                       ReactiveMongoTemplate reactiveMongoTemplate, Integer maxRows, List<AutoCloseable> clients) {
+        this.name = Objects.requireNonNull(name);
+        this.database = Objects.requireNonNull(database);
+        this.mongoTemplate = Objects.requireNonNull(mongoTemplate);
+        this.reactiveMongoTemplate = Objects.requireNonNull(reactiveMongoTemplate);
+        this.maxRows = maxRows;
+        this.clients = List.copyOf(clients);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDatabase() {
+        return database;
+    }
+
+    public MongoTemplate getMongoTemplate() {
+        return mongoTemplate;
+    }
+
+    public ReactiveMongoTemplate getReactiveMongoTemplate() {
+        return reactiveMongoTemplate;
+    }
+
+    /**
+     * @return the row limit of this target, or the given default if it has none
+     */
+    public int getMaxRows(int defaultMaxRows) {
+        return maxRows != null ? maxRows : defaultMaxRows;
+    }
+
+    List<AutoCloseable> getClients() {
+        return clients;
+    }
+}
@@ -0,0 +1,73 @@
+package com.responsive.ai.sql_prompter.config;
+
+import com.responsive.ai.sql_prompter.exception.InvalidQueryException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Registry of the named query targets. Requests resolve their target once with {@link #get} and
+ * pass it on; work that names no target, such as the seeder, uses the default target.
+ */
+public final class QueryTargets implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(QueryTargets.class);
+
+    private final Map<String, QueryTarget> targets;
+    private final QueryTarget defaultTarget;
+
+    /**
+     * @param targets all targets, including the default one
+     */
+    public QueryTargets(List<QueryTarget> targets, String defaultName) {
+        Map<String, QueryTarget> byName = new LinkedHashMap<>();
+        for (QueryTarget target : targets) {
+            if (byName.put(target.getName(), target) != null) {
+                throw new IllegalArgumentException("Duplicate query target: " + target.getName());
+            }
+        }
+        this.targets = byName;
+        this.defaultTarget = Objects.requireNonNull(byName.get(defaultName), "default target " + defaultName);
+    }
+
+    /**
+     * @param name target name from the request; null or blank for the default target
+     * @throws InvalidQueryException If no target has that name
+     */
+    public QueryTarget get(String name) {
+        if (name == null || name.isBlank()) {
+            return defaultTarget;
+        }
+        QueryTarget target = targets.get(name.trim());
+        if (target == null) {
+            throw new InvalidQueryException("Unknown query target: " + name.trim());
+        }
+        return target;
+    }
+
+    public QueryTarget getDefault() {
+        return defaultTarget;
+    }
+
+    public Collection<QueryTarget> all() {
+        return targets.values();
+    }
+
+    @Override
+    public void close() {
+        for (QueryTarget target : targets.values()) {
+            for (AutoCloseable client : target.getClients()) {
+                try {
+                    client.close();
+                } catch (Exception e) {
+                    log.warn("Could not close client of query target {}: {}", target.getName(), e.getMessage());
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.responsive.ai.sql_prompter.config;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.Tag;
+import com.mongodb.TagSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read preferences of the read-only workloads. User queries (direct and generated) and schema
+ * sampling are routed separately, so heavy scans and sampling can run on secondaries or a dedicated
+ * analytics member while writes, such as the seeder's, stay on the client's default, the primary.
+ */
+public final class ReadRouting {
+
+    private final ReadPreference queries;
+    private final ReadPreference schemaSampling;
+
+    public ReadRouting(ReadPreference queries, ReadPreference schemaSampling) {
+        this.queries = Objects.requireNonNull(queries);
+        this.schemaSampling = Objects.requireNonNull(schemaSampling);
+    }
+
+    /**
+     * @return where find, aggregate, join and explain commands of user queries are sent
+     */
+    public ReadPreference forQueries() {
+        return queries;
+    }
+
+    /**
+     * @return where the documents sampled for the schema snapshot are read
+     */
+    public ReadPreference forSchemaSampling() {
+        return schemaSampling;
+    }
+
+    /**
+     * @return true if user queries may read from secondaries, and so may see data that lags the primary
+     */
+    public boolean queriesMayReadStale() {
+        return !queries.equals(ReadPreference.primary());
+    }
+
+    /**
+     * Builds a read preference from configuration.
+     * @param mode primary, primaryPreferred, secondary, secondaryPreferred or nearest
+     * @param tagSets tag sets in order of preference, separated by ';', each a comma-separated list of
+     *        name:value tags, e.g. "nodeType:ANALYTICS;" (an empty set matches any member); blank for none
+     * @param maxStalenessSeconds maximum replication lag of a secondary, at least 90; 0 for no limit
+     * @throws IllegalArgumentException If the combination is invalid, e.g. tag sets with primary
+     */
+    public static ReadPreference readPreference(String mode, String tagSets, long maxStalenessSeconds) {
+        List<TagSet> tags = parseTagSets(tagSets);
+        if (tags.isEmpty() && maxStalenessSeconds <= 0) {
+            return ReadPreference.valueOf(mode);
+        }
+        if ("primary".equalsIgnoreCase(mode)) {
+            throw new IllegalArgumentException("Tag sets and max staleness cannot be used with read preference primary");
+        }
+        if (maxStalenessSeconds <= 0) {
+            return ReadPreference.valueOf(mode, tags);
+        }
+        return ReadPreference.valueOf(mode, tags, maxStalenessSeconds, TimeUnit.SECONDS);
+    }
+
+    private static List<TagSet> parseTagSets(String value) {
+        List<TagSet> tagSets = new ArrayList<>();
+        if (value == null || value.isBlank()) {
+            return tagSets;
+        }
+        for (String set : value.split(";", -1)) {
+            List<Tag> tags = new ArrayList<>();
+            for (String tag : set.split(",")) {
+                if (tag.isBlank()) {
+                    continue;
+                }
+                int colon = tag.indexOf(':');
+                if (colon <= 0 || colon == tag.length() - 1) {
+                    throw new IllegalArgumentException("Invalid read preference tag '" + tag.trim() + "'. Expected name:value.");
+                }
+                tags.add(new Tag(tag.substring(0, colon).trim(), tag.substring(colon + 1).trim()));
+            }
+            tagSets.add(new TagSet(tags));
+        }
+        return tagSets;
+    }
+}
@@ -1,5 +1,9 @@
 package com.responsive.ai.sql_prompter.controller;
 
+import com.responsive.ai.sql_prompter.concurrent.BoundedTaskExecutor;
+import com.responsive.ai.sql_prompter.concurrent.Deadline;
+import com.responsive.ai.sql_prompter.exception.DeadlineExceededException;
+import com.responsive.ai.sql_prompter.exception.InvalidQueryException;
 import com.responsive.ai.sql_prompter.model.QueryRequest;
 import com.responsive.ai.sql_prompter.model.QueryResponse;
 import com.responsive.ai.sql_prompter.service.QueryService;
@@ -14,7 +18,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/query")
@@ -25,10 +30,14 @@ public class NaturalLanguageController {
     @Autowired
     private QueryService queryService;
 
+    @Autowired
+    private BoundedTaskExecutor aiTaskExecutor;
+
     @PostMapping("/nlq")
     @Operation(
         summary = "Process natural language query",
-        description = "Process a natural language query and return the results"
+        description = "Process a natural language query and return the results; " +
+                      "with pageSize or continuationToken one page is returned"
     )
     @ApiResponse(
         responseCode = "200",
@@ -38,33 +47,33 @@ public class NaturalLanguageController {
             schema = @Schema(implementation = QueryResponse.class)
         )
     )
-    public ResponseEntity<QueryResponse> processNaturalLanguageQuery(
+    public CompletableFuture<ResponseEntity<QueryResponse>> processNaturalLanguageQuery(
             @io.swagger.v3.oas.annotations.parameters.RequestBody(
-                description = "Natural language query",
+                description = "Natural language query, with the same paging, deadline and target options as /ai",
                 required = true,
                 content = @Content(
                     mediaType = "application/json",
-                    schema = @Schema(implementation = Map.class)
+                    schema = @Schema(implementation = QueryRequest.class)
                 )
             )
-            @RequestBody Map<String, String> request) {
+            @jakarta.validation.Valid @RequestBody QueryRequest request) {
         
-        String query = request.get("query");
-        if (query == null || query.trim().isEmpty()) {
-            throw new IllegalArgumentException("Query cannot be empty");
-        }
-
+        String query = request.getQuery();
         log.info("Processing natural language query: {}", query);
-        
-        try {
-            QueryRequest queryRequest = new QueryRequest();
-            queryRequest.setQuery(query);
-            queryRequest.setUseAi(true);
-            return ResponseEntity.ok(queryService.executeQuery(queryRequest));
-            
-        } catch (Exception e) {
-            log.error("Error processing query: " + query, e);
-            throw new RuntimeException("Failed to process query: " + e.getMessage(), e);
-        }
+        request.setUseAi(true);
+        // Started before queueing, so time spent waiting for a worker counts against the budget
+        Deadline deadline = queryService.deadlineFor(request);
+
+        return aiTaskExecutor.submit(() -> {
+            try {
+                return ResponseEntity.ok(queryService.executeQuery(request, deadline));
+            } catch (DeadlineExceededException | RejectedExecutionException | InvalidQueryException | SecurityException e) {
+                // Mapped to their own status codes by GlobalExceptionHandler
+                throw e;
+            } catch (Exception e) {
+                log.error("Error processing query: " + query, e);
+                throw new RuntimeException("Failed to process query: " + e.getMessage(), e);
+            }
+        });
     }
 }
@@ -1,5 +1,9 @@
 package com.responsive.ai.sql_prompter.controller;
 
+import com.responsive.ai.sql_prompter.concurrent.BoundedTaskExecutor;
+import com.responsive.ai.sql_prompter.concurrent.Deadline;
+import com.responsive.ai.sql_prompter.exception.DeadlineExceededException;
+import com.responsive.ai.sql_prompter.exception.InvalidQueryException;
 import com.responsive.ai.sql_prompter.model.QueryRequest;
 import com.responsive.ai.sql_prompter.model.QueryResponse;
 import com.responsive.ai.sql_prompter.service.QueryService;
@@ -7,18 +11,24 @@ import io.github.bucket4j.Bandwidth;
 import io.github.bucket4j.Bucket;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletResponse;
+import org.bson.Document;
 
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
 
 import jakarta.annotation.PostConstruct;
+import java.io.IOException;
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @CrossOrigin(origins = "${app.cors.allowed-origins:http://localhost:3000}")
@@ -29,6 +39,9 @@ public class QueryController {
 
     @Autowired
     private QueryService queryService;
+
+    @Autowired
+    private BoundedTaskExecutor aiTaskExecutor;
     
     // Rate limiting: 100 requests per minute per IP
     private Bucket bucket;
@@ -56,18 +69,44 @@ public class QueryController {
         log.info("Executing direct query"); // Don't log the actual query for security
         try {
             return ResponseEntity.ok(queryService.executeQuery(request));
+        } catch (DeadlineExceededException | RejectedExecutionException | InvalidQueryException | SecurityException e) {
+            // Mapped to their own status codes by GlobalExceptionHandler
+            throw e;
         } catch (Exception e) {
             log.error("Error executing direct query", e);
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Error executing query: " + e.getMessage());
         }
     }
 
+    @Operation(
+        summary = "Stream a direct query as NDJSON",
+        description = "Executes the provided MongoDB query and writes each matching document as one line of JSON " +
+                      "while reading the cursor, for exports too large to buffer"
+    )
+    @PostMapping(value = "/direct/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public void streamDirectQuery(@jakarta.validation.Valid @RequestBody QueryRequest request,
+                                  HttpServletResponse response) throws IOException {
+        // Check rate limit
+        if (!bucket.tryConsume(1)) {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Rate limit exceeded. Please try again later.");
+        }
+        
+        // Validate before anything is written so errors still produce a normal error response
+        Document queryDoc = queryService.parseDirectQuery(request.getQuery());
+        
+        log.info("Streaming direct query"); // Don't log the actual query for security
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        response.setCharacterEncoding("UTF-8");
+        long count = queryService.streamDirectQuery(request.getTarget(), queryDoc, response.getOutputStream());
+        log.info("Streamed {} documents", count);
+    }
+
     @Operation(
         summary = "Execute a natural language query using AI",
         description = "Converts natural language to SQL and executes it against the database"
     )
     @PostMapping("/ai")
-    public ResponseEntity<QueryResponse> executeAiQuery(@jakarta.validation.Valid @RequestBody QueryRequest request) {
+    public CompletableFuture<ResponseEntity<QueryResponse>> executeAiQuery(@jakarta.validation.Valid @RequestBody QueryRequest request) {
         // Check rate limit (AI queries consume more resources, so we might want to limit them more)
         if (!bucket.tryConsume(5)) {
             throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, 
@@ -76,13 +115,21 @@ public class QueryController {
         
         log.info("Processing AI query"); // Don't log the actual query for security
         request.setUseAi(true);
+        // Started before queueing, so time spent waiting for a worker counts against the budget
+        Deadline deadline = queryService.deadlineFor(request);
         
-        try {
-            return ResponseEntity.ok(queryService.executeQuery(request));
-        } catch (Exception e) {
-            log.error("Error processing AI query", e);
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, 
-                "Error processing AI query: " + e.getMessage());
-        }
+        // Runs on the AI worker pool; the servlet thread is released while the model generates
+        return aiTaskExecutor.submit(() -> {
+            try {
+                return ResponseEntity.ok(queryService.executeQuery(request, deadline));
+            } catch (DeadlineExceededException | RejectedExecutionException | InvalidQueryException | SecurityException e) {
+                // Mapped to their own status codes by GlobalExceptionHandler
+                throw e;
+            } catch (Exception e) {
+                log.error("Error processing AI query", e);
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, 
+                    "Error processing AI query: " + e.getMessage());
+            }
+        });
     }
 }
@@ -0,0 +1,47 @@
+package com.responsive.ai.sql_prompter.controller;
+
+import com.responsive.ai.sql_prompter.model.QueryRequest;
+import com.responsive.ai.sql_prompter.service.ReactiveQueryService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+
+/**
+ * Streaming counterparts of the query endpoints. Results are written as newline-delimited JSON,
+ * one document per line, as the reactive cursor produces them.
+ */
+@RestController
+@RequestMapping("/api/reactive/query")
+@Tag(name = "Reactive Query", description = "Non-blocking query APIs that stream results as NDJSON")
+public class ReactiveQueryController {
+    private static final Logger log = LoggerFactory.getLogger(ReactiveQueryController.class);
+
+    @Autowired
+    private ReactiveQueryService reactiveQueryService;
+
+    @Operation(
+        summary = "Stream a direct query",
+        description = "Executes the provided MongoDB query and streams matching documents as NDJSON"
+    )
+    @PostMapping(value = "/direct", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<Document> streamDirectQuery(@jakarta.validation.Valid @RequestBody QueryRequest request) {
+        log.info("Streaming direct query"); // Don't log the actual query for security
+        return reactiveQueryService.executeDirectQuery(request.getQuery(), request.getTarget());
+    }
+
+    @Operation(
+        summary = "Stream a natural language query",
+        description = "Converts natural language to a MongoDB query and streams matching documents as NDJSON"
+    )
+    @PostMapping(value = "/ai", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<Document> streamAiQuery(@jakarta.validation.Valid @RequestBody QueryRequest request) {
+        log.info("Streaming AI query"); // Don't log the actual query for security
+        return reactiveQueryService.executeAiQuery(request.getQuery(), request.getTarget());
+    }
+}
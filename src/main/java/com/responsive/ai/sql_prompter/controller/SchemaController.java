@@ -1,16 +1,26 @@
 package com.responsive.ai.sql_prompter.controller;
 
+import com.responsive.ai.sql_prompter.config.QueryTarget;
+import com.responsive.ai.sql_prompter.config.QueryTargets;
+import com.responsive.ai.sql_prompter.model.SchemaSnapshot;
 import com.responsive.ai.sql_prompter.service.DatabaseSchemaService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Schema endpoints. Responses served from the current schema snapshot carry its version as ETag,
+ * so clients sending If-None-Match receive 304 Not Modified until the snapshot changes. Every
+ * endpoint describes the query target named by the optional target parameter, as configured in
+ * mongodb.targets, and the default target without it.
+ */
 @RestController
 @RequestMapping("/api/schema")
 @Tag(name = "Schema", description = "APIs for database schema information")
@@ -19,18 +29,29 @@ public class SchemaController {
     @Autowired
     private DatabaseSchemaService schemaService;
 
+    @Autowired
+    private QueryTargets queryTargets;
+
     @GetMapping
     @Operation(summary = "Get database schema", 
                description = "Retrieves the complete database schema with table and column information")
-    public ResponseEntity<String> getSchema() {
-        return ResponseEntity.ok(schemaService.getSchemaDescription());
+    public ResponseEntity<String> getSchema(@RequestParam(required = false) String target, WebRequest request) {
+        SchemaSnapshot snapshot = schemaService.getSchemaSnapshot(queryTargets.get(target));
+        if (request.checkNotModified(snapshot.getVersion())) {
+            return null;
+        }
+        return ResponseEntity.ok(snapshot.getDescription());
     }
 
     @GetMapping("/tables")
     @Operation(summary = "List all tables", 
                description = "Returns a list of all tables in the database")
-    public ResponseEntity<List<String>> listTables() {
-        return ResponseEntity.ok(new ArrayList<>(schemaService.getTableList()));
+    public ResponseEntity<List<String>> listTables(@RequestParam(required = false) String target, WebRequest request) {
+        SchemaSnapshot snapshot = schemaService.getSchemaSnapshot(queryTargets.get(target));
+        if (request.checkNotModified(snapshot.getVersion())) {
+            return null;
+        }
+        return ResponseEntity.ok(new ArrayList<>(snapshot.getCollectionNames()));
     }
 
     @GetMapping("/tables/{tableName}")
@@ -38,12 +59,21 @@ public class SchemaController {
                description = "Retrieves schema information for a specific table")
     public ResponseEntity<Map<String, ?>> getTableSchema(
             @PathVariable String tableName,
-            @RequestParam(defaultValue = "false") boolean includeSample) {
+            @RequestParam(defaultValue = "false") boolean includeSample,
+            @RequestParam(required = false) String target,
+            WebRequest request) {
         
+        QueryTarget queryTarget = queryTargets.get(target);
+        SchemaSnapshot snapshot = schemaService.getSchemaSnapshot(queryTarget);
+        boolean fromSnapshot = snapshot.containsCollection(tableName)
+            && (!includeSample || snapshot.canServeSample(tableName, 5));
+        if (fromSnapshot && request.checkNotModified(snapshot.getVersion())) {
+            return null;
+        }
         if (includeSample) {
-            return ResponseEntity.ok(schemaService.getTableSchemaWithSample(tableName, 5));
+            return ResponseEntity.ok(schemaService.getTableSchemaWithSample(queryTarget, tableName, 5));
         }
-        return ResponseEntity.ok(schemaService.getTableSchema(tableName));
+        return ResponseEntity.ok(schemaService.getTableSchema(queryTarget, tableName));
     }
 
     @GetMapping("/tables/{tableName}/sample")
@@ -51,12 +81,20 @@ public class SchemaController {
                description = "Retrieves sample data from a specific table")
     public ResponseEntity<List<Map<String, Object>>> getTableSample(
             @PathVariable String tableName,
-            @RequestParam(defaultValue = "10") int limit) {
+            @RequestParam(defaultValue = "10") int limit,
+            @RequestParam(required = false) String target,
+            WebRequest request) {
         
         if (limit <= 0 || limit > 100) {
             limit = 10; // Enforce reasonable limits
         }
         
-        return ResponseEntity.ok(schemaService.getTableSample(tableName, limit));
+        // Larger samples than the snapshot holds are read live and therefore not tagged
+        QueryTarget queryTarget = queryTargets.get(target);
+        SchemaSnapshot snapshot = schemaService.getSchemaSnapshot(queryTarget);
+        if (snapshot.canServeSample(tableName, limit) && request.checkNotModified(snapshot.getVersion())) {
+            return null;
+        }
+        return ResponseEntity.ok(schemaService.getTableSample(queryTarget, tableName, limit));
     }
 }
@@ -0,0 +1,32 @@
+package com.responsive.ai.sql_prompter.exception;
+
+import com.mongodb.MongoExecutionTimeoutException;
+
+/**
+ * Exception thrown when a request runs out of its deadline budget, either locally or because
+ * MongoDB stopped the query at its maxTimeMS.
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+
+    public DeadlineExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    /**
+     * @return true if the exception or one of its causes reports an exceeded time limit
+     */
+    public static boolean isTimeout(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DeadlineExceededException || cause instanceof MongoExecutionTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,256 @@
+package com.responsive.ai.sql_prompter.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.bson.Document;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only query result that stores field names once per path and each row as a plain value
+ * array, instead of one hash map (with its own entries and key references) per row and per nested
+ * document.
+ * <p>
+ * Every document path ("address", "emergencyContact", elements of an array of documents, ...)
+ * gets a shared dictionary of field names; nested documents are compacted against the dictionary
+ * of their path. Rows are themselves read-only {@code Map} views over their arrays, so callers that
+ * need maps get them without anything being copied, and Jackson writes rows straight from the
+ * arrays. The JSON is the same as for the original documents, except that fields are written in
+ * the order they were first seen across rows.
+ */
+@JsonSerialize(using = CompactResultSet.Serializer.class)
+public final class CompactResultSet extends AbstractList<Map<String, Object>> {
+
+    /** Marks a field that is missing from a row, as opposed to present with a null value */
+    private static final Object ABSENT = new Object();
+
+    private final Shape shape;
+    private final List<Row> rows;
+
+    private CompactResultSet(Shape shape, List<Row> rows) {
+        this.shape = shape;
+        this.rows = rows;
+    }
+
+    /**
+     * @return top-level field names in the order they were first seen
+     */
+    public List<String> getColumns() {
+        return List.copyOf(shape.names);
+    }
+
+    @Override
+    public Map<String, Object> get(int index) {
+        return rows.get(index);
+    }
+
+    @Override
+    public int size() {
+        return rows.size();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Collects rows one document at a time, so documents read from a cursor can be released
+     * as soon as they have been added.
+     */
+    public static final class Builder {
+        private final Shape shape = new Shape();
+        private final List<Row> rows = new ArrayList<>();
+
+        public Builder add(Document document) {
+            rows.add(compact(shape, document));
+            return this;
+        }
+
+        public CompactResultSet build() {
+            return new CompactResultSet(shape, rows);
+        }
+
+        private static Row compact(Shape shape, Document document) {
+            Object[] values = new Object[Math.max(shape.names.size(), document.size())];
+            Arrays.fill(values, ABSENT);
+            for (Map.Entry<String, Object> entry : document.entrySet()) {
+                int index = shape.indexOf(entry.getKey());
+                if (index >= values.length) {
+                    int oldLength = values.length;
+                    values = Arrays.copyOf(values, shape.names.size());
+                    Arrays.fill(values, oldLength, values.length, ABSENT);
+                }
+                values[index] = compactValue(shape, index, entry.getValue());
+            }
+            return new Row(shape, values);
+        }
+
+        private static Object compactValue(Shape parent, int index, Object value) {
+            if (value instanceof Document) {
+                return compact(parent.child(index), (Document) value);
+            }
+            if (value instanceof List) {
+                List<?> list = (List<?>) value;
+                List<Object> compacted = new ArrayList<>(list.size());
+                for (Object item : list) {
+                    // Elements of the same array share one dictionary
+                    compacted.add(compactValue(parent, index, item));
+                }
+                return compacted;
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Field-name dictionary for one document path, with child dictionaries for nested documents.
+     * Only mutated while the result set is being built.
+     */
+    private static final class Shape {
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> index = new HashMap<>();
+        private final List<Shape> children = new ArrayList<>();
+
+        private int indexOf(String name) {
+            Integer position = index.get(name);
+            if (position == null) {
+                position = names.size();
+                names.add(name);
+                index.put(name, position);
+                children.add(null);
+            }
+            return position;
+        }
+
+        private Shape child(int position) {
+            Shape child = children.get(position);
+            if (child == null) {
+                child = new Shape();
+                children.set(position, child);
+            }
+            return child;
+        }
+    }
+
+    /**
+     * Map view of one compacted document, backed by the dictionary of its path.
+     */
+    @JsonSerialize(using = RowSerializer.class)
+    private static final class Row extends AbstractMap<String, Object> {
+        private final Shape shape;
+        private final Object[] values;
+
+        private Row(Shape shape, Object[] values) {
+            this.shape = shape;
+            this.values = values;
+        }
+
+        @Override
+        public Object get(Object key) {
+            Integer position = shape.index.get(key);
+            return position != null && isPresent(position) ? values[position] : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            Integer position = shape.index.get(key);
+            return position != null && isPresent(position);
+        }
+
+        private boolean isPresent(int position) {
+            return position < values.length && values[position] != ABSENT;
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new Iterator<>() {
+                        private int next = advance(0);
+
+                        private int advance(int from) {
+                            int i = from;
+                            while (i < values.length && values[i] == ABSENT) {
+                                i++;
+                            }
+                            return i;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < values.length;
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<String, Object> entry = new SimpleImmutableEntry<>(shape.names.get(next), values[next]);
+                            next = advance(next + 1);
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    int size = 0;
+                    for (Object value : values) {
+                        if (value != ABSENT) {
+                            size++;
+                        }
+                    }
+                    return size;
+                }
+            };
+        }
+    }
+
+    /**
+     * Writes a compacted document as a JSON object directly from its value array.
+     */
+    public static final class RowSerializer extends JsonSerializer<Object> {
+        @Override
+        public void serialize(Object value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+            Row row = (Row) value;
+            gen.writeStartObject(row);
+            for (int i = 0; i < row.values.length; i++) {
+                if (row.values[i] != ABSENT) {
+                    gen.writeFieldName(row.shape.names.get(i));
+                    serializers.defaultSerializeValue(row.values[i], gen);
+                }
+            }
+            gen.writeEndObject();
+        }
+    }
+
+    /**
+     * Writes the rows as a JSON array of objects.
+     */
+    public static final class Serializer extends JsonSerializer<CompactResultSet> {
+        @Override
+        public void serialize(CompactResultSet value, JsonGenerator gen, SerializerProvider serializers)
+                throws IOException {
+            gen.writeStartArray(value, value.rows.size());
+            for (Row row : value.rows) {
+                serializers.defaultSerializeValue(row, gen);
+            }
+            gen.writeEndArray();
+        }
+    }
+}
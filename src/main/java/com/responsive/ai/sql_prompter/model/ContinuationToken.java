@@ -0,0 +1,265 @@
+package com.responsive.ai.sql_prompter.model;
+
+import com.responsive.ai.sql_prompter.exception.InvalidQueryException;
+import org.bson.Document;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.springframework.util.DigestUtils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Position in a paged query. The token carries the validated query itself plus the sort key of the
+ * last row returned, so follow-up pages run as a keyset query (rows ordered after the last key)
+ * without regenerating the query or skipping over earlier pages. Pages are ordered by the query's
+ * sort with {@code _id} as the tiebreaker, or by {@code _id} alone for unsorted queries.
+ * <p>
+ * Tokens are opaque to clients: base64url of relaxed extended JSON followed by an HMAC-SHA256 of it under
+ * a server-side key, so a client cannot change the collection, filter or position it carries. They are
+ * still not trusted beyond that: decoding re-checks the structure, callers must re-validate the embedded
+ * query's operators, and a token only continues the request it was issued for.
+ */
+public final class ContinuationToken {
+
+    private static final int VERSION = 3;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final JsonWriterSettings JSON_SETTINGS = JsonWriterSettings.builder()
+            .outputMode(JsonMode.RELAXED)
+            .build();
+
+    private final MongoQuery query;
+    private final String requestHash;
+    private final Document lastKey;
+    private final int returned;
+
+    private ContinuationToken(MongoQuery query, String requestHash, Document lastKey, int returned) {
+        this.query = Objects.requireNonNull(query);
+        this.requestHash = Objects.requireNonNull(requestHash);
+        this.lastKey = lastKey;
+        this.returned = returned;
+    }
+
+    /**
+     * Starts paging a query.
+     * @param query the validated query; a limit of 0 pages through all matching documents
+     * @param request the request text and mode the query was resolved from
+     */
+    public static ContinuationToken first(MongoQuery query, String request, boolean useAi) {
+        return new ContinuationToken(query, hashRequest(request, useAi), null, 0);
+    }
+
+    /**
+     * @return the token for the page after one that ended with {@code lastRow}
+     */
+    public ContinuationToken next(Document lastRow, int pageRows) {
+        Document key = new Document();
+        for (String field : keysetSort().keySet()) {
+            key.append(field, valueAt(lastRow, field));
+        }
+        return new ContinuationToken(query, requestHash, key, returned + pageRows);
+    }
+
+    /**
+     * @return this position applied to an equivalent query rebuilt by the caller
+     */
+    public ContinuationToken withQuery(MongoQuery query) {
+        return new ContinuationToken(query, requestHash, lastKey, returned);
+    }
+
+    public MongoQuery getQuery() {
+        return query;
+    }
+
+    /**
+     * @return true if this token starts the query rather than continuing it
+     */
+    public boolean isFirstPage() {
+        return lastKey == null;
+    }
+
+    /**
+     * @return the page order: the query's sort followed by {@code _id} unless the sort already ends in it
+     */
+    public Document keysetSort() {
+        Document sort = new Document(query.getSort());
+        if (!sort.containsKey("_id")) {
+            sort.append("_id", 1);
+        }
+        return sort;
+    }
+
+    /**
+     * @return number of rows still allowed by the query's limit, or Integer.MAX_VALUE if unlimited
+     */
+    public int getRemaining() {
+        return query.getLimit() > 0 ? Math.max(0, query.getLimit() - returned) : Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return true if this token was issued for the given request text and mode
+     */
+    public boolean belongsTo(String request, boolean useAi) {
+        return requestHash.equals(hashRequest(request, useAi));
+    }
+
+    /**
+     * @return the filter for the next page: the query's filter restricted to rows ordered after the last key
+     */
+    public Document pageFilter() {
+        if (lastKey == null) {
+            return query.getFilter();
+        }
+        Document after = afterLastKey();
+        return query.getFilter().isEmpty() ? after : new Document("$and", List.of(query.getFilter(), after));
+    }
+
+    /**
+     * Expands "after (k1, k2, ...)" into one clause per key: earlier keys equal, this key strictly after.
+     * Missing and null values sort first, so they come before every value ascending and after every value
+     * descending.
+     */
+    private Document afterLastKey() {
+        List<Document> clauses = new ArrayList<>();
+        Document equalPrefix = new Document();
+        for (Map.Entry<String, Object> entry : keysetSort().entrySet()) {
+            String field = entry.getKey();
+            Object value = lastKey.get(field);
+            boolean ascending = ((Number) entry.getValue()).intValue() > 0;
+
+            Document clause = new Document(equalPrefix);
+            if (ascending) {
+                clause.append(field, value == null ? new Document("$ne", null) : new Document("$gt", value));
+                clauses.add(clause);
+            } else if (value != null) {
+                clause.append("$or", List.of(new Document(field, new Document("$lt", value)), new Document(field, null)));
+                clauses.add(clause);
+            }
+            equalPrefix.append(field, value);
+        }
+        return clauses.size() == 1 ? clauses.get(0) : new Document("$or", clauses);
+    }
+
+    private static Object valueAt(Document row, String path) {
+        Object value = row;
+        for (String part : path.split("\\.")) {
+            if (!(value instanceof Document)) {
+                return null;
+            }
+            value = ((Document) value).get(part);
+        }
+        return value;
+    }
+
+    /**
+     * @param key the server-side signing key
+     */
+    public String encode(byte[] key) {
+        Document token = new Document("v", VERSION)
+                .append("c", query.getCollection())
+                .append("f", query.getFilter())
+                .append("p", query.getProjection())
+                .append("s", query.getSort())
+                .append("l", query.getLimit())
+                .append("n", returned)
+                .append("h", requestHash);
+        if (lastKey != null) {
+            token.append("a", lastKey);
+        }
+        if (!query.getCollation().isEmpty()) {
+            token.append("o", query.getCollation());
+        }
+        String payload = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(token.toJson(JSON_SETTINGS).getBytes(StandardCharsets.UTF_8));
+        return payload + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(sign(payload, key));
+    }
+
+    /**
+     * @param key the key the token was signed with
+     * @throws InvalidQueryException If the token is malformed or its signature does not match
+     */
+    public static ContinuationToken decode(String encoded, byte[] key) {
+        int separator = encoded.lastIndexOf('.');
+        if (separator < 0) {
+            throw new InvalidQueryException("Invalid continuation token");
+        }
+        String payload = encoded.substring(0, separator);
+        byte[] signature;
+        try {
+            signature = Base64.getUrlDecoder().decode(encoded.substring(separator + 1));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidQueryException("Invalid continuation token");
+        }
+        // Constant-time comparison, so the signature cannot be guessed byte by byte
+        if (!MessageDigest.isEqual(sign(payload, key), signature)) {
+            throw new InvalidQueryException("Invalid continuation token");
+        }
+
+        Document token;
+        try {
+            token = Document.parse(new String(Base64.getUrlDecoder().decode(payload), StandardCharsets.UTF_8));
+        } catch (RuntimeException e) {
+            throw new InvalidQueryException("Invalid continuation token");
+        }
+
+        Object version = token.get("v");
+        Object collection = token.get("c");
+        Object filter = token.get("f");
+        Object projection = token.get("p");
+        Object sort = token.get("s");
+        Object lastKey = token.get("a");
+        Object collation = token.get("o");
+        Object limit = token.get("l");
+        Object returned = token.get("n");
+        Object hash = token.get("h");
+        if (!Integer.valueOf(VERSION).equals(version)
+                || !(collection instanceof String) || !(filter instanceof Document) || !(projection instanceof Document)
+                || !(limit instanceof Integer) || (Integer) limit < 0
+                || !(returned instanceof Integer) || (Integer) returned < 0
+                || !(hash instanceof String) || (lastKey != null && !(lastKey instanceof Document))
+                || (collation != null && !isCollation(collation))) {
+            throw new InvalidQueryException("Invalid continuation token");
+        }
+        // Skip only applies to the first page, which is never resumed from a token
+        MongoQuery query = new MongoQuery((String) collection, (Document) filter, (Document) projection,
+                MongoQuery.normalizeSort(sort), 0, (Integer) limit);
+        if (collation != null) {
+            query = query.withCollation((Document) collation);
+        }
+        return new ContinuationToken(query, (String) hash, (Document) lastKey, (Integer) returned);
+    }
+
+    /**
+     * Accepts only the collations the query rewriter produces: a locale and a strength.
+     */
+    private static boolean isCollation(Object value) {
+        if (!(value instanceof Document)) {
+            return false;
+        }
+        Document collation = (Document) value;
+        return collation.size() == 2 && collation.get("locale") instanceof String
+                && collation.get("strength") instanceof Integer;
+    }
+
+    private static byte[] sign(String payload, byte[] key) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(key, MAC_ALGORITHM));
+            return mac.doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot sign continuation tokens with " + MAC_ALGORITHM, e);
+        }
+    }
+
+    private static String hashRequest(String request, boolean useAi) {
+        return DigestUtils.md5DigestAsHex(((useAi ? "ai:" : "direct:") + request.trim()).getBytes(StandardCharsets.UTF_8));
+    }
+}
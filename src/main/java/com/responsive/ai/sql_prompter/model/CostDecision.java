@@ -0,0 +1,68 @@
+package com.responsive.ai.sql_prompter.model;
+
+/**
+ * Outcome of the pre-execution cost check of a query, reported with the response so callers
+ * can see why a result was truncated. Rejected queries fail with an error instead.
+ */
+public final class CostDecision {
+
+    public enum Outcome {
+        /** The winning plan uses an index, or the collection is small enough to scan */
+        ALLOWED,
+        /** The query scans a large collection and its limit was lowered */
+        LIMITED,
+        /** No plan was available (guard disabled or explain failed); the query ran unchanged */
+        SKIPPED
+    }
+
+    private final Outcome outcome;
+    private final String winningPlan;
+    private final long collectionDocuments;
+    private final Integer appliedLimit;
+    private final boolean cachedPlan;
+
+    public CostDecision(Outcome outcome, String winningPlan, long collectionDocuments, Integer appliedLimit,
+                        boolean cachedPlan) {
+        this.outcome = outcome;
+        this.winningPlan = winningPlan;
+        this.collectionDocuments = collectionDocuments;
+        this.appliedLimit = appliedLimit;
+        this.cachedPlan = cachedPlan;
+    }
+
+    public static CostDecision skipped() {
+        return new CostDecision(Outcome.SKIPPED, null, -1, null, false);
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * @return stages of the winning plan from the root down, e.g. "LIMIT > FETCH > IXSCAN"
+     */
+    public String getWinningPlan() {
+        return winningPlan;
+    }
+
+    /**
+     * @return estimated number of documents in the collection, or -1 if unknown
+     */
+    public long getCollectionDocuments() {
+        return collectionDocuments;
+    }
+
+    /**
+     * @return the lowered limit for LIMITED queries, otherwise null
+     */
+    public Integer getAppliedLimit() {
+        return appliedLimit;
+    }
+
+    /**
+     * @return true if the plan came from the plan cache instead of a fresh explain
+     */
+    public boolean isCachedPlan() {
+        return cachedPlan;
+    }
+}
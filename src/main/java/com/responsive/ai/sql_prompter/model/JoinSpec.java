@@ -0,0 +1,84 @@
+package com.responsive.ai.sql_prompter.model;
+
+import org.bson.Document;
+
+import java.util.Objects;
+
+/**
+ * One validated join of a find query: rows of the driving collection are matched to documents of
+ * {@code from} whose {@code foreignField} equals the row's {@code localField}, and the matches are
+ * attached to the row as an array under {@code as}, like {@code $lookup} does. Inner joins drop rows
+ * without a match. Immutable like the query it belongs to: the filter and projection are copied on
+ * construction and returned as copies.
+ */
+public final class JoinSpec {
+
+    private final String from;
+    private final String localField;
+    private final String foreignField;
+    private final String as;
+    private final Document filter;
+    private final Document projection;
+    private final boolean inner;
+
+    /**
+     * @param from collection to join
+     * @param localField field of the driving rows holding the join key (a value or an array of values)
+     * @param foreignField field of the joined documents matched against the key
+     * @param as field of the output row receiving the matched documents
+     * @param filter additional filter on the joined documents; empty for none
+     * @param projection fields of the joined documents to return; empty returns whole documents
+     * @param inner true to drop rows without a match, false to keep them with an empty array
+     */
+    public JoinSpec(String from, String localField, String foreignField, String as,
+                    Document filter, Document projection, boolean inner) {
+        this.from = Objects.requireNonNull(from);
+        this.localField = Objects.requireNonNull(localField);
+        this.foreignField = Objects.requireNonNull(foreignField);
+        this.as = Objects.requireNonNull(as);
+        this.filter = MongoQuery.deepCopy(filter);
+        this.projection = MongoQuery.deepCopy(projection);
+        this.inner = inner;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public String getLocalField() {
+        return localField;
+    }
+
+    public String getForeignField() {
+        return foreignField;
+    }
+
+    public String getAs() {
+        return as;
+    }
+
+    public Document getFilter() {
+        return MongoQuery.deepCopy(filter);
+    }
+
+    public Document getProjection() {
+        return MongoQuery.deepCopy(projection);
+    }
+
+    public boolean isInner() {
+        return inner;
+    }
+
+    /**
+     * @return the join in the same JSON shape the model generates
+     */
+    public Document toDocument() {
+        return new Document("from", from)
+                .append("localField", localField)
+                .append("foreignField", foreignField)
+                .append("as", as)
+                .append("query", MongoQuery.deepCopy(filter))
+                .append("projection", MongoQuery.deepCopy(projection))
+                .append("type", inner ? "inner" : "left");
+    }
+}
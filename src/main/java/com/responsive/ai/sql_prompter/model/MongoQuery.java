@@ -0,0 +1,286 @@
+package com.responsive.ai.sql_prompter.model;
+
+import com.responsive.ai.sql_prompter.exception.InvalidQueryException;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Parsed, validated find query or aggregation pipeline. Built once from the generated JSON and then
+ * used as-is for caching, limit handling and execution, so the query is never re-serialized or re-parsed.
+ * Instances are immutable and shared between requests through the generated query cache: documents are
+ * deep-copied on construction and every getter returns a deep copy.
+ */
+public final class MongoQuery {
+
+    /** Maximum number of fields in a sort specification */
+    public static final int MAX_SORT_FIELDS = 4;
+
+    private final String collection;
+    private final Document filter;
+    private final Document projection;
+    private final Document sort;
+    private final int skip;
+    private final int limit;
+    private final List<Document> pipeline;
+    private final List<JoinSpec> joins;
+    private final Document collation;
+
+    /**
+     * @param collection collection to query
+     * @param filter find filter; empty matches all documents
+     * @param projection fields to return; empty returns whole documents
+     * @param limit maximum number of documents to return
+     */
+    public MongoQuery(String collection, Document filter, Document projection, int limit) {
+        this(collection, filter, projection, new Document(), 0, limit);
+    }
+
+    /**
+     * @param collection collection to query
+     * @param filter find filter; empty matches all documents
+     * @param projection fields to return; empty returns whole documents
+     * @param sort sort specification (field to 1 or -1); empty leaves the order unspecified
+     * @param skip number of matching documents to skip
+     * @param limit maximum number of documents to return
+     */
+    public MongoQuery(String collection, Document filter, Document projection, Document sort, int skip, int limit) {
+        this(collection, filter, projection, sort, skip, limit, List.of(), List.of(), new Document());
+    }
+
+    private MongoQuery(String collection, Document filter, Document projection, Document sort, int skip, int limit,
+                       List<Document> pipeline, List<JoinSpec> joins, Document collation) {
+        this.collection = Objects.requireNonNull(collection);
+        this.filter = deepCopy(filter);
+        this.projection = deepCopy(projection);
+        this.sort = deepCopy(sort);
+        this.skip = skip;
+        this.limit = limit;
+        this.pipeline = deepCopy(pipeline);
+        this.joins = List.copyOf(joins);
+        this.collation = deepCopy(collation);
+    }
+
+    /**
+     * @param collection collection to aggregate
+     * @param pipeline validated read-only pipeline, ending in a stage that bounds its output
+     * @param limit maximum number of documents the pipeline can return
+     */
+    public static MongoQuery aggregation(String collection, List<Document> pipeline, int limit) {
+        if (pipeline.isEmpty()) {
+            throw new IllegalArgumentException("pipeline must not be empty");
+        }
+        return new MongoQuery(collection, new Document(), new Document(), new Document(), 0, limit, pipeline, List.of(),
+                new Document());
+    }
+
+    /**
+     * @return this find query with its rows joined to other collections
+     */
+    public MongoQuery withJoins(List<JoinSpec> joins) {
+        if (isAggregation()) {
+            throw new IllegalStateException("Aggregation queries cannot have joins");
+        }
+        return new MongoQuery(collection, filter, projection, sort, skip, limit, pipeline, joins, collation);
+    }
+
+    /**
+     * @return this find query with the given filter, e.g. after rewriting
+     */
+    public MongoQuery withFilter(Document filter) {
+        if (isAggregation()) {
+            throw new IllegalStateException("Aggregation queries have no filter");
+        }
+        return new MongoQuery(collection, filter, projection, sort, skip, limit, pipeline, joins, collation);
+    }
+
+    /**
+     * @param collation collation for string comparisons of the filter, e.g. {locale: "en", strength: 2}
+     * @return this find query evaluated with the given collation
+     */
+    public MongoQuery withCollation(Document collation) {
+        if (isAggregation()) {
+            throw new IllegalStateException("Aggregation queries cannot have a collation");
+        }
+        return new MongoQuery(collection, filter, projection, sort, skip, limit, pipeline, joins, collation);
+    }
+
+    /**
+     * @return this find query returning at most limit documents
+     */
+    public MongoQuery withLimit(int limit) {
+        if (isAggregation()) {
+            throw new IllegalStateException("The limit of an aggregation is part of its pipeline");
+        }
+        return new MongoQuery(collection, filter, projection, sort, skip, limit, pipeline, joins, collation);
+    }
+
+    /**
+     * @return true if this query runs as an aggregation pipeline rather than a find
+     */
+    public boolean isAggregation() {
+        return !pipeline.isEmpty();
+    }
+
+    /**
+     * @return the aggregation stages; empty for find queries
+     */
+    public List<Document> getPipeline() {
+        return deepCopy(pipeline);
+    }
+
+    /**
+     * @return joins applied to the rows of a find query, in order; empty if none
+     */
+    public List<JoinSpec> getJoins() {
+        return joins;
+    }
+
+    /**
+     * @return the collation of a find query; empty for simple binary comparison
+     */
+    public Document getCollation() {
+        return deepCopy(collation);
+    }
+
+    public String getCollection() {
+        return collection;
+    }
+
+    public Document getFilter() {
+        return deepCopy(filter);
+    }
+
+    public Document getProjection() {
+        return deepCopy(projection);
+    }
+
+    public Document getSort() {
+        return deepCopy(sort);
+    }
+
+    public int getSkip() {
+        return skip;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the query in the same JSON shape the model generates
+     */
+    public String toJson() {
+        if (isAggregation()) {
+            return new Document("collection", collection)
+                    .append("pipeline", pipeline)
+                    .toJson();
+        }
+        Document json = new Document("collection", collection)
+                .append("query", filter)
+                .append("projection", projection)
+                .append("sort", sort)
+                .append("skip", skip)
+                .append("limit", limit);
+        if (!joins.isEmpty()) {
+            json.append("join", joins.stream().map(JoinSpec::toDocument).toList());
+        }
+        if (!collation.isEmpty()) {
+            json.append("collation", collation);
+        }
+        return json.toJson();
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+    /**
+     * @return a copy of the document that shares no nested document or list with it
+     */
+    static Document deepCopy(Document document) {
+        Document copy = new Document();
+        for (Map.Entry<String, Object> entry : Objects.requireNonNull(document).entrySet()) {
+            copy.append(entry.getKey(), deepCopyValue(entry.getValue()));
+        }
+        return copy;
+    }
+
+    private static List<Document> deepCopy(List<Document> documents) {
+        List<Document> copy = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            copy.add(deepCopy(document));
+        }
+        return copy;
+    }
+
+    private static Object deepCopyValue(Object value) {
+        if (value instanceof Document) {
+            return deepCopy((Document) value);
+        }
+        if (value instanceof List) {
+            List<Object> copy = new ArrayList<>(((List<?>) value).size());
+            for (Object element : (List<?>) value) {
+                copy.add(deepCopyValue(element));
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    /**
+     * Validates a sort specification and normalizes its directions to 1 / -1.
+     * Accepts numbers and "asc"/"desc" strings; field names must be plain (dotted) paths.
+     * @param value the "sort" value of a generated or client-supplied query, may be null
+     * @return the normalized sort, empty if none was given
+     * @throws InvalidQueryException If the specification is malformed
+     */
+    public static Document normalizeSort(Object value) {
+        if (value == null) {
+            return new Document();
+        }
+        if (!(value instanceof Document)) {
+            throw new InvalidQueryException("Invalid 'sort' format. Expected a JSON object.");
+        }
+        Document sort = (Document) value;
+        if (sort.size() > MAX_SORT_FIELDS) {
+            throw new InvalidQueryException("Sort may use at most " + MAX_SORT_FIELDS + " fields");
+        }
+        Document normalized = new Document();
+        for (Map.Entry<String, Object> entry : sort.entrySet()) {
+            String field = entry.getKey();
+            if (field.isEmpty() || field.startsWith("$") || field.startsWith(".") || field.endsWith(".")
+                    || field.contains("..") || field.contains(".$")) {
+                throw new InvalidQueryException("Invalid sort field: " + field);
+            }
+            normalized.append(field, sortDirection(field, entry.getValue()));
+        }
+        return normalized;
+    }
+
+    private static int sortDirection(String field, Object direction) {
+        if (direction instanceof Number) {
+            double number = ((Number) direction).doubleValue();
+            if (number == 1) {
+                return 1;
+            }
+            if (number == -1) {
+                return -1;
+            }
+        } else if (direction instanceof String) {
+            String text = ((String) direction).toLowerCase(Locale.ROOT);
+            if (text.equals("asc") || text.equals("ascending")) {
+                return 1;
+            }
+            if (text.equals("desc") || text.equals("descending")) {
+                return -1;
+            }
+        }
+        throw new InvalidQueryException("Invalid sort direction for '" + field + "'. Use 1 or -1.");
+    }
+}
@@ -1,6 +1,9 @@
 package com.responsive.ai.sql_prompter.model;
 
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Pattern;
 import jakarta.validation.constraints.Size;
 import lombok.Data;
 
@@ -10,6 +13,10 @@ import lombok.Data;
 public class QueryRequest {
     private String query;
     private boolean useAi = false;
+    private Integer pageSize;
+    private String continuationToken;
+    private Long deadlineMs;
+    private String target;
     /**
      * The SQL query to be executed or natural language query to be processed.
      * Must be between 1 and 5000 characters long and cannot be blank.
@@ -39,4 +46,57 @@ public class QueryRequest {
     public void setUseAi(boolean useAi) {
         this.useAi = useAi;
     }
+
+    /**
+     * Number of rows per page. When set (or when a continuation token is given) results are
+     * paged by _id; otherwise all rows up to the query's limit are returned at once.
+     */
+    @Min(value = 1, message = "Page size must be at least 1")
+    @Max(value = 1000, message = "Page size must be at most 1000")
+    public Integer getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(Integer pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Token from the previous page's response, used together with the same query to fetch the next page.
+     */
+    @Size(max = 16384, message = "Continuation token is too long")
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    public void setContinuationToken(String continuationToken) {
+        this.continuationToken = continuationToken;
+    }
+
+    /**
+     * Time budget for the whole request (query generation and execution) in milliseconds.
+     * Overrides query.deadline-ms; when it runs out the request fails with 504.
+     */
+    @Min(value = 100, message = "Deadline must be at least 100 ms")
+    @Max(value = 120000, message = "Deadline must be at most 120000 ms")
+    public Long getDeadlineMs() {
+        return deadlineMs;
+    }
+
+    public void setDeadlineMs(Long deadlineMs) {
+        this.deadlineMs = deadlineMs;
+    }
+
+    /**
+     * Name of the query target (database) to run the query on, as configured in mongodb.targets.
+     * When omitted the default target is used.
+     */
+    @Pattern(regexp = "[A-Za-z0-9_-]{1,64}", message = "Target must be 1 to 64 letters, digits, '_' or '-'")
+    public String getTarget() {
+        return target;
+    }
+
+    public void setTarget(String target) {
+        this.target = target;
+    }
 }
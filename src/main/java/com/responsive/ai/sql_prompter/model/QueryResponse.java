@@ -3,7 +3,6 @@ package com.responsive.ai.sql_prompter.model;
 import lombok.Getter;
 import lombok.Setter;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -14,6 +13,11 @@ public class QueryResponse {
     private List<Map<String, Object>> data;
     private String generatedQuery;
     private long executionTimeMs;
+    private String continuationToken;
+    private Boolean sortIndexed;
+    private String sortIndex;
+    private CostDecision costDecision;
+    private boolean fromCache;
     public boolean isSuccess() {
         return success;
     }
@@ -46,20 +50,78 @@ public class QueryResponse {
         this.executionTimeMs = executionTimeMs;
     }
 
+    /**
+     * Token for the next page of a paged query; null on the last page and for unpaged queries.
+     */
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    public void setContinuationToken(String continuationToken) {
+        this.continuationToken = continuationToken;
+    }
+
+    /**
+     * Whether an index supports the generated query's sort; null when the query is unsorted.
+     */
+    public Boolean getSortIndexed() {
+        return sortIndexed;
+    }
+
+    public void setSortIndexed(Boolean sortIndexed) {
+        this.sortIndexed = sortIndexed;
+    }
+
+    /**
+     * Name of the index that supports the sort, if any.
+     */
+    public String getSortIndex() {
+        return sortIndex;
+    }
+
+    public void setSortIndex(String sortIndex) {
+        this.sortIndex = sortIndex;
+    }
+
+    /**
+     * Result of the plan check run before the query; null for paged queries.
+     */
+    public CostDecision getCostDecision() {
+        return costDecision;
+    }
+
+    public void setCostDecision(CostDecision costDecision) {
+        this.costDecision = costDecision;
+    }
+
+    /**
+     * Whether the data was served from the query result cache instead of being read from MongoDB.
+     */
+    public boolean isFromCache() {
+        return fromCache;
+    }
+
+    public void setFromCache(boolean fromCache) {
+        this.fromCache = fromCache;
+    }
+
     public List<Map<String, Object>> getData() {
         if (data == null) {
             return null;
         }
+        // Compact result sets are read-only already and must keep their own serializer
+        if (data instanceof CompactResultSet) {
+            return data;
+        }
         // Return an unmodifiable view of the list to prevent modification
-        return Collections.unmodifiableList(new ArrayList<>(data));
+        return Collections.unmodifiableList(data);
     }
 
+    /**
+     * Stores the results without copying; result lists can hold thousands of documents,
+     * so callers hand over ownership instead of paying for a defensive copy.
+     */
     public void setData(List<Map<String, Object>> data) {
-        if (data == null) {
-            this.data = null;
-        } else {
-            // Create a new ArrayList to avoid reference to the original list
-            this.data = new ArrayList<>(data);
-        }
+        this.data = data;
     }
 }
@@ -0,0 +1,108 @@
+package com.responsive.ai.sql_prompter.model;
+
+import org.bson.Document;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable point-in-time view of the database schema, built in the background and
+ * shared by prompt building and the schema endpoints.
+ */
+public final class SchemaSnapshot {
+
+    private final Map<String, Map<String, String>> collectionSchemas;
+    private final Map<String, List<Document>> samples;
+    private final int sampleSize;
+    private final String tablesText;
+    private final String description;
+    private final String fingerprint;
+    private final String version;
+    private final Instant builtAt;
+
+    /**
+     * @param collectionSchemas field path to type, per collection
+     * @param samples sampled documents per collection; callers must not modify them
+     * @param sampleSize number of documents requested per collection when sampling
+     * @param tablesText formatted per-collection field listing
+     * @param description complete schema text used in AI prompts
+     * @param fingerprint hash of the schema text only, stable while the structure is unchanged
+     * @param version hash of the schema text and the samples, used as the HTTP entity tag
+     * @param builtAt when the snapshot was taken
+     */
+    public SchemaSnapshot(Map<String, Map<String, String>> collectionSchemas,
+                          Map<String, List<Document>> samples,
+                          int sampleSize,
+                          String tablesText,
+                          String description,
+                          String fingerprint,
+                          String version,
+                          Instant builtAt) {
+        this.collectionSchemas = Collections.unmodifiableMap(collectionSchemas);
+        this.samples = Collections.unmodifiableMap(samples);
+        this.sampleSize = sampleSize;
+        this.tablesText = tablesText;
+        this.description = description;
+        this.fingerprint = fingerprint;
+        this.version = version;
+        this.builtAt = builtAt;
+    }
+
+    public Set<String> getCollectionNames() {
+        return collectionSchemas.keySet();
+    }
+
+    public boolean containsCollection(String collectionName) {
+        return collectionSchemas.containsKey(collectionName);
+    }
+
+    /**
+     * @return field path to type for the collection, or null if the collection is not part of the snapshot
+     */
+    public Map<String, String> getCollectionSchema(String collectionName) {
+        return collectionSchemas.get(collectionName);
+    }
+
+    public Map<String, Map<String, String>> getCollectionSchemas() {
+        return collectionSchemas;
+    }
+
+    /**
+     * @return sampled documents for the collection, or an empty list if none were sampled
+     */
+    public List<Document> getSamples(String collectionName) {
+        return samples.getOrDefault(collectionName, List.of());
+    }
+
+    /**
+     * Whether the stored samples can answer a request for {@code requested} documents. This holds when
+     * enough documents were sampled, or when the collection had fewer documents than the sample size.
+     */
+    public boolean canServeSample(String collectionName, int requested) {
+        List<Document> sampled = samples.get(collectionName);
+        return sampled != null && (requested <= sampled.size() || sampled.size() < sampleSize);
+    }
+
+    public String getTablesText() {
+        return tablesText;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public Instant getBuiltAt() {
+        return builtAt;
+    }
+}
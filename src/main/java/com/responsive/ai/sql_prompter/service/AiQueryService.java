@@ -1,42 +1,49 @@
 package com.responsive.ai.sql_prompter.service;
 
+import com.responsive.ai.sql_prompter.cache.LruTtlCache;
+import com.responsive.ai.sql_prompter.cache.SingleFlight;
+import com.responsive.ai.sql_prompter.concurrent.Deadline;
+import com.responsive.ai.sql_prompter.config.QueryTarget;
+import com.responsive.ai.sql_prompter.exception.DeadlineExceededException;
 import com.responsive.ai.sql_prompter.exception.InvalidQueryException;
+import com.responsive.ai.sql_prompter.model.JoinSpec;
+import com.responsive.ai.sql_prompter.model.MongoQuery;
+import com.responsive.ai.sql_prompter.model.SchemaSnapshot;
 import dev.langchain4j.model.chat.ChatLanguageModel;
 import jakarta.annotation.PostConstruct;
-import org.slf4j.Logger;
-import org.springframework.beans.factory.annotation.Value;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.lang3.StringUtils;
 import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataAccessException;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StopWatch;
 
 import java.util.*;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
-import java.util.regex.Pattern;
 
 
 @Service
 public final class AiQueryService {
     private static final Logger log = LoggerFactory.getLogger(AiQueryService.class);
+    private static final int DEFAULT_RESULT_ROWS = 10;
     private static final int MAX_RESULT_ROWS = 1000;
+    private static final int MAX_SKIP = 10000;
+    private static final int MAX_JOINS = 2;
     private static final int MAX_QUERY_LENGTH = 10000;
-    private static final int MAX_AI_RESPONSE_TIME_MS = 30000; // 30 seconds
     
     private final MongoTemplate mongoTemplate;
     private final DatabaseSchemaService schemaService;
     private final ChatLanguageModel chatModel;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final LruTtlCache<String, MongoQuery> queryCache;
+    private final SingleFlight<String, MongoQuery> queryGenerations;
+    private final SchemaPruner schemaPruner;
+    private final QueryRewriter queryRewriter;
+    private final QueryEngine queryEngine;
+    
+    @Value("${query.deadline-ms:25000}")
+    private long defaultDeadlineMs;
     
     /**
      * Constructs an AiQueryService with the required dependencies.
@@ -44,14 +51,29 @@ public final class AiQueryService {
      * @param mongoTemplate The MongoTemplate instance to use for database operations
      * @param schemaService The DatabaseSchemaService for schema-related operations
      * @param chatModel The ChatLanguageModel for AI-based query processing
+     * @param queryCache Cache of validated queries keyed by normalized question and schema fingerprint
+     * @param queryGenerations Coalesces concurrent generations for the same cache key into one model call
+     * @param schemaPruner Reduces the prompt's schema section to what is relevant to the question
+     * @param queryRewriter Rewrites validated filters into equivalent index-friendly forms
+     * @param queryEngine Checks, executes and caches the generated queries
      */
     public AiQueryService(MongoTemplate mongoTemplate, 
                          DatabaseSchemaService schemaService, 
-                         ChatLanguageModel chatModel) {
-        // Create defensive copies of mutable objects
-        this.mongoTemplate = new MongoTemplate(Objects.requireNonNull(mongoTemplate.getMongoDatabaseFactory()));
+                         ChatLanguageModel chatModel,
+                         LruTtlCache<String, MongoQuery> queryCache,
+                         SingleFlight<String, MongoQuery> queryGenerations,
+                         SchemaPruner schemaPruner,
+                         QueryRewriter queryRewriter,
+                         QueryEngine queryEngine) {
+        // The shared template is used as-is; copies would only add converters and mapping contexts
+        this.mongoTemplate = Objects.requireNonNull(mongoTemplate);
         this.schemaService = Objects.requireNonNull(schemaService);
         this.chatModel = Objects.requireNonNull(chatModel);
+        this.queryCache = Objects.requireNonNull(queryCache);
+        this.queryGenerations = Objects.requireNonNull(queryGenerations);
+        this.schemaPruner = Objects.requireNonNull(schemaPruner);
+        this.queryRewriter = Objects.requireNonNull(queryRewriter);
+        this.queryEngine = Objects.requireNonNull(queryEngine);
     }
     
     @PostConstruct
@@ -79,130 +101,70 @@ public final class AiQueryService {
     
     // Configuration constants
     
-    /**
-     * Checks if the input contains potentially dangerous patterns
-     * @param input The input string to check
-     * @return true if dangerous patterns are found, false otherwise
-     */
-    private boolean containsInjection(String input) {
-        if (input == null || input.trim().isEmpty()) {
-            return false;
-        }
-        
-        // Check for truly dangerous patterns that modify data
-        String dangerousPatterns = "(?i)\\b(?:\\.(?:save|insert|update|remove|delete|drop|create|rename|eval|shutdown|fsync|repair|replSet|sharding|logRotate|logRotate|replSetInitiate|replSetReconfig|replSetStepDown|replSetFreeze|replSetMaintenance|replSetSyncFrom|resync|validate|compact|collMod|dbHash|dbStats|cloneCollection|cloneCollectionAsCapped|convertToCapped|createIndexes|dropIndexes|reIndex|filemd5|connPoolSync|connPoolStats|cursorInfo|getCmdLineOpts|getLog|getParameter|getShardVersion|hostInfo|listCommands|listDatabases|ping|profile|serverStatus|shardConnPoolStats|top|whatsmyuri|dbStats|collStats|connPoolStats|cursorInfo|getCmdLineOpts|getLog|getParameter|getShardVersion|hostInfo|listCommands|listDatabases|ping|profile|serverStatus|shardConnPoolStats|top|whatsmyuri|dbStats|collStats|connPoolStats|cursorInfo|getCmdLineOpts|getLog|getParameter|getShardVersion|hostInfo|listCommands|listDatabases|ping|profile|serverStatus|shardConnPoolStats|top|whatsmyuri)\\b|\\$(?:where|function|eval|accumulator|addToSet|push|pull|rename|unset|currentDate|inc|min|max|mul|setOnInsert|pop|bit|isolated|all|elemMatch|size|type|not|mod|regex|text|where|geoWithin|geoIntersects|near|nearSphere|geoNear))\\s*:";
-        
-        // Only check for dangerous patterns that modify data or access system commands
-        return input.matches(".*" + dangerousPatterns + ".*");
-    }
-    
-    /**
-     * Adds safety limits to a query document
-     */
-    private Document addSafetyLimits(Document queryDoc) {
-        if (queryDoc == null) {
-            return new Document();
-        }
-        
-        // Create a new document to avoid modifying the original
-        Document safeQuery = new Document(queryDoc);
-        
-        // Add a limit to the query if it doesn't have one
-        if (!safeQuery.containsKey("$limit") && !safeQuery.containsKey("limit")) {
-            // If there's already a $query, add the limit to it
-            if (safeQuery.containsKey("$query")) {
-                safeQuery.put("$limit", MAX_RESULT_ROWS);
-            } else {
-                // Otherwise, add it as a top-level limit
-                safeQuery.put("limit", MAX_RESULT_ROWS);
-            }
-        }
-        return safeQuery;
-    }
-    
     // System prompt to guide the AI in generating safe MongoDB queries
     private static final String SYSTEM_PROMPT = "You are an expert MongoDB query generator that converts natural language to precise database queries. " +
             "Your task is to analyze the user's request and generate the most appropriate MongoDB find query.\n\n" +
             "RULES:\n" +
-            "1. Always return a valid JSON object with this exact structure: {\"collection\":\"collection_name\", \"query\": {}, \"projection\": {}, \"limit\": 10}\n" +
+            "1. Always return a valid JSON object with this exact structure: {\"collection\":\"collection_name\", \"query\": {}, \"projection\": {}, \"sort\": {}, \"limit\": 10}\n" +
             "2. The collection name must match exactly with the database collection.\n" +
             "3. The query should be a valid MongoDB find query.\n" +
             "4. Include a projection to return only the fields explicitly requested by the user.\n" +
             "5. Default to case-insensitive regex searches when appropriate.\n" +
             "6. For text searches, use the $text operator when full-text search is needed.\n" +
             "7. Always include a reasonable limit (default to 10).\n" +
+            "   For highest/lowest/top/latest questions, add a sort (1 ascending, -1 descending) and set the limit to the requested count; use skip only when the user asks to skip results.\n" +
             "8. Never include operations that modify data (insert/update/delete/drop/etc).\n" +
+            "   When the answer needs data from another collection, add \"join\": [{\"from\":\"other_collection\", \"localField\":\"field\", \"foreignField\":\"field\", \"as\":\"name\", \"query\": {}, \"projection\": {}, \"type\":\"inner\"}]; use type \"inner\" when the joined documents must match, \"left\" to keep rows without matches.\n" +
+            "   For averages, sums, counts per group or other summaries, return {\"collection\":\"collection_name\", \"pipeline\": [...]} instead, using only the stages $match, $group, $project, $sort, $limit, $count and $unwind, with $match first.\n" +
             "9. If the request is unclear, make reasonable assumptions and explain in the query.\n\n" +
             "EXAMPLES:\n" +
             "Request: Find all employees named John\n" +
             "Response: {\"collection\":\"employees\",\"query\":{\"name\":{\"$regex\":\"john\",\"$options\":\"i\"}},\"projection\":{\"name\":1},\"limit\":10}\n\n" +
             "Request: Show me products with price less than 100\n" +
             "Response: {\"collection\":\"products\",\"query\":{\"price\":{\"$lt\":100}},\"projection\":{\"name\":1,\"price\":1},\"limit\":10}\n\n" +
+            "Request: Top 5 highest paid engineers\n" +
+            "Response: {\"collection\":\"employees\",\"query\":{\"position\":{\"$regex\":\"engineer\",\"$options\":\"i\"}},\"projection\":{\"firstName\":1,\"lastName\":1,\"salary\":1},\"sort\":{\"salary\":-1},\"limit\":5}\n\n" +
+            "Request: Average salary per department\n" +
+            "Response: {\"collection\":\"employees\",\"pipeline\":[{\"$group\":{\"_id\":\"$department\",\"averageSalary\":{\"$avg\":\"$salary\"}}},{\"$sort\":{\"averageSalary\":-1}}]}\n\n" +
+            "Request: Employees working in departments located in Chicago\n" +
+            "Response: {\"collection\":\"employees\",\"query\":{},\"projection\":{\"firstName\":1,\"lastName\":1,\"department\":1},\"join\":[{\"from\":\"departments\",\"localField\":\"department\",\"foreignField\":\"code\",\"as\":\"departmentInfo\",\"query\":{\"location\":\"Chicago\"},\"projection\":{\"name\":1,\"location\":1},\"type\":\"inner\"}],\"limit\":10}\n\n" +
             "Request: Search for documents containing 'urgent' in any field\n" +
             "Response: {\"collection\":\"documents\",\"query\":{\"$text\":{\"$search\":\"urgent\"}},\"projection\":{\"title\":1,\"content\":1},\"limit\":10}";
     
     /**
      * Process a natural language query, convert it to MongoDB query, execute it, and return results
      */
-    public List<Map<String, Object>> processAndExecuteQuery(String naturalLanguageQuery) {
+    public List<Map<String, Object>> processAndExecuteQuery(QueryTarget target, String naturalLanguageQuery) {
         log.info("Starting to process natural language query: {}", naturalLanguageQuery);
-        
-        if (StringUtils.isBlank(naturalLanguageQuery)) {
-            log.error("Empty query provided");
-            throw new InvalidQueryException("Query cannot be empty");
-        }
-        
-        if (naturalLanguageQuery.length() > MAX_QUERY_LENGTH) {
-            log.error("Query exceeds maximum length: {} > {}", naturalLanguageQuery.length(), MAX_QUERY_LENGTH);
-            throw new InvalidQueryException("Query is too long. Maximum length is " + MAX_QUERY_LENGTH + " characters");
-        }
-        
-        // Check for potential injection in natural language query
-        if (containsInjection(naturalLanguageQuery)) {
-            log.warn("Potential injection attempt detected in query: {}", naturalLanguageQuery);
-            throw new SecurityException("Query contains potentially dangerous patterns");
-        }
+        validateNaturalLanguageQuery(naturalLanguageQuery);
         
         StopWatch stopWatch = new StopWatch();
         stopWatch.start();
-        String jsonQuery = null;
+        MongoQuery mongoQuery = null;
+        Deadline deadline = defaultDeadline();
         
         try {
-            // 1. Get database schema information
-            log.info("Fetching database schema information");
-            String schemaInfo = schemaService.getSchemaDescription();
-            log.debug("Schema info retrieved. Length: {} characters", schemaInfo.length());
+            // 1-3. Resolve the query from the cache or the model
+            mongoQuery = resolveQuery(target, naturalLanguageQuery, deadline);
             
-            // 2. Generate MongoDB query using AI with timeout
-            log.info("Generating MongoDB query from natural language");
-            jsonQuery = generateMongoQueryFromNaturalLanguage(naturalLanguageQuery, schemaInfo);
-            log.info("Generated query: {}", jsonQuery);
-            
-            // 3. Validate and parse the generated query
-            log.info("Validating and parsing generated query");
-            Document queryDoc = validateAndParseQuery(jsonQuery);
-            log.debug("Query validated and parsed successfully");
-            
-            // 4. Add safety limits to the query
-            log.debug("Adding safety limits to query");
-            queryDoc = addSafetyLimits(queryDoc);
-            log.debug("Query with safety limits: {}", queryDoc.toJson());
-            
-            // 5. Execute the MongoDB query
+            // 4. Check the plan, then execute the MongoDB query
             log.info("Executing MongoDB query");
-            List<Map<String, Object>> results = executeMongoQuery(queryDoc);
+            List<Map<String, Object>> results = queryEngine.execute(target, mongoQuery, deadline).getRows();
             log.info("Query executed successfully. Found {} results", results != null ? results.size() : 0);
             
             return results;
             
+        } catch (DeadlineExceededException e) {
+            throw e;
+            
         } catch (DataAccessException e) {
             String errorMsg = "Database error: " + e.getMostSpecificCause().getMessage();
-            log.error("Database error in AI query processing. Query: {}", jsonQuery, e);
+            log.error("Database error in AI query processing. Query: {}", mongoQuery, e);
             throw new InvalidQueryException("Error executing query: " + errorMsg, e);
             
         } catch (Exception e) {
             log.error("Error processing AI query. Original query: {}, Generated query: {}", 
-                     naturalLanguageQuery, jsonQuery, e);
+                     naturalLanguageQuery, mongoQuery, e);
             throw new RuntimeException("Failed to process AI query: " + e.getMessage(), e);
             
         } finally {
@@ -212,14 +174,114 @@ public final class AiQueryService {
         }
     }
     
+    /**
+     * Converts a natural language query to a validated MongoDB query without executing it,
+     * for callers that run the query through {@link QueryEngine} themselves.
+     * @param target Query target the query is generated for, from the schema of its database
+     */
+    public MongoQuery generateQuery(QueryTarget target, String naturalLanguageQuery) {
+        return generateQuery(target, naturalLanguageQuery, defaultDeadline());
+    }
+    
+    /**
+     * Like {@link #generateQuery(QueryTarget, String)}, within the given deadline; the model call is aborted when it passes.
+     * @throws DeadlineExceededException If the deadline passes before the query is available
+     */
+    public MongoQuery generateQuery(QueryTarget target, String naturalLanguageQuery, Deadline deadline) {
+        log.info("Generating query for natural language query: {}", naturalLanguageQuery);
+        validateNaturalLanguageQuery(naturalLanguageQuery);
+        return resolveQuery(target, naturalLanguageQuery, deadline);
+    }
+    
+    /**
+     * @return a deadline with the configured default budget (query.deadline-ms), starting now
+     */
+    public Deadline defaultDeadline() {
+        return Deadline.afterMillis(defaultDeadlineMs);
+    }
+    
+    private void validateNaturalLanguageQuery(String naturalLanguageQuery) {
+        if (StringUtils.isBlank(naturalLanguageQuery)) {
+            log.error("Empty query provided");
+            throw new InvalidQueryException("Query cannot be empty");
+        }
+        
+        if (naturalLanguageQuery.length() > MAX_QUERY_LENGTH) {
+            log.error("Query exceeds maximum length: {} > {}", naturalLanguageQuery.length(), MAX_QUERY_LENGTH);
+            throw new InvalidQueryException("Query is too long. Maximum length is " + MAX_QUERY_LENGTH + " characters");
+        }
+        
+        // Check for potential injection in natural language query
+        if (QueryOperatorValidator.containsInjection(naturalLanguageQuery)) {
+            log.warn("Potential injection attempt detected in query: {}", naturalLanguageQuery);
+            throw new SecurityException("Query contains potentially dangerous patterns");
+        }
+    }
+    
+    /**
+     * Returns the cached query for the question on the target's schema, generating it if needed.
+     */
+    private MongoQuery resolveQuery(QueryTarget target, String naturalLanguageQuery, Deadline deadline) {
+        deadline.check("schema lookup");
+        // 1. Get database schema information
+        log.info("Fetching database schema information");
+        SchemaSnapshot schema = schemaService.getSchemaSnapshot(target);
+        log.debug("Schema snapshot retrieved. Fingerprint: {}", schema.getFingerprint());
+        
+        // 2. Reuse a previously generated query for the same question and schema
+        String cacheKey = buildCacheKey(naturalLanguageQuery, schema);
+        MongoQuery mongoQuery = queryCache.get(cacheKey);
+        
+        if (mongoQuery != null) {
+            log.info("Using cached query for: {}", naturalLanguageQuery);
+            return mongoQuery;
+        }
+        // 3. Generate MongoDB query using AI; identical concurrent questions share one generation
+        return queryGenerations.execute(cacheKey, () -> {
+            // A generation that completed between the lookup above and this flight has already cached the query
+            MongoQuery generated = queryCache.get(cacheKey);
+            return generated != null ? generated
+                    : generateAndCacheQuery(naturalLanguageQuery, schema, cacheKey, deadline);
+        }, deadline);
+    }
+    
+    /**
+     * Generates, validates and caches the query for a question. Runs once per cache key
+     * even when several requests ask the same question concurrently.
+     */
+    private MongoQuery generateAndCacheQuery(String naturalLanguageQuery, SchemaSnapshot schema, String cacheKey,
+                                             Deadline deadline) {
+        deadline.check("prompt building");
+        String schemaInfo = schemaPruner.prune(schema, preprocessNaturalLanguageQuery(naturalLanguageQuery));
+        log.debug("Schema info for prompt. Length: {} characters", schemaInfo.length());
+        
+        log.info("Generating MongoDB query from natural language");
+        MongoQuery mongoQuery = generateMongoQueryFromNaturalLanguage(naturalLanguageQuery, schemaInfo, deadline);
+        log.info("Generated query: {}", mongoQuery);
+        // Rewritten once here, so cached queries are already in their index-friendly form
+        mongoQuery = queryRewriter.rewrite(mongoQuery);
+        
+        queryCache.put(cacheKey, mongoQuery);
+        return mongoQuery;
+    }
+    
+    /**
+     * Builds the query cache key from the normalized question and a fingerprint of the schema
+     * the query was generated against, so schema changes never serve stale queries.
+     */
+    private String buildCacheKey(String naturalLanguageQuery, SchemaSnapshot schema) {
+        return preprocessNaturalLanguageQuery(naturalLanguageQuery) + "|" + schema.getFingerprint();
+    }
+    
     /**
      * Generates a MongoDB query from natural language input using AI
      * @param query The natural language query
      * @param schemaInfo Information about the database schema to assist with query generation
-     * @return A valid MongoDB query as a JSON string
+     * @param deadline Budget for the model call; the call is interrupted when it runs out
+     * @return The validated query, parsed once from the model's JSON output
      * @throws RuntimeException If there's an error generating or validating the query
      */
-    private String generateMongoQueryFromNaturalLanguage(String query, String schemaInfo) {
+    private MongoQuery generateMongoQueryFromNaturalLanguage(String query, String schemaInfo, Deadline deadline) {
         StopWatch stopWatch = new StopWatch();
         stopWatch.start();
         
@@ -236,7 +298,7 @@ public final class AiQueryService {
             log.debug("Preprocessed query: {}", processedQuery);
             
             // Check for potential injection in the processed query
-            if (containsInjection(processedQuery)) {
+            if (QueryOperatorValidator.containsInjection(processedQuery)) {
                 log.warn("Potential injection attempt detected in query: {}", query);
                 throw new SecurityException("Query contains potentially dangerous patterns");
             }
@@ -258,13 +320,19 @@ public final class AiQueryService {
                    - For exact matches: {"field": "exact value"}
                    - For numeric comparisons: {"field": {"$gt": 100}} or {"field": {"$lt": 100}}
                    - For multiple conditions: {"$and": [{"field1": "value1"}, {"field2": "value2"}]}
-                4. Always include a reasonable limit (default to 10)
+                4. Always include a reasonable limit (default to 10); for top/highest/lowest/latest requests
+                   add a "sort" ({"field": -1} for descending, {"field": 1} for ascending) and limit to the requested count
+                   To use data from another collection add "join": [{"from", "localField", "foreignField", "as",
+                   "query", "projection", "type": "inner" or "left"}] instead of $lookup
+                   For summaries (averages, totals, counts per group) respond with "collection" and a "pipeline" instead
+                   of "query"; allowed stages: $match, $group, $project, $sort, $limit, $count, $unwind
                 5. Never include operations that modify data (insert/update/delete/drop/etc)
                 
                 RESPONSE FORMAT (must be valid JSON):
                 {
                     "collection": "collection_name",
                     "query": {"field": "value"},
+                    "sort": {"field": -1},
                     "limit": 10
                 }
                 
@@ -278,7 +346,7 @@ public final class AiQueryService {
             
             // Generate the query using the AI model
             log.info("Sending request to AI model");
-            String jsonResponse = chatModel.generate(prompt).trim();
+            String jsonResponse = deadline.callInterruptibly("query generation", () -> chatModel.generate(prompt)).trim();
             
             if (StringUtils.isBlank(jsonResponse)) {
                 throw new InvalidQueryException("AI model did not generate a response");
@@ -290,16 +358,17 @@ public final class AiQueryService {
             String jsonQuery = extractJsonFromResponse(jsonResponse);
             log.debug("Extracted JSON query: {}", jsonQuery);
             
-            // Validate the JSON structure and content
-            validateJsonStructure(jsonQuery);
-            
-            // Parse and validate the query to ensure it's safe
-            Document queryDoc = validateAndParseQuery(jsonQuery);
+            // Parse once, validating structure and operators, into the query used from here on
+            MongoQuery mongoQuery = validateAndParseQuery(jsonQuery);
             
             // Log successful query generation
             log.info("Successfully generated MongoDB query for: {}", query);
             
-            return jsonQuery;
+            return mongoQuery;
+            
+        } catch (DeadlineExceededException e) {
+            log.warn("Query generation stopped: {}", e.getMessage());
+            throw e;
             
         } catch (InvalidQueryException e) {
             log.error("Invalid query generated: {}", e.getMessage(), e);
@@ -371,50 +440,13 @@ public final class AiQueryService {
     }
     
     /**
-     * Validates that the JSON structure matches our expected format
-     */
-    private void validateJsonStructure(String json) throws InvalidQueryException {
-        try {
-            JsonNode root = objectMapper.readTree(json);
-            
-            // Check required fields
-            if (!root.has("collection") || root.get("collection").asText().trim().isEmpty()) {
-                throw new InvalidQueryException("Generated query is missing required 'collection' field");
-            }
-            
-            if (!root.has("query")) {
-                throw new InvalidQueryException("Generated query is missing required 'query' field");
-            }
-            
-            // Ensure limit is a positive number
-            int limit = root.has("limit") ? root.get("limit").asInt(10) : 10;
-            if (limit <= 0) {
-                limit = 10;
-            } else if (limit > 100) {
-                limit = 100; // Cap at 100 results
-            }
-            
-            // Create a new JSON object with the validated limit
-            if (root instanceof ObjectNode) {
-                ((ObjectNode) root).put("limit", limit);
-            }
-            
-        } catch (JsonProcessingException e) {
-            log.error("Invalid JSON structure: {}", json, e);
-            throw new InvalidQueryException("Failed to generate a valid query structure. Please try rephrasing your request.");
-        } catch (Exception e) {
-            log.error("Error processing JSON: {}", e.getMessage(), e);
-            throw new InvalidQueryException("Error processing query: " + e.getMessage());
-        }
-    }
-    
-    /**
-     * Validates and parses a JSON query string into a MongoDB Document
+     * Validates and parses a JSON query string into a MongoQuery.
+     * The JSON is parsed exactly once; structure, operators and limit are checked on the parsed document.
      * @param jsonQuery The JSON string to validate and parse
-     * @return A validated MongoDB Document
+     * @return A validated MongoQuery
      * @throws InvalidQueryException If the query is invalid or contains dangerous operations
      */
-    private Document validateAndParseQuery(String jsonQuery) throws InvalidQueryException {
+    private MongoQuery validateAndParseQuery(String jsonQuery) throws InvalidQueryException {
         log.debug("Validating and parsing query: {}", jsonQuery);
 
         if (jsonQuery == null || jsonQuery.trim().isEmpty()) {
@@ -423,189 +455,175 @@ public final class AiQueryService {
         }
 
         try {
-            // First, parse the JSON to handle date formats properly
-            ObjectMapper mapper = new ObjectMapper();
-            mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-            
-            // Parse the JSON to a Map to handle date conversion
-            Map<String, Object> queryMap = mapper.readValue(jsonQuery, new TypeReference<Map<String, Object>>() {});
-            
-            // Convert the Map to a Document
-            Document queryDoc = new Document(queryMap);
+            Document queryDoc = Document.parse(jsonQuery);
             log.trace("Parsed query document: {}", queryDoc.toJson());
 
-            // Check for explicitly dangerous operations
-            String dangerousOperators = "(?i)\\$(where|eval|accumulator|function|group|merge|out|geoNear|lookup|graphLookup|redact|$cmd|$query|$orderby|$comment|$hint|$max|$min|$returnKey|$showDiskLoc|$snapshot|$explain|$natural|$meta|$text|$regex|$mod|$type|$all|$elemMatch|$size|$bitsAllClear|$bitsAllSet|$bitsAnyClear|$bitsAnySet|$comment|$meta|$slice)\\b";
+            // Check required fields
+            Object collection = queryDoc.get("collection");
+            if (!(collection instanceof String) || ((String) collection).trim().isEmpty()) {
+                throw new InvalidQueryException("Generated query is missing required 'collection' field");
+            }
+            if (queryDoc.containsKey("pipeline")) {
+                return validateAndParseAggregation(((String) collection).trim(), queryDoc);
+            }
+            if (!queryDoc.containsKey("query")) {
+                throw new InvalidQueryException("Generated query is missing required 'query' field");
+            }
+            Document filter = asDocument(queryDoc.get("query"), "query");
+            Document projection = asDocument(queryDoc.get("projection"), "projection");
 
+            List<JoinSpec> joins = parseJoins(queryDoc.remove("join"));
+            
+            // Check for explicitly dangerous operators at every level in a single pass
             log.debug("Checking for dangerous operators in query");
-            // Check for dangerous operators in the query
-            for (String key : queryDoc.keySet()) {
-                if (key.matches(dangerousOperators)) {
-                    throw new SecurityException("Query contains forbidden operator: " + key);
-                }
+            QueryOperatorValidator.checkOperators(queryDoc);
 
-                // Recursively check nested documents
-                Object value = queryDoc.get(key);
-                if (value instanceof Document) {
-                    checkNestedDocument((Document) value, dangerousOperators);
-                } else if (value instanceof List) {
-                    for (Object item : (List<?>) value) {
-                        if (item instanceof Document) {
-                            checkNestedDocument((Document) item, dangerousOperators);
-                        }
-                    }
-                }
+            // Always include _id when specific fields are requested
+            if (!projection.isEmpty() && !projection.containsKey("_id")) {
+                projection.put("_id", 1);
             }
 
-            return queryDoc;
+            // Sorting and skipping are pushed down to MongoDB so top-k questions are answered by the server
+            Document sort = MongoQuery.normalizeSort(queryDoc.get("sort"));
+            int skip = normalizeSkip(queryDoc.get("skip"));
+
+            MongoQuery mongoQuery = new MongoQuery(((String) collection).trim(), filter, projection, sort, skip,
+                    normalizeLimit(queryDoc.get("limit")));
+            return joins.isEmpty() ? mongoQuery : mongoQuery.withJoins(joins);
 
-        } catch (JsonProcessingException e) {
-            log.error("Error processing JSON query: {}", jsonQuery, e);
-            throw new InvalidQueryException("Error processing JSON query: " + e.getMessage());
         } catch (org.bson.json.JsonParseException e) {
             log.error("Invalid JSON format in query: {}", jsonQuery, e);
-            throw new InvalidQueryException("Invalid JSON format in query: " + e.getMessage());
+            throw new InvalidQueryException("Failed to generate a valid query structure. Please try rephrasing your request.");
+        } catch (InvalidQueryException | SecurityException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Error validating/parsing query: {}", e.getMessage(), e);
             throw new InvalidQueryException("Error validating query: " + e.getMessage());
         }
     }
-            
+
     /**
-     * Recursively checks a document for dangerous operators
+     * Validates the "join" list of a generated find query. Joins are resolved by {@link JoinExecutor}
+     * with batched $in queries; $lookup itself stays forbidden.
      */
-    private void checkNestedDocument(Document doc, String dangerousOperators) {
-        for (String key : doc.keySet()) {
-            if (key.matches(dangerousOperators)) {
-                throw new SecurityException("Query contains forbidden operator in nested document: " + key);
+    private List<JoinSpec> parseJoins(Object value) {
+        if (value == null) {
+            return List.of();
+        }
+        if (!(value instanceof List)) {
+            throw new InvalidQueryException("Invalid 'join' format. Expected an array of joins.");
+        }
+        List<?> joins = (List<?>) value;
+        if (joins.size() > MAX_JOINS) {
+            throw new InvalidQueryException("Query may join at most " + MAX_JOINS + " collections");
+        }
+        List<JoinSpec> parsed = new ArrayList<>(joins.size());
+        for (Object item : joins) {
+            if (!(item instanceof Document)) {
+                throw new InvalidQueryException("Invalid 'join' format. Expected an array of joins.");
             }
-            
-            // Recursively check nested documents
-            Object value = doc.get(key);
-            if (value instanceof Document) {
-                checkNestedDocument((Document) value, dangerousOperators);
-            } else if (value instanceof List) {
-                for (Object item : (List<?>) value) {
-                    if (item instanceof Document) {
-                        checkNestedDocument((Document) item, dangerousOperators);
-                    }
-                }
+            Document join = (Document) item;
+            String from = joinField(join, "from");
+            if (from.startsWith("system.") || from.contains("$")) {
+                throw new InvalidQueryException("Invalid join collection: " + from);
             }
+            String localField = joinField(join, "localField");
+            String foreignField = joinField(join, "foreignField");
+            String as = joinField(join, "as");
+            if (as.contains(".")) {
+                throw new InvalidQueryException("Invalid join field 'as': " + as);
+            }
+            Document joinFilter = asDocument(join.get("query"), "join.query");
+            Document joinProjection = asDocument(join.get("projection"), "join.projection");
+            QueryOperatorValidator.checkOperators(joinFilter);
+            QueryOperatorValidator.checkOperators(joinProjection);
+            
+            Object type = join.getOrDefault("type", "left");
+            if (!"inner".equals(type) && !"left".equals(type)) {
+                throw new InvalidQueryException("Invalid join type. Use \"inner\" or \"left\".");
+            }
+            parsed.add(new JoinSpec(from, localField, foreignField, as, joinFilter, joinProjection, "inner".equals(type)));
         }
+        return parsed;
+    }
+    
+    private String joinField(Document join, String field) {
+        Object value = join.get(field);
+        if (!(value instanceof String) || ((String) value).isBlank() || ((String) value).startsWith("$")
+                || ((String) value).startsWith(".") || ((String) value).endsWith(".") || ((String) value).contains("..")) {
+            throw new InvalidQueryException("Invalid or missing join field '" + field + "'");
+        }
+        return ((String) value).trim();
     }
     
     /**
-     * Executes a MongoDB query and returns the results as a list of maps
-     * @param queryDoc The query document to execute
-     * @return List of maps containing the query results
-     * @throws InvalidQueryException If there's an error executing the query
-     */
-    /**
-     * Converts a MongoDB Document to a Map, handling nested Documents and Lists
+     * Validates a generated aggregation. Stages are checked against the read-only allowlist in
+     * {@link PipelineValidator}; a "query" given alongside the pipeline becomes its leading $match.
      */
-    private Map<String, Object> convertDocumentToMap(Document document) {
-        if (document == null) {
-            return null;
+    private MongoQuery validateAndParseAggregation(String collection, Document queryDoc) {
+        Object pipeline = queryDoc.remove("pipeline");
+        Document filter = asDocument(queryDoc.remove("query"), "query");
+        for (String field : List.of("projection", "sort", "skip")) {
+            Object value = queryDoc.get(field);
+            if (value != null && !(value instanceof Document && ((Document) value).isEmpty())
+                    && !(value instanceof Number && ((Number) value).intValue() == 0)) {
+                throw new InvalidQueryException("Aggregation queries must express '" + field + "' as a pipeline stage");
+            }
         }
+        QueryOperatorValidator.checkOperators(queryDoc);
         
-        Map<String, Object> map = new LinkedHashMap<>();
-        for (Map.Entry<String, Object> entry : document.entrySet()) {
-            Object value = entry.getValue();
-            if (value instanceof Document) {
-                value = convertDocumentToMap((Document) value);
-            } else if (value instanceof List) {
-                value = convertList((List<?>) value);
-            }
-            map.put(entry.getKey(), value);
+        if (!(pipeline instanceof List)) {
+            throw new InvalidQueryException("Invalid 'pipeline' format. Expected an array of stages.");
         }
-        return map;
+        List<Object> stages = new ArrayList<>();
+        if (!filter.isEmpty()) {
+            stages.add(new Document("$match", filter));
+        }
+        stages.addAll((List<?>) pipeline);
+        
+        // Summaries usually return one row per group, so the default find limit does not apply
+        int maxRows = queryDoc.containsKey("limit") ? normalizeLimit(queryDoc.get("limit")) : MAX_RESULT_ROWS;
+        return MongoQuery.aggregation(collection, PipelineValidator.validate(stages, maxRows), maxRows);
     }
-    
+
+    private Document asDocument(Object value, String field) {
+        if (value == null) {
+            return new Document();
+        }
+        if (value instanceof Document) {
+            return (Document) value;
+        }
+        throw new InvalidQueryException("Invalid '" + field + "' format. Expected a JSON object.");
+    }
+
     /**
-     * Converts a List that might contain Documents to a List with Maps
+     * Defaults a missing skip to 0 and rejects negative or excessive values.
      */
-    private List<Object> convertList(List<?> list) {
-        if (list == null) {
-            return null;
+    private int normalizeSkip(Object skipValue) {
+        if (skipValue == null) {
+            return 0;
         }
-        
-        return list.stream().map(item -> {
-            if (item instanceof Document) {
-                return convertDocumentToMap((Document) item);
-            } else if (item instanceof List) {
-                return convertList((List<?>) item);
-            } else {
-                return item;
-            }
-        }).collect(Collectors.toList());
+        if (!(skipValue instanceof Number)) {
+            throw new InvalidQueryException("Invalid 'skip' format. Expected a number.");
+        }
+        long skip = ((Number) skipValue).longValue();
+        if (skip < 0 || skip > MAX_SKIP) {
+            throw new InvalidQueryException("Skip must be between 0 and " + MAX_SKIP);
+        }
+        return (int) skip;
     }
-    
+
     /**
-     * Executes a MongoDB query and returns the results as a list of maps
-     * @param queryDoc The query document to execute
-     * @return List of maps containing the query results
-     * @throws InvalidQueryException If there's an error executing the query
+     * Defaults missing or non-positive limits and caps the rest at MAX_RESULT_ROWS.
      */
-    private List<Map<String, Object>> executeMongoQuery(Document queryDoc) throws InvalidQueryException {
-        log.debug("Executing MongoDB query: {}", queryDoc.toJson());
-        
-        try {
-            // Extract collection name from the query document
-            String collectionName = queryDoc.getString("collection");
-            if (collectionName == null || collectionName.trim().isEmpty()) {
-                throw new InvalidQueryException("No collection specified in the query");
-            }
-            
-            // Get the query criteria, default to empty document if not specified
-            Object queryObj = queryDoc.get("query");
-            Document criteria;
-            if (queryObj == null) {
-                criteria = new Document();
-            } else if (queryObj instanceof Document) {
-                criteria = (Document) queryObj;
-            } else if (queryObj instanceof Map) {
-                criteria = new Document((Map<String, Object>) queryObj);
-            } else {
-                throw new InvalidQueryException("Invalid query format. Expected a JSON object.");
-            }
-            
-            // Get the limit, default to 10 if not specified
-            int limit = queryDoc.getInteger("limit", 10);
-            
-            // Get the projection, if specified
-            Document projectionDoc = new Document();
-            Object projectionObj = queryDoc.get("projection");
-            if (projectionObj != null) {
-                if (projectionObj instanceof Document) {
-                    projectionDoc = (Document) projectionObj;
-                } else if (projectionObj instanceof Map) {
-                    projectionDoc = new Document((Map<String, Object>) projectionObj);
-                }
-            }
-            
-            // Always include _id field if not explicitly excluded
-            if (!projectionDoc.containsKey("_id")) {
-                projectionDoc.put("_id", 1);
-            }
-            
-            log.debug("Using projection: {}", projectionDoc.toJson());
-            
-            // Create a basic query from the criteria document and apply projection
-            org.springframework.data.mongodb.core.query.BasicQuery query = 
-                new org.springframework.data.mongodb.core.query.BasicQuery(criteria.toJson(), projectionDoc.toJson());
-            
-            // Apply limit
-            query.limit(limit);
-            
-            // Execute the query and convert results
-            return mongoTemplate.find(query, Document.class, collectionName)
-                .stream()
-                .map(this::convertDocumentToMap)
-                .collect(Collectors.toList());
-            
-        } catch (Exception e) {
-            log.error("Error executing MongoDB query: {}", e.getMessage(), e);
-            throw new InvalidQueryException("Error executing query: " + e.getMessage(), e);
+    private int normalizeLimit(Object limitValue) {
+        if (!(limitValue instanceof Number)) {
+            return DEFAULT_RESULT_ROWS;
+        }
+        long limit = ((Number) limitValue).longValue();
+        if (limit <= 0) {
+            return DEFAULT_RESULT_ROWS;
         }
+        return (int) Math.min(limit, MAX_RESULT_ROWS);
     }
 }
@@ -1,53 +1,77 @@
 package com.responsive.ai.sql_prompter.service;
 
+import com.responsive.ai.sql_prompter.config.QueryTarget;
+import com.responsive.ai.sql_prompter.model.SchemaSnapshot;
+
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 /**
- * Service interface for database schema operations.
+ * Service interface for database schema operations. Every operation works on the database of the given query target.
  */
 public interface DatabaseSchemaService {
     
     /**
      * Get list of all tables/collections in the database
+     * @param target Query target whose database is described
      * @return List of table/collection names
      */
-    Set<String> getTableList();
+    Set<String> getTableList(QueryTarget target);
     
     /**
      * Get schema of a table with sample data
+     * @param target Query target whose database is described
      * @param tableName Name of the table/collection
      * @param sampleSize Number of sample documents to include
      * @return Schema information with sample data
      */
-    Map<String, Object> getTableSchemaWithSample(String tableName, int sampleSize);
+    Map<String, Object> getTableSchemaWithSample(QueryTarget target, String tableName, int sampleSize);
     
     /**
      * Get schema of a table without sample data
+     * @param target Query target whose database is described
      * @param tableName Name of the table/collection
      * @return Schema information where key is column name and value is column type
      */
-    Map<String, String> getTableSchema(String tableName);
+    Map<String, String> getTableSchema(QueryTarget target, String tableName);
     
     /**
      * Get sample data from a table
+     * @param target Query target whose database is sampled
      * @param tableName Name of the table/collection
      * @param sampleSize Number of sample documents to return
      * @return List of sample documents where each document is represented as a map of field names to values
      */
-    List<Map<String, Object>> getTableSample(String tableName, int sampleSize);
+    List<Map<String, Object>> getTableSample(QueryTarget target, String tableName, int sampleSize);
     
     /**
      * Get schema as a formatted string
+     * @param target Query target whose database is described
      * @param schemaName Name of the schema/database
      * @return Formatted schema string
      */
-    String getSchemaAsString(String schemaName);
+    String getSchemaAsString(QueryTarget target, String schemaName);
     
     /**
      * Get a human-readable schema description
+     * @param target Query target whose database is described
      * @return Schema description as a string
      */
-    String getSchemaDescription();
+    String getSchemaDescription(QueryTarget target);
+    
+    /**
+     * Get the current schema snapshot of a target. Snapshots are rebuilt in the background, so this
+     * does not touch the database except for the very first call per target.
+     * @param target Query target whose database is described
+     * @return The current schema snapshot
+     */
+    SchemaSnapshot getSchemaSnapshot(QueryTarget target);
+    
+    /**
+     * Schedule a background rebuild of the schema snapshot, e.g. after collections were created or dropped.
+     * The previous snapshot keeps being served until the new one is ready.
+     * @param target Query target whose snapshot is rebuilt
+     */
+    void refreshSchemaSnapshot(QueryTarget target);
 }
@@ -1,6 +1,7 @@
 package com.responsive.ai.sql_prompter.service;
 
 import com.mongodb.client.MongoCollection;
+import com.responsive.ai.sql_prompter.config.QueryTargets;
 import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,6 +22,12 @@ public class DatabaseSeedService {
     @Autowired
     private MongoTemplate mongoTemplate;
     
+    @Autowired
+    private DatabaseSchemaService schemaService;
+    
+    @Autowired
+    private QueryTargets queryTargets;
+    
     private final Random random = new Random();
     
     @PostConstruct
@@ -30,6 +37,8 @@ public class DatabaseSeedService {
             seedDepartments();
             seedEmployees();
             seedProjects();
+            // Collections may have been dropped and recreated
+            schemaService.refreshSchemaSnapshot(queryTargets.getDefault());
             log.info("Database seeding completed successfully");
         } catch (Exception e) {
             log.error("Error seeding database", e);
@@ -0,0 +1,328 @@
+package com.responsive.ai.sql_prompter.service;
+
+import com.mongodb.ReadPreference;
+import com.responsive.ai.sql_prompter.concurrent.Deadline;
+import com.responsive.ai.sql_prompter.config.QueryTarget;
+import com.responsive.ai.sql_prompter.config.ReadRouting;
+import com.responsive.ai.sql_prompter.exception.DeadlineExceededException;
+import com.responsive.ai.sql_prompter.exception.InvalidQueryException;
+import com.responsive.ai.sql_prompter.model.CompactResultSet;
+import com.responsive.ai.sql_prompter.model.JoinSpec;
+import com.responsive.ai.sql_prompter.model.MongoQuery;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Collation;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Executes find queries with joins without {@code $lookup} and without one query per row.
+ * <p>
+ * The driving cursor is read in batches. For each batch and join, the distinct join keys are
+ * collected and resolved with a single {@code $in} query on the joined collection, the matches are
+ * hashed by key, and each row picks up its matches from the table. Inner joins drop unmatched rows
+ * before later joins run, so those only look up keys of rows that can still be returned, and the
+ * driving cursor is read only until the limit is filled. Join keys are read through arrays of
+ * subdocuments (e.g. {@code items.productId}), and key fields that were fetched only for the join
+ * are removed from the output.
+ */
+@Service
+public class JoinExecutor {
+    private static final Logger log = LoggerFactory.getLogger(JoinExecutor.class);
+
+    /** Driving rows resolved per round of $in queries */
+    private static final int BATCH_SIZE = 500;
+    /** Upper bound on driving rows read while looking for rows that satisfy inner joins */
+    private static final int MAX_SCANNED_ROWS = 20000;
+    /** Upper bound on joined documents fetched for one batch */
+    private static final int MAX_MATCHES_PER_BATCH = 10000;
+
+    private final ReadPreference readPreference;
+
+    public JoinExecutor(ReadRouting readRouting) {
+        this.readPreference = readRouting.forQueries();
+    }
+
+    /**
+     * @param target target whose database holds the driving and the joined collections
+     * @param mongoQuery validated find query with at least one join
+     * @param deadline request budget; every query gets its remainder as maxTimeMS
+     * @return up to limit joined rows, in the order of the driving query
+     * @throws DeadlineExceededException If the deadline passes before all rows are joined
+     */
+    public CompactResultSet execute(QueryTarget target, MongoQuery mongoQuery, Deadline deadline) {
+        try {
+            return join(target.getMongoTemplate(), mongoQuery, deadline);
+        } catch (RuntimeException e) {
+            if (DeadlineExceededException.isTimeout(e)) {
+                throw deadline.exceeded("join execution", e);
+            }
+            throw e;
+        }
+    }
+
+    private CompactResultSet join(MongoTemplate mongoTemplate, MongoQuery mongoQuery, Deadline deadline) {
+        List<JoinSpec> joins = mongoQuery.getJoins();
+        boolean filtering = joins.stream().anyMatch(JoinSpec::isInner);
+        int limit = mongoQuery.getLimit() > 0 ? mongoQuery.getLimit() : Integer.MAX_VALUE;
+
+        List<String> keyFields = missingFields(mongoQuery.getProjection(),
+                joins.stream().map(JoinSpec::getLocalField).toList());
+        BasicQuery query = new BasicQuery(mongoQuery.getFilter(), withFields(mongoQuery.getProjection(), keyFields));
+        // Fetched only for the keys; a field that a join's output replaces is left to that output
+        List<String> hiddenFields = keyFields.stream()
+                .filter(field -> joins.stream().map(JoinSpec::getAs).noneMatch(as -> field.equals(as)
+                        || field.startsWith(as + ".") || as.startsWith(field + ".")))
+                .toList();
+        if (!mongoQuery.getSort().isEmpty()) {
+            query.setSortObject(mongoQuery.getSort());
+        }
+        if (!mongoQuery.getCollation().isEmpty()) {
+            query.collation(Collation.from(mongoQuery.getCollation()));
+        }
+        query.skip(mongoQuery.getSkip());
+        // Without inner joins every driving row is returned, so the driving limit is the result limit.
+        // With them, one row past the scan bound tells whether the bound cut the result short.
+        if (filtering) {
+            query.limit(MAX_SCANNED_ROWS + 1);
+            query.cursorBatchSize(BATCH_SIZE);
+        } else {
+            query.limit(mongoQuery.getLimit());
+        }
+        query.maxTimeMsec(deadline.remainingMillis());
+        query.withReadPreference(readPreference);
+
+        CompactResultSet.Builder results = CompactResultSet.builder();
+        int returned = 0;
+        int scanned = 0;
+        try (Stream<Document> documents = mongoTemplate.stream(query, Document.class, mongoQuery.getCollection())) {
+            Iterator<Document> iterator = documents.iterator();
+            List<Document> batch = new ArrayList<>(BATCH_SIZE);
+            while (returned < limit && iterator.hasNext()) {
+                if (++scanned > MAX_SCANNED_ROWS && filtering) {
+                    throw new InvalidQueryException("Join of '" + mongoQuery.getCollection() + "' found only " + returned
+                            + " matching rows in the first " + MAX_SCANNED_ROWS + " rows. Please narrow the query.");
+                }
+                batch.add(iterator.next());
+                if (batch.size() == BATCH_SIZE || !iterator.hasNext()) {
+                    for (Document row : join(mongoTemplate, batch, joins, deadline)) {
+                        if (returned == limit) {
+                            break;
+                        }
+                        for (String field : hiddenFields) {
+                            removePath(row, field.split("\\."), 0);
+                        }
+                        results.add(row);
+                        returned++;
+                    }
+                    batch.clear();
+                }
+            }
+        }
+        log.debug("Joined {} rows of {} from {} driving rows", returned, mongoQuery.getCollection(), scanned);
+        return results.build();
+    }
+
+    private List<Document> join(MongoTemplate mongoTemplate, List<Document> rows, List<JoinSpec> joins,
+                                Deadline deadline) {
+        List<Document> joined = rows;
+        for (JoinSpec join : joins) {
+            deadline.check("join execution");
+            Map<Object, List<Document>> matches = lookup(mongoTemplate, join, joined, deadline);
+            List<Document> next = new ArrayList<>(joined.size());
+            for (Document row : joined) {
+                // A document matching several of the row's keys is attached once, as $lookup does
+                Set<Document> rowMatches = Collections.newSetFromMap(new IdentityHashMap<>());
+                List<Document> ordered = new ArrayList<>();
+                for (Object key : keysAt(row, join.getLocalField())) {
+                    for (Document match : matches.getOrDefault(key, List.of())) {
+                        if (rowMatches.add(match)) {
+                            ordered.add(match);
+                        }
+                    }
+                }
+                if (rowMatches.isEmpty() && join.isInner()) {
+                    continue;
+                }
+                Document output = new Document(row);
+                output.put(join.getAs(), ordered);
+                next.add(output);
+            }
+            joined = next;
+            if (joined.isEmpty()) {
+                break;
+            }
+        }
+        return joined;
+    }
+
+    /**
+     * Fetches the joined documents for all keys of the batch in one query and hashes them by key.
+     */
+    private Map<Object, List<Document>> lookup(MongoTemplate mongoTemplate, JoinSpec join, List<Document> rows,
+                                               Deadline deadline) {
+        Set<Object> keys = new LinkedHashSet<>();
+        for (Document row : rows) {
+            keys.addAll(keysAt(row, join.getLocalField()));
+        }
+        Map<Object, List<Document>> matches = new HashMap<>();
+        if (keys.isEmpty()) {
+            return matches;
+        }
+
+        Document in = new Document(join.getForeignField(), new Document("$in", new ArrayList<>(keys)));
+        Document filter = join.getFilter().isEmpty() ? in : new Document("$and", List.of(join.getFilter(), in));
+        List<String> keyFields = missingFields(join.getProjection(), List.of(join.getForeignField()));
+        BasicQuery query = new BasicQuery(filter, withFields(join.getProjection(), keyFields));
+        query.limit(MAX_MATCHES_PER_BATCH + 1);
+        query.maxTimeMsec(deadline.remainingMillis());
+        query.withReadPreference(readPreference);
+
+        int fetched = 0;
+        try (Stream<Document> documents = mongoTemplate.stream(query, Document.class, join.getFrom())) {
+            Iterator<Document> iterator = documents.iterator();
+            while (iterator.hasNext()) {
+                if (++fetched > MAX_MATCHES_PER_BATCH) {
+                    throw new InvalidQueryException("Join with '" + join.getFrom()
+                            + "' matches too many documents. Please narrow the query.");
+                }
+                Document match = iterator.next();
+                List<Object> matchKeys = keysAt(match, join.getForeignField());
+                for (String field : keyFields) {
+                    removePath(match, field.split("\\."), 0);
+                }
+                for (Object key : matchKeys) {
+                    matches.computeIfAbsent(key, k -> new ArrayList<>()).add(match);
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * @return the join fields an inclusion projection leaves out, which must be fetched to read the keys
+     */
+    private static List<String> missingFields(Document projection, Collection<String> fields) {
+        boolean inclusion = projection.entrySet().stream()
+                .anyMatch(e -> !"_id".equals(e.getKey()) && !Integer.valueOf(0).equals(e.getValue())
+                        && !Boolean.FALSE.equals(e.getValue()));
+        if (!inclusion) {
+            return List.of();
+        }
+        List<String> missing = new ArrayList<>();
+        for (String field : fields) {
+            boolean covered = projection.keySet().stream().anyMatch(p -> field.equals(p) || field.startsWith(p + "."));
+            if (!covered && !missing.contains(field)) {
+                missing.add(field);
+            }
+        }
+        return missing;
+    }
+
+    private static Document withFields(Document projection, List<String> fields) {
+        if (fields.isEmpty()) {
+            return projection;
+        }
+        Document result = new Document(projection);
+        fields.forEach(field -> result.append(field, 1));
+        return result;
+    }
+
+    /**
+     * Removes a (dotted) path that was fetched only for its join keys, through arrays of subdocuments.
+     * Subdocuments and arrays the removal leaves empty existed only because of the path and are removed too.
+     */
+    private static void removePath(Document document, String[] parts, int index) {
+        String part = parts[index];
+        if (index == parts.length - 1) {
+            document.remove(part);
+            return;
+        }
+        Object value = document.get(part);
+        boolean empty;
+        if (value instanceof Document) {
+            removePath((Document) value, parts, index + 1);
+            empty = ((Document) value).isEmpty();
+        } else if (value instanceof List) {
+            empty = true;
+            for (Object element : (List<?>) value) {
+                if (element instanceof Document) {
+                    removePath((Document) element, parts, index + 1);
+                    empty &= ((Document) element).isEmpty();
+                } else {
+                    empty = false;
+                }
+            }
+        } else {
+            empty = false;
+        }
+        if (empty) {
+            document.remove(part);
+        }
+    }
+
+    /**
+     * @return the distinct join keys of a document at a (dotted) path: the value itself, or each element
+     *         of an array, following arrays of subdocuments along the path like the server does, with
+     *         numbers normalized so that keys compare the way the server compares them; missing and
+     *         null values have no keys and so never match
+     */
+    private static List<Object> keysAt(Document document, String path) {
+        Set<Object> keys = new LinkedHashSet<>();
+        collectKeys(document, path.split("\\."), 0, keys);
+        return new ArrayList<>(keys);
+    }
+
+    private static void collectKeys(Object value, String[] parts, int index, Set<Object> keys) {
+        if (value == null) {
+            return;
+        }
+        if (index == parts.length) {
+            if (value instanceof List) {
+                for (Object element : (List<?>) value) {
+                    if (element != null) {
+                        keys.add(normalizeKey(element));
+                    }
+                }
+            } else {
+                keys.add(normalizeKey(value));
+            }
+        } else if (value instanceof Document) {
+            collectKeys(((Document) value).get(parts[index]), parts, index + 1, keys);
+        } else if (value instanceof List) {
+            for (Object element : (List<?>) value) {
+                if (element instanceof Document) {
+                    collectKeys(((Document) element).get(parts[index]), parts, index + 1, keys);
+                }
+            }
+        }
+    }
+
+    private static Object normalizeKey(Object key) {
+        if (key instanceof Integer || key instanceof Long || key instanceof Short || key instanceof Byte) {
+            return ((Number) key).longValue();
+        }
+        if (key instanceof Double || key instanceof Float) {
+            double number = ((Number) key).doubleValue();
+            if (number == Math.rint(number) && Math.abs(number) < 0x1p53) {
+                return (long) number;
+            }
+            return number;
+        }
+        return key;
+    }
+}
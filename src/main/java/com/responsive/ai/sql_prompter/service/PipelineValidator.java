@@ -0,0 +1,182 @@
+package com.responsive.ai.sql_prompter.service;
+
+import com.responsive.ai.sql_prompter.exception.InvalidQueryException;
+import com.responsive.ai.sql_prompter.model.MongoQuery;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Vets generated aggregation pipelines before they reach the server.
+ * <p>
+ * Only read-only stages from a fixed allowlist are accepted, stage bodies are checked with the same
+ * operator rules as find filters, and the number of stages, {@code $unwind}s and {@code $group}s is
+ * capped. The validated pipeline is normalized so that filters run first and the output is bounded:
+ * {@code $match} stages are moved ahead of any {@code $sort} they follow and merged when adjacent,
+ * and a final {@code $limit} is enforced.
+ */
+public final class PipelineValidator {
+
+    /** Stages a generated pipeline may use */
+    private static final Set<String> ALLOWED_STAGES = Set.of(
+            "$match", "$group", "$project", "$sort", "$limit", "$count", "$unwind");
+
+    private static final int MAX_STAGES = 10;
+    private static final int MAX_UNWIND_STAGES = 2;
+    private static final int MAX_GROUP_STAGES = 2;
+
+    private PipelineValidator() {
+    }
+
+    /**
+     * @param pipeline the "pipeline" value of a generated query
+     * @param maxRows upper bound on the number of documents the pipeline may return
+     * @return the validated pipeline with filters first and a final {@code $limit} of at most maxRows
+     * @throws InvalidQueryException If the pipeline is malformed or exceeds a stage limit
+     * @throws SecurityException If a stage is not allowed or contains a forbidden operator
+     */
+    public static List<Document> validate(Object pipeline, int maxRows) {
+        if (!(pipeline instanceof List) || ((List<?>) pipeline).isEmpty()) {
+            throw new InvalidQueryException("Invalid 'pipeline' format. Expected a non-empty array of stages.");
+        }
+        List<?> stages = (List<?>) pipeline;
+        if (stages.size() > MAX_STAGES) {
+            throw new InvalidQueryException("Pipeline may have at most " + MAX_STAGES + " stages");
+        }
+
+        List<Document> validated = new ArrayList<>(stages.size() + 1);
+        int unwinds = 0;
+        int groups = 0;
+        for (Object value : stages) {
+            if (!(value instanceof Document) || ((Document) value).size() != 1) {
+                throw new InvalidQueryException("Each pipeline stage must be an object with a single stage operator");
+            }
+            Map.Entry<String, Object> stage = ((Document) value).entrySet().iterator().next();
+            String name = stage.getKey();
+            if (!ALLOWED_STAGES.contains(name)) {
+                throw new SecurityException("Pipeline stage is not allowed: " + name);
+            }
+            if (name.equals("$unwind") && ++unwinds > MAX_UNWIND_STAGES) {
+                throw new InvalidQueryException("Pipeline may have at most " + MAX_UNWIND_STAGES + " $unwind stages");
+            }
+            if (name.equals("$group") && ++groups > MAX_GROUP_STAGES) {
+                throw new InvalidQueryException("Pipeline may have at most " + MAX_GROUP_STAGES + " $group stages");
+            }
+            validated.add(new Document(name, validateStage(name, stage.getValue(), maxRows)));
+        }
+
+        return boundOutput(pushDownMatches(validated), maxRows);
+    }
+
+    private static Object validateStage(String name, Object body, int maxRows) {
+        switch (name) {
+            case "$match":
+            case "$group":
+            case "$project":
+                if (!(body instanceof Document) || (name.equals("$group") && !((Document) body).containsKey("_id"))) {
+                    throw new InvalidQueryException("Invalid " + name + " stage");
+                }
+                QueryOperatorValidator.checkOperators((Document) body);
+                return body;
+            case "$sort":
+                Document sort = MongoQuery.normalizeSort(body);
+                if (sort.isEmpty()) {
+                    throw new InvalidQueryException("Invalid $sort stage");
+                }
+                return sort;
+            case "$limit":
+                if (!(body instanceof Number) || ((Number) body).longValue() <= 0) {
+                    throw new InvalidQueryException("Invalid $limit stage");
+                }
+                return (int) Math.min(((Number) body).longValue(), maxRows);
+            case "$count":
+                if (!(body instanceof String) || !isFieldName((String) body)) {
+                    throw new InvalidQueryException("Invalid $count stage");
+                }
+                return body;
+            case "$unwind":
+                return validateUnwind(body);
+            default:
+                throw new SecurityException("Pipeline stage is not allowed: " + name);
+        }
+    }
+
+    private static Object validateUnwind(Object body) {
+        Object path = body instanceof Document ? ((Document) body).get("path") : body;
+        if (!(path instanceof String) || !((String) path).startsWith("$") || !isFieldPath(((String) path).substring(1))) {
+            throw new InvalidQueryException("Invalid $unwind stage");
+        }
+        if (body instanceof Document) {
+            for (Map.Entry<String, Object> option : ((Document) body).entrySet()) {
+                String key = option.getKey();
+                Object setting = option.getValue();
+                boolean valid = key.equals("path")
+                        || (key.equals("preserveNullAndEmptyArrays") && setting instanceof Boolean)
+                        || (key.equals("includeArrayIndex") && setting instanceof String && isFieldName((String) setting));
+                if (!valid) {
+                    throw new InvalidQueryException("Invalid $unwind option: " + option.getKey());
+                }
+            }
+        }
+        return body;
+    }
+
+    /**
+     * Moves each {@code $match} in front of the {@code $sort} stages directly before it (filtering
+     * before sorting returns the same documents in the same order) and merges adjacent matches.
+     */
+    private static List<Document> pushDownMatches(List<Document> stages) {
+        List<Document> result = new ArrayList<>(stages.size() + 1);
+        for (Document stage : stages) {
+            if (!stage.containsKey("$match")) {
+                result.add(stage);
+                continue;
+            }
+            int position = result.size();
+            while (position > 0 && result.get(position - 1).containsKey("$sort")) {
+                position--;
+            }
+            Document match = stage.get("$match", Document.class);
+            if (position > 0 && result.get(position - 1).containsKey("$match")) {
+                Document previous = result.get(position - 1).get("$match", Document.class);
+                result.set(position - 1, new Document("$match", new Document("$and", List.of(previous, match))));
+            } else {
+                result.add(position, stage);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Caps the pipeline's output at maxRows: a trailing {@code $limit} is clamped, a trailing
+     * {@code $count} returns one document, anything else gets a {@code $limit} appended.
+     * @return the bounded pipeline; the given list is not modified
+     */
+    static List<Document> boundOutput(List<Document> stages, int maxRows) {
+        List<Document> bounded = new ArrayList<>(stages);
+        Document last = bounded.get(bounded.size() - 1);
+        if (last.containsKey("$limit")) {
+            int limit = (int) Math.min(((Number) last.get("$limit")).longValue(), maxRows);
+            bounded.set(bounded.size() - 1, new Document("$limit", limit));
+        } else if (!last.containsKey("$count")) {
+            bounded.add(new Document("$limit", maxRows));
+        }
+        return bounded;
+    }
+
+    private static boolean isFieldName(String name) {
+        return !name.isEmpty() && !name.startsWith("$") && name.indexOf('.') < 0;
+    }
+
+    private static boolean isFieldPath(String path) {
+        for (String part : path.split("\\.", -1)) {
+            if (!isFieldName(part)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
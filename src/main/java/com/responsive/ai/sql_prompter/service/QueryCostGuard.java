@@ -0,0 +1,308 @@
+package com.responsive.ai.sql_prompter.service;
+
+import com.mongodb.ReadPreference;
+import com.responsive.ai.sql_prompter.cache.LruTtlCache;
+import com.responsive.ai.sql_prompter.concurrent.Deadline;
+import com.responsive.ai.sql_prompter.config.QueryTarget;
+import com.responsive.ai.sql_prompter.config.ReadRouting;
+import com.responsive.ai.sql_prompter.exception.DeadlineExceededException;
+import com.responsive.ai.sql_prompter.exception.InvalidQueryException;
+import com.responsive.ai.sql_prompter.model.CostDecision;
+import com.responsive.ai.sql_prompter.model.MongoQuery;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Checks the plan of a query before it runs. The winning plan is obtained with a queryPlanner
+ * explain, which plans the query without executing it, and cached by query shape (field names
+ * and operators, not values) together with the collection's estimated size. A query whose plan
+ * scans a collection larger than the configured threshold is either rejected or has its limit
+ * lowered, depending on query.cost-guard.collscan-action. Only queries that already carry a limit,
+ * such as generated ones, are lowered: direct queries without a limit ask for every match, so those
+ * are always rejected in that case. Aggregations that pass documents through ($match, $project,
+ * $sort, $unwind) are lowered like finds, through their final $limit. Aggregations that $group or
+ * $count would return a wrong result if capped; they have their own, usually higher, threshold
+ * (query.cost-guard.aggregation-collscan-max-documents) and are rejected above it.
+ */
+@Service
+public class QueryCostGuard {
+    private static final Logger log = LoggerFactory.getLogger(QueryCostGuard.class);
+
+    private final ReadPreference readPreference;
+    private final boolean enabled;
+    private final long collscanMaxDocuments;
+    private final long aggregationCollscanMaxDocuments;
+    private final boolean rejectCollscans;
+    private final int collscanLimit;
+    private final LruTtlCache<String, Plan> plans;
+    private final Map<CostDecision.Outcome, Counter> outcomes = new EnumMap<>(CostDecision.Outcome.class);
+    private final Counter rejected;
+
+    public QueryCostGuard(MeterRegistry meterRegistry,
+                          ReadRouting readRouting,
+                          @Value("${query.cost-guard.enabled:true}") boolean enabled,
+                          @Value("${query.cost-guard.collscan-max-documents:50000}") long collscanMaxDocuments,
+                          @Value("${query.cost-guard.aggregation-collscan-max-documents:${query.cost-guard.collscan-max-documents:50000}}")
+                          long aggregationCollscanMaxDocuments,
+                          @Value("${query.cost-guard.collscan-action:limit}") String collscanAction,
+                          @Value("${query.cost-guard.collscan-limit:100}") int collscanLimit,
+                          @Value("${query.cost-guard.plan-cache-ttl-seconds:300}") long planCacheTtlSeconds) {
+        if (!collscanAction.equals("limit") && !collscanAction.equals("reject")) {
+            throw new IllegalArgumentException("query.cost-guard.collscan-action must be 'limit' or 'reject'");
+        }
+        // Plans and counts come from the same kind of member the query will run on
+        this.readPreference = readRouting.forQueries();
+        this.enabled = enabled;
+        this.collscanMaxDocuments = collscanMaxDocuments;
+        this.aggregationCollscanMaxDocuments = aggregationCollscanMaxDocuments;
+        this.rejectCollscans = collscanAction.equals("reject");
+        this.collscanLimit = collscanLimit;
+        this.plans = new LruTtlCache<String, Plan>("query.plans", 1000, Duration.ofSeconds(planCacheTtlSeconds))
+                .bindTo(meterRegistry);
+        for (CostDecision.Outcome outcome : CostDecision.Outcome.values()) {
+            outcomes.put(outcome, Counter.builder("query.cost_guard")
+                    .tag("outcome", outcome.name().toLowerCase(Locale.ROOT))
+                    .description("Queries by cost guard decision")
+                    .register(meterRegistry));
+        }
+        this.rejected = Counter.builder("query.cost_guard")
+                .tag("outcome", "rejected")
+                .description("Queries by cost guard decision")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Result of a check: the query to run, possibly with a lowered limit, and the decision taken.
+     */
+    public static final class Assessment {
+        private final MongoQuery query;
+        private final CostDecision decision;
+
+        private Assessment(MongoQuery query, CostDecision decision) {
+            this.query = query;
+            this.decision = decision;
+        }
+
+        public MongoQuery getQuery() {
+            return query;
+        }
+
+        public CostDecision getDecision() {
+            return decision;
+        }
+    }
+
+    /**
+     * @param target target the query will run on; it is explained there
+     * @throws InvalidQueryException If the query would scan a large collection and cannot be bounded
+     * @throws DeadlineExceededException If the deadline passes while planning
+     */
+    public Assessment assess(QueryTarget target, MongoQuery query, Deadline deadline) {
+        if (!enabled) {
+            return record(query, CostDecision.skipped());
+        }
+        // Plans and collection sizes differ between the databases of different targets
+        String shape = target.getName() + '|' + shapeOf(query);
+        Plan plan = plans.get(shape);
+        boolean cached = plan != null;
+        if (plan == null) {
+            deadline.check("query planning");
+            try {
+                plan = explain(target.getMongoTemplate(), query, deadline);
+            } catch (RuntimeException e) {
+                if (DeadlineExceededException.isTimeout(e)) {
+                    throw deadline.exceeded("query planning", e);
+                }
+                log.warn("Could not explain query on {}, running it unchecked: {}", query.getCollection(), e.getMessage());
+                return record(query, CostDecision.skipped());
+            }
+            plans.put(shape, plan);
+        }
+
+        boolean grouping = isGrouping(query);
+        if (!plan.collscan || plan.collectionDocuments <= collscanMaxDocuments
+                || (grouping && plan.collectionDocuments <= aggregationCollscanMaxDocuments)) {
+            return record(query, new CostDecision(CostDecision.Outcome.ALLOWED, plan.stages, plan.collectionDocuments,
+                    null, cached));
+        }
+        if (rejectCollscans || grouping) {
+            rejected.increment();
+            throw new InvalidQueryException("Query would scan all " + plan.collectionDocuments + " documents of '"
+                    + query.getCollection() + "' without using an index. Please add a condition on an indexed field.");
+        }
+        if (query.getLimit() == 0) {
+            // Capping a query that asked for every match would silently return a partial result
+            rejected.increment();
+            throw new InvalidQueryException("Query would scan all " + plan.collectionDocuments + " documents of '"
+                    + query.getCollection() + "' without using an index. Please add a condition on an indexed field,"
+                    + " or use the streaming endpoint to export every match.");
+        }
+        int limit = Math.min(query.getLimit(), collscanLimit);
+        log.info("Query on {} scans {} documents, limiting to {} rows", query.getCollection(), plan.collectionDocuments, limit);
+        MongoQuery limited = query.isAggregation()
+                ? MongoQuery.aggregation(query.getCollection(), PipelineValidator.boundOutput(query.getPipeline(), limit), limit)
+                : query.withLimit(limit);
+        return record(limited, new CostDecision(CostDecision.Outcome.LIMITED, plan.stages,
+                plan.collectionDocuments, limit, cached));
+    }
+
+    /**
+     * @return true for aggregations whose result depends on every input document, which a limit would falsify
+     */
+    private static boolean isGrouping(MongoQuery query) {
+        return query.getPipeline().stream().anyMatch(stage -> stage.containsKey("$group") || stage.containsKey("$count"));
+    }
+
+    private Assessment record(MongoQuery query, CostDecision decision) {
+        outcomes.get(decision.getOutcome()).increment();
+        return new Assessment(query, decision);
+    }
+
+    private Plan explain(MongoTemplate mongoTemplate, MongoQuery query, Deadline deadline) {
+        Document command;
+        if (query.isAggregation()) {
+            command = new Document("aggregate", query.getCollection())
+                    .append("pipeline", query.getPipeline())
+                    .append("cursor", new Document());
+        } else {
+            command = new Document("find", query.getCollection()).append("filter", query.getFilter());
+            if (!query.getSort().isEmpty()) {
+                command.append("sort", query.getSort());
+            }
+            if (!query.getProjection().isEmpty()) {
+                command.append("projection", query.getProjection());
+            }
+            if (!query.getCollation().isEmpty()) {
+                command.append("collation", query.getCollation());
+            }
+        }
+        Document explain = new Document("explain", command)
+                .append("verbosity", "queryPlanner")
+                .append("maxTimeMS", deadline.remainingMillis());
+        Document result = mongoTemplate.executeCommand(explain, readPreference);
+
+        Document winningPlan = findWinningPlan(result);
+        if (winningPlan == null) {
+            throw new IllegalStateException("explain returned no winning plan");
+        }
+        List<String> stages = new ArrayList<>();
+        collectStages(winningPlan, stages);
+        long documents = mongoTemplate.getCollection(query.getCollection())
+                .withReadPreference(readPreference)
+                .estimatedDocumentCount();
+        return new Plan(String.join(" > ", stages), stages.contains("COLLSCAN"), documents);
+    }
+
+    /**
+     * Finds the winning plan in find explains and in aggregate explains, where it sits under the
+     * first stage's $cursor unless the whole pipeline was pushed down to the query layer.
+     */
+    private static Document findWinningPlan(Object node) {
+        if (node instanceof Document) {
+            Document document = (Document) node;
+            Object plan = document.get("winningPlan");
+            if (plan instanceof Document) {
+                Document winning = (Document) plan;
+                // Slot-based engine plans wrap the classic plan tree in "queryPlan"
+                return winning.get("queryPlan") instanceof Document ? (Document) winning.get("queryPlan") : winning;
+            }
+            for (Object value : document.values()) {
+                Document found = findWinningPlan(value);
+                if (found != null) {
+                    return found;
+                }
+            }
+        } else if (node instanceof List) {
+            for (Object value : (List<?>) node) {
+                Document found = findWinningPlan(value);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void collectStages(Document plan, List<String> stages) {
+        Object stage = plan.get("stage");
+        if (stage instanceof String) {
+            stages.add((String) stage);
+        }
+        Object input = plan.get("inputStage");
+        if (input instanceof Document) {
+            collectStages((Document) input, stages);
+        }
+        Object inputs = plan.get("inputStages");
+        if (inputs instanceof List) {
+            for (Object child : (List<?>) inputs) {
+                if (child instanceof Document) {
+                    collectStages((Document) child, stages);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the plan cache key: collection, field names and operators, with values reduced to their types
+     */
+    static String shapeOf(MongoQuery query) {
+        StringBuilder shape = new StringBuilder(query.getCollection()).append('|');
+        if (query.isAggregation()) {
+            appendShape(query.getPipeline(), shape);
+        } else {
+            appendShape(query.getFilter(), shape);
+            shape.append('|').append(query.getSort().toJson()).append('|');
+            appendShape(query.getProjection(), shape);
+            shape.append('|').append(query.getCollation().toJson());
+        }
+        return shape.toString();
+    }
+
+    private static void appendShape(Object value, StringBuilder shape) {
+        if (value instanceof Document) {
+            shape.append('{');
+            for (Map.Entry<String, Object> entry : ((Document) value).entrySet()) {
+                shape.append(entry.getKey()).append(':');
+                appendShape(entry.getValue(), shape);
+                shape.append(',');
+            }
+            shape.append('}');
+        } else if (value instanceof List) {
+            // $in lists of any length plan the same; pipelines are lists of stages and keep their structure
+            List<?> list = (List<?>) value;
+            boolean documents = !list.isEmpty() && list.stream().allMatch(Document.class::isInstance);
+            shape.append('[');
+            if (documents) {
+                list.forEach(item -> appendShape(item, shape));
+            }
+            shape.append(']');
+        } else {
+            shape.append(value == null ? "null" : value.getClass().getSimpleName());
+        }
+    }
+
+    private static final class Plan {
+        private final String stages;
+        private final boolean collscan;
+        private final long collectionDocuments;
+
+        private Plan(String stages, boolean collscan, long collectionDocuments) {
+            this.stages = stages;
+            this.collscan = collscan;
+            this.collectionDocuments = collectionDocuments;
+        }
+    }
+}
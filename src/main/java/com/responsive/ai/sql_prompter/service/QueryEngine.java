@@ -0,0 +1,280 @@
+package com.responsive.ai.sql_prompter.service;
+
+import com.mongodb.MongoException;
+import com.mongodb.ReadPreference;
+import com.responsive.ai.sql_prompter.config.QueryTarget;
+import com.responsive.ai.sql_prompter.config.ReadRouting;
+import com.responsive.ai.sql_prompter.concurrent.Deadline;
+import com.responsive.ai.sql_prompter.exception.DeadlineExceededException;
+import com.responsive.ai.sql_prompter.exception.InvalidQueryException;
+import com.responsive.ai.sql_prompter.model.CompactResultSet;
+import com.responsive.ai.sql_prompter.model.CostDecision;
+import com.responsive.ai.sql_prompter.model.MongoQuery;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Collation;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Executes validated queries for every entry point: direct, generated, paged, streamed and reactive.
+ * <p>
+ * The engine owns how a {@link MongoQuery} becomes a cursor (projection, sort, skip, limit,
+ * collation, batch size, maxTimeMS from the request deadline and the query read preference of
+ * {@link ReadRouting}), how rows are encoded
+ * ({@link CompactResultSet}), and how driver timeouts are reported. {@link #execute} additionally
+ * runs the cost guard and the result cache, so those apply to every caller in the same way.
+ * Queries written by clients go through {@link #executeDirect}, where the cost guard and the row
+ * cap are opt-in (query.engine.guard-direct-queries), as those endpoints never had them.
+ * Every method takes the {@link QueryTarget} to run on, and uses that target's templates only.
+ */
+@Service
+public class QueryEngine {
+    private static final Logger log = LoggerFactory.getLogger(QueryEngine.class);
+
+    private final JoinExecutor joinExecutor;
+    private final QueryCostGuard costGuard;
+    private final QueryResultCache resultCache;
+    private final MeterRegistry meterRegistry;
+    private final int batchSize;
+    private final int maxRows;
+    private final boolean aggregationAllowDiskUse;
+    private final boolean guardDirectQueries;
+    private final ReadPreference readPreference;
+
+    public QueryEngine(JoinExecutor joinExecutor,
+                       QueryCostGuard costGuard,
+                       QueryResultCache resultCache,
+                       MeterRegistry meterRegistry,
+                       ReadRouting readRouting,
+                       @Value("${query.engine.batch-size:1000}") int batchSize,
+                       @Value("${query.engine.max-rows:10000}") int maxRows,
+                       @Value("${ai.aggregation.allow-disk-use:false}") boolean aggregationAllowDiskUse,
+                       @Value("${query.engine.guard-direct-queries:false}") boolean guardDirectQueries) {
+        this.joinExecutor = Objects.requireNonNull(joinExecutor);
+        this.costGuard = Objects.requireNonNull(costGuard);
+        this.resultCache = Objects.requireNonNull(resultCache);
+        this.meterRegistry = Objects.requireNonNull(meterRegistry);
+        this.batchSize = batchSize;
+        this.maxRows = maxRows;
+        this.aggregationAllowDiskUse = aggregationAllowDiskUse;
+        this.guardDirectQueries = guardDirectQueries;
+        this.readPreference = readRouting.forQueries();
+    }
+
+    /**
+     * Outcome of {@link #execute}: the rows and how they were obtained.
+     */
+    public static final class Result {
+        private final List<Map<String, Object>> rows;
+        private final boolean fromCache;
+        private final CostDecision costDecision;
+
+        private Result(List<Map<String, Object>> rows, boolean fromCache, CostDecision costDecision) {
+            this.rows = rows;
+            this.fromCache = fromCache;
+            this.costDecision = costDecision;
+        }
+
+        public List<Map<String, Object>> getRows() {
+            return rows;
+        }
+
+        public boolean isFromCache() {
+            return fromCache;
+        }
+
+        /**
+         * @return the cost guard's decision; null if the guard was not applied
+         */
+        public CostDecision getCostDecision() {
+            return costDecision;
+        }
+    }
+
+    /**
+     * Checks the query's plan, then returns its rows from the result cache or from MongoDB.
+     * @throws InvalidQueryException If the query is too expensive, returns more than
+     *         query.engine.max-rows rows, or fails on the server
+     * @throws DeadlineExceededException If the deadline passes before all rows are read
+     */
+    public Result execute(QueryTarget target, MongoQuery query, Deadline deadline) {
+        QueryCostGuard.Assessment assessment = assess(target, query, deadline);
+        MongoQuery checked = assessment.getQuery();
+        int maxRows = target.getMaxRows(this.maxRows);
+        QueryResultCache.Lookup lookup = resultCache.getOrLoad(target, checked, maxRows,
+                () -> load(target, checked, deadline, maxRows));
+        return new Result(lookup.getRows(), lookup.isFromCache(), assessment.getDecision());
+    }
+
+    /**
+     * Like {@link #execute}, for queries written by the client rather than generated. The cost guard
+     * and the row cap only apply with query.engine.guard-direct-queries=true; otherwise every
+     * matching row is returned and the result has no cost decision.
+     */
+    public Result executeDirect(QueryTarget target, MongoQuery query, Deadline deadline) {
+        if (guardDirectQueries) {
+            return execute(target, query, deadline);
+        }
+        QueryResultCache.Lookup lookup = resultCache.getOrLoad(target, query, Integer.MAX_VALUE,
+                () -> load(target, query, deadline, Integer.MAX_VALUE));
+        return new Result(lookup.getRows(), lookup.isFromCache(), null);
+    }
+
+    /**
+     * Runs the cost guard alone, for callers that stream or page the checked query with {@link #publish}
+     * or {@link #read}.
+     */
+    public QueryCostGuard.Assessment assess(QueryTarget target, MongoQuery query, Deadline deadline) {
+        return costGuard.assess(target, query, deadline);
+    }
+
+    /**
+     * @return true if query.engine.guard-direct-queries puts direct queries through the cost guard
+     */
+    public boolean isGuardingDirectQueries() {
+        return guardDirectQueries;
+    }
+
+    private List<Map<String, Object>> load(QueryTarget target, MongoQuery query, Deadline deadline, int maxRows) {
+        if (!query.getJoins().isEmpty()) {
+            return timed("join", () -> joinExecutor.execute(target, query, deadline));
+        }
+        return read(target, query, deadline, documents -> {
+            CompactResultSet.Builder results = CompactResultSet.builder();
+            int count = 0;
+            Iterator<Document> iterator = documents.iterator();
+            while (iterator.hasNext()) {
+                if (++count > maxRows) {
+                    throw new InvalidQueryException("Query returns more than " + maxRows
+                            + " rows. Please add a limit or use the streaming endpoint.");
+                }
+                results.add(iterator.next());
+            }
+            return results.build();
+        });
+    }
+
+    /**
+     * Opens a cursor for a find or aggregation query and hands its documents to the reader; the
+     * cursor is closed when the reader returns. Nothing is cached and no plan check is made, so
+     * callers that stream or page through large results use this directly.
+     * @param reader consumes the documents; it may stop early
+     * @throws InvalidQueryException If the query has joins or fails on the server
+     * @throws DeadlineExceededException If the deadline passes while the cursor is read
+     */
+    public <R> R read(QueryTarget target, MongoQuery query, Deadline deadline, Function<Stream<Document>, R> reader) {
+        if (!query.getJoins().isEmpty()) {
+            throw new InvalidQueryException("Join queries can only be executed as a whole");
+        }
+        deadline.check("query execution");
+        String type = query.isAggregation() ? "aggregate" : "find";
+        return timed(type, () -> {
+            try (Stream<Document> documents = open(target, query, deadline)) {
+                return reader.apply(documents);
+            } catch (DataAccessException | MongoException e) {
+                if (DeadlineExceededException.isTimeout(e)) {
+                    throw deadline.exceeded("query execution", e);
+                }
+                log.error("Error executing {} on {}: {}", type, query.getCollection(), e.getMessage());
+                throw new InvalidQueryException("Error executing query: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Streams the documents of a find or aggregation query from the reactive driver. The cursor is
+     * opened on subscription, with what is left of the deadline at that point as maxTimeMS.
+     */
+    public Flux<Document> publish(QueryTarget target, MongoQuery query, Deadline deadline) {
+        if (!query.getJoins().isEmpty()) {
+            return Flux.error(new InvalidQueryException("Join queries are not supported on the streaming endpoints"));
+        }
+        ReactiveMongoTemplate reactiveMongoTemplate = target.getReactiveMongoTemplate();
+        return Flux.defer(() -> {
+            deadline.check("query execution");
+            if (query.isAggregation()) {
+                return reactiveMongoTemplate.aggregate(aggregation(query, deadline), query.getCollection(), Document.class);
+            }
+            return reactiveMongoTemplate.find(find(query, deadline), Document.class, query.getCollection());
+        }).onErrorMap(e -> !(e instanceof DeadlineExceededException) && DeadlineExceededException.isTimeout(e),
+                e -> deadline.exceeded("query execution", e));
+    }
+
+    private Stream<Document> open(QueryTarget target, MongoQuery query, Deadline deadline) {
+        if (query.isAggregation()) {
+            return target.getMongoTemplate()
+                    .aggregateStream(aggregation(query, deadline), query.getCollection(), Document.class);
+        }
+        return target.getMongoTemplate().stream(find(query, deadline), Document.class, query.getCollection());
+    }
+
+    private BasicQuery find(MongoQuery query, Deadline deadline) {
+        // The parsed documents are handed to the driver directly, no JSON round trip
+        BasicQuery basicQuery = new BasicQuery(query.getFilter(), query.getProjection());
+        // Sort, skip and limit go to the server together so it can return the top k from an index
+        if (!query.getSort().isEmpty()) {
+            basicQuery.setSortObject(query.getSort());
+        }
+        if (!query.getCollation().isEmpty()) {
+            basicQuery.collation(Collation.from(query.getCollation()));
+        }
+        basicQuery.skip(query.getSkip());
+        basicQuery.limit(query.getLimit());
+        basicQuery.cursorBatchSize(batchSize);
+        basicQuery.maxTimeMsec(deadline.remainingMillis());
+        basicQuery.withReadPreference(readPreference);
+        return basicQuery;
+    }
+
+    private Aggregation aggregation(MongoQuery query, Deadline deadline) {
+        List<AggregationOperation> stages = query.getPipeline().stream()
+                .map(stage -> (AggregationOperation) context -> stage)
+                .toList();
+        return Aggregation.newAggregation(stages)
+                .withOptions(AggregationOptions.builder()
+                        .allowDiskUse(aggregationAllowDiskUse)
+                        .cursorBatchSize(batchSize)
+                        .maxTime(Duration.ofMillis(deadline.remainingMillis()))
+                        .readPreference(readPreference)
+                        .build());
+    }
+
+    private <R> R timed(String type, Supplier<R> execution) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            R result = execution.get();
+            outcome = "success";
+            return result;
+        } catch (DeadlineExceededException e) {
+            outcome = "timeout";
+            throw e;
+        } finally {
+            sample.stop(Timer.builder("query.execution")
+                    .tag("type", type)
+                    .tag("outcome", outcome)
+                    .description("Time spent executing queries in MongoDB, including reading the cursor")
+                    .register(meterRegistry));
+        }
+    }
+}
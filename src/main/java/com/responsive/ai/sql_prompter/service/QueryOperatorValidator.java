@@ -0,0 +1,189 @@
+package com.responsive.ai.sql_prompter.service;
+
+import org.bson.Document;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Single-pass, linear-time checks for dangerous MongoDB operators.
+ * <p>
+ * Operator names are kept in precompiled hash sets and looked up by their ASCII-lower-cased form,
+ * so each input character or document key is examined once. The checks flag exactly the inputs the
+ * previous regular expressions flagged, including their boundary rules (a word character must
+ * precede the '.' or '$', and because '.' did not match line terminators the whole input is only
+ * flagged when the match spans every line break).
+ */
+public final class QueryOperatorValidator {
+
+    /** Shell/collection methods that are flagged when written as {@code .name:} */
+    private static final Set<String> METHOD_NAMES = Set.of(
+            "save", "insert", "update", "remove", "delete", "drop", "create", "rename", "eval", "shutdown",
+            "fsync", "repair", "replset", "sharding", "logrotate", "replsetinitiate", "replsetreconfig",
+            "replsetstepdown", "replsetfreeze", "replsetmaintenance", "replsetsyncfrom", "resync", "validate",
+            "compact", "collmod", "dbhash", "dbstats", "clonecollection", "clonecollectionascapped",
+            "converttocapped", "createindexes", "dropindexes", "reindex", "filemd5", "connpoolsync",
+            "connpoolstats", "cursorinfo", "getcmdlineopts", "getlog", "getparameter", "getshardversion",
+            "hostinfo", "listcommands", "listdatabases", "ping", "profile", "serverstatus",
+            "shardconnpoolstats", "top", "whatsmyuri", "collstats");
+
+    /** Operators that are flagged in free text when written as {@code $name:} */
+    private static final Set<String> TEXT_OPERATORS = Set.of(
+            "where", "function", "eval", "accumulator", "addtoset", "push", "pull", "rename", "unset",
+            "currentdate", "inc", "min", "max", "mul", "setoninsert", "pop", "bit", "isolated", "all",
+            "elemmatch", "size", "type", "not", "mod", "regex", "text", "geowithin", "geointersects",
+            "near", "nearsphere", "geonear");
+
+    /** Operators that may never appear as a key of a generated query document */
+    private static final Set<String> FORBIDDEN_KEYS = Set.of(
+            "$where", "$eval", "$accumulator", "$function", "$group", "$merge", "$out", "$geonear",
+            "$lookup", "$graphlookup", "$redact");
+
+    private QueryOperatorValidator() {
+    }
+
+    /**
+     * Checks free text (the natural language question) for data-modifying or administrative
+     * operations written as {@code .method:} or {@code $operator:}.
+     * @param input The input string to check
+     * @return true if dangerous patterns are found, false otherwise
+     */
+    public static boolean containsInjection(String input) {
+        if (input == null || input.trim().isEmpty()) {
+            return false;
+        }
+
+        int length = input.length();
+        int firstLineBreak = length;
+        int lastLineBreak = -1;
+        for (int i = 0; i < length; i++) {
+            if (isLineTerminator(input.charAt(i))) {
+                if (firstLineBreak == length) {
+                    firstLineBreak = i;
+                }
+                lastLineBreak = i;
+            }
+        }
+
+        // A match must start before the first line break and end after the last one
+        for (int i = 1; i < firstLineBreak; i++) {
+            char c = input.charAt(i);
+            if ((c != '.' && c != '$') || !isWordBefore(input, i)) {
+                continue;
+            }
+            int nameEnd = i + 1;
+            // Names are ASCII letters and digits (filemd5); the boundary checks below reject longer words
+            while (nameEnd < length && isAsciiLetterOrDigit(input.charAt(nameEnd))) {
+                nameEnd++;
+            }
+            String name = asciiLowerCase(input, i + 1, nameEnd);
+            boolean known = c == '.'
+                    ? METHOD_NAMES.contains(name) && !isWordAt(input, nameEnd)
+                    : TEXT_OPERATORS.contains(name);
+            if (!known) {
+                continue;
+            }
+            int colon = nameEnd;
+            while (colon < length && isRegexWhitespace(input.charAt(colon))) {
+                colon++;
+            }
+            if (colon < length && input.charAt(colon) == ':' && colon + 1 > lastLineBreak) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Walks the parsed query once and rejects forbidden operators at any depth.
+     * @param queryDoc The parsed query document
+     * @throws SecurityException If a forbidden operator is found
+     */
+    public static void checkOperators(Document queryDoc) {
+        for (Map.Entry<String, Object> entry : queryDoc.entrySet()) {
+            if (isForbiddenKey(entry.getKey())) {
+                throw new SecurityException("Query contains forbidden operator: " + entry.getKey());
+            }
+            checkNestedValue(entry.getValue());
+        }
+    }
+
+    private static void checkNestedValue(Object value) {
+        if (value instanceof Document) {
+            for (Map.Entry<String, Object> entry : ((Document) value).entrySet()) {
+                if (isForbiddenKey(entry.getKey())) {
+                    throw new SecurityException("Query contains forbidden operator in nested document: " + entry.getKey());
+                }
+                checkNestedValue(entry.getValue());
+            }
+        } else if (value instanceof List) {
+            for (Object item : (List<?>) value) {
+                if (item instanceof Document) {
+                    checkNestedValue(item);
+                }
+            }
+        }
+    }
+
+    static boolean isForbiddenKey(String key) {
+        return !key.isEmpty() && key.charAt(0) == '$' && FORBIDDEN_KEYS.contains(asciiLowerCase(key, 0, key.length()));
+    }
+
+    /**
+     * Same notion of a word character as {@code \b} in java.util.regex: letters, digits and '_',
+     * plus non-spacing marks attached to a letter or digit.
+     */
+    private static boolean isWordBefore(String s, int index) {
+        int cp = Character.codePointBefore(s, index);
+        return isWordCodePoint(cp)
+                || (Character.getType(cp) == Character.NON_SPACING_MARK && hasBaseCharacter(s, index - 1));
+    }
+
+    private static boolean isWordAt(String s, int index) {
+        if (index >= s.length()) {
+            return false;
+        }
+        int cp = Character.codePointAt(s, index);
+        return isWordCodePoint(cp)
+                || (Character.getType(cp) == Character.NON_SPACING_MARK && hasBaseCharacter(s, index));
+    }
+
+    private static boolean hasBaseCharacter(String s, int index) {
+        for (int x = index; x >= 0; x--) {
+            int cp = Character.codePointAt(s, x);
+            if (Character.isLetterOrDigit(cp)) {
+                return true;
+            }
+            if (Character.getType(cp) != Character.NON_SPACING_MARK) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isWordCodePoint(int cp) {
+        return cp == '_' || Character.isLetterOrDigit(cp);
+    }
+
+    private static boolean isAsciiLetterOrDigit(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    private static boolean isRegexWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static String asciiLowerCase(String s, int from, int to) {
+        char[] chars = new char[to - from];
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            chars[i - from] = c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return new String(chars);
+    }
+}
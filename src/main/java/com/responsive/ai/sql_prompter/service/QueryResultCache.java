@@ -0,0 +1,310 @@
+package com.responsive.ai.sql_prompter.service;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.responsive.ai.sql_prompter.cache.LruTtlCache;
+import com.responsive.ai.sql_prompter.config.QueryTarget;
+import com.responsive.ai.sql_prompter.config.QueryTargets;
+import com.responsive.ai.sql_prompter.config.ReadRouting;
+import com.responsive.ai.sql_prompter.model.JoinSpec;
+import com.responsive.ai.sql_prompter.model.MongoQuery;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Caches the results of executed queries, keyed by the query target, the row cap they were loaded
+ * under and the canonical form of the query (collection, filter, projection, sort, skip, limit,
+ * collation, pipeline and joins).
+ * <p>
+ * Entries are invalidated per collection: every collection has a generation that is part of the
+ * keys of queries reading it, and a change stream on each target's database bumps the generation
+ * of each collection that is written to, so entries of older generations are never hit again and age out
+ * of the LRU. A result stored after a concurrent write keeps the generation seen before it ran and
+ * is unreachable as well. When change streams are unavailable (standalone servers) or the stream
+ * fails, entries are only served for query.result-cache.ttl-seconds. The same applies when queries
+ * read from secondaries: a lagging secondary can return rows older than the last invalidation.
+ */
+@Service
+public class QueryResultCache {
+    private static final Logger log = LoggerFactory.getLogger(QueryResultCache.class);
+
+    /** Server error code for $changeStream on a standalone server */
+    private static final int CHANGE_STREAMS_UNSUPPORTED = 40573;
+    private static final long RECONNECT_DELAY_MS = 5000;
+    private static final Set<String> LOGICAL_OPERATORS = Set.of("$and", "$or", "$nor");
+    private static final JsonWriterSettings KEY_SETTINGS = JsonWriterSettings.builder()
+            .outputMode(JsonMode.RELAXED)
+            .build();
+
+    private final QueryTargets queryTargets;
+    private final boolean enabled;
+    private final boolean staleReads;
+    private final int maxRows;
+    private final long ttlNanos;
+    private final LruTtlCache<String, CachedRows> results;
+    private final Map<String, Long> generations = new ConcurrentHashMap<>();
+    private final AtomicLong epoch = new AtomicLong();
+    /** Targets whose change stream is currently open */
+    private final Set<String> changeStreamTargets = ConcurrentHashMap.newKeySet();
+    private final List<Thread> listeners = new ArrayList<>();
+    private volatile boolean running;
+
+    public QueryResultCache(QueryTargets queryTargets,
+                            MeterRegistry meterRegistry,
+                            ReadRouting readRouting,
+                            @Value("${query.result-cache.enabled:true}") boolean enabled,
+                            @Value("${query.result-cache.max-entries:200}") int maxEntries,
+                            @Value("${query.result-cache.max-rows:1000}") int maxRows,
+                            @Value("${query.result-cache.ttl-seconds:30}") long ttlSeconds,
+                            @Value("${query.result-cache.max-age-seconds:600}") long maxAgeSeconds) {
+        this.queryTargets = Objects.requireNonNull(queryTargets);
+        this.enabled = enabled;
+        this.staleReads = readRouting.queriesMayReadStale();
+        this.maxRows = maxRows;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        // Even with a change stream, entries are dropped after max-age as a bound on missed events
+        this.results = new LruTtlCache<String, CachedRows>("query.results", maxEntries,
+                Duration.ofSeconds(maxAgeSeconds)).bindTo(meterRegistry);
+        for (QueryTarget target : queryTargets.all()) {
+            String name = target.getName();
+            Gauge.builder("query.result_cache.change_stream", this, cache -> cache.changeStreamTargets.contains(name) ? 1 : 0)
+                    .tag("target", name)
+                    .description("1 while results are invalidated by a change stream, 0 while only the TTL applies")
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Result of a cached execution.
+     */
+    public static final class Lookup {
+        private final List<Map<String, Object>> rows;
+        private final boolean fromCache;
+
+        private Lookup(List<Map<String, Object>> rows, boolean fromCache) {
+            this.rows = rows;
+            this.fromCache = fromCache;
+        }
+
+        public List<Map<String, Object>> getRows() {
+            return rows;
+        }
+
+        public boolean isFromCache() {
+            return fromCache;
+        }
+    }
+
+    /**
+     * Returns the cached rows of the query on the target, or executes it with the loader and caches the rows.
+     * @param rowCap the most rows the loader returns before it fails; rows loaded without a cap are never
+     *        served to a capped execution of the same query
+     * @param loader executes the query on the target; its rows must be read-only, e.g. a CompactResultSet
+     */
+    public Lookup getOrLoad(QueryTarget queryTarget, MongoQuery query, int rowCap,
+                            Supplier<List<Map<String, Object>>> loader) {
+        if (!enabled) {
+            return new Lookup(loader.get(), false);
+        }
+        // The key is taken before execution, so rows read before a concurrent write are stored under the old generation
+        String target = queryTarget.getName();
+        String key = keyOf(target, query, rowCap);
+        CachedRows cached = results.get(key);
+        boolean invalidated = changeStreamTargets.contains(target) && !staleReads;
+        if (cached != null && (invalidated || System.nanoTime() - cached.cachedAt <= ttlNanos)) {
+            return new Lookup(cached.rows, true);
+        }
+
+        List<Map<String, Object>> rows = loader.get();
+        if (rows != null && rows.size() <= maxRows) {
+            results.put(key, new CachedRows(rows, System.nanoTime()));
+        }
+        return new Lookup(rows, false);
+    }
+
+    /**
+     * Drops the cached results of all queries reading the collection of the target.
+     */
+    public void invalidate(String target, String collection) {
+        generations.merge(target + '/' + collection, 1L, Long::sum);
+    }
+
+    /**
+     * Drops the cached results of all queries on the target.
+     */
+    public void invalidateTarget(String target) {
+        // Collection names are never empty, so this generation is the target's own
+        generations.merge(target + '/', 1L, Long::sum);
+    }
+
+    public void invalidateAll() {
+        epoch.incrementAndGet();
+        results.invalidateAll();
+    }
+
+    private String keyOf(String target, MongoQuery query, int rowCap) {
+        StringBuilder key = new StringBuilder().append(epoch.get()).append('|').append(rowCap).append('|');
+        appendGeneration(target, "", key);
+        appendGeneration(target, query.getCollection(), key);
+        for (JoinSpec join : query.getJoins()) {
+            appendGeneration(target, join.getFrom(), key);
+        }
+        Document canonical = new Document("collection", query.getCollection())
+                .append("query", canonicalFilter(query.getFilter()))
+                .append("projection", new Document(new TreeMap<>(query.getProjection())))
+                .append("sort", query.getSort())
+                .append("skip", query.getSkip())
+                .append("limit", query.getLimit())
+                .append("collation", query.getCollation())
+                .append("pipeline", query.getPipeline())
+                .append("join", query.getJoins().stream().map(JoinSpec::toDocument).toList());
+        return key.append(canonical.toJson(KEY_SETTINGS)).toString();
+    }
+
+    private void appendGeneration(String target, String collection, StringBuilder key) {
+        String name = target + '/' + collection;
+        key.append(name).append('@').append(generations.getOrDefault(name, 0L)).append('|');
+    }
+
+    /**
+     * Orders the field and operator names of a filter, so filters that differ only in the order of
+     * their conditions share a key. Embedded documents compared by equality keep their order, which
+     * is significant to the server.
+     */
+    private static Object canonicalFilter(Object value) {
+        if (value instanceof List) {
+            return ((List<?>) value).stream().map(QueryResultCache::canonicalFilter).toList();
+        }
+        if (!(value instanceof Document)) {
+            return value;
+        }
+        Document document = (Document) value;
+        TreeMap<String, Object> sorted = new TreeMap<>();
+        for (Map.Entry<String, Object> entry : document.entrySet()) {
+            Object condition = entry.getValue();
+            boolean operators = condition instanceof Document && !((Document) condition).isEmpty()
+                    && ((Document) condition).keySet().stream().allMatch(k -> k.startsWith("$"));
+            boolean logical = LOGICAL_OPERATORS.contains(entry.getKey()) && condition instanceof List;
+            sorted.put(entry.getKey(), operators || logical ? canonicalFilter(condition) : condition);
+        }
+        return new Document(sorted);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        if (staleReads) {
+            log.info("Queries may read from secondaries; cached query results are only served for {} s",
+                    TimeUnit.NANOSECONDS.toSeconds(ttlNanos));
+        }
+        running = true;
+        for (QueryTarget target : queryTargets.all()) {
+            Thread thread = new Thread(() -> listen(target), "result-cache-invalidation-" + target.getName());
+            thread.setDaemon(true);
+            listeners.add(thread);
+            thread.start();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        listeners.forEach(Thread::interrupt);
+    }
+
+    /**
+     * Follows the change stream of the target's database and invalidates the collections written to.
+     * Reconnects after failures; every (re)connect invalidates the whole target, since events may have been missed.
+     */
+    private void listen(QueryTarget target) {
+        String name = target.getName();
+        while (running) {
+            try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = target.getMongoTemplate()
+                    .getDb()
+                    .watch(List.of(new Document("$project", new Document("ns", 1).append("to", 1).append("operationType", 1))))
+                    .maxAwaitTime(1, TimeUnit.SECONDS)
+                    .cursor()) {
+                invalidateTarget(name);
+                changeStreamTargets.add(name);
+                log.info("Query result cache of target {} is invalidated by change stream", name);
+                while (running) {
+                    ChangeStreamDocument<Document> event = cursor.tryNext();
+                    if (event != null) {
+                        onChange(name, event);
+                    }
+                }
+            } catch (MongoCommandException e) {
+                changeStreamTargets.remove(name);
+                if (e.getErrorCode() == CHANGE_STREAMS_UNSUPPORTED) {
+                    log.info("Change streams are not available for target {}; cached query results expire after their TTL", name);
+                } else {
+                    log.warn("Cannot open change stream for target {} ({}); cached query results expire after their TTL",
+                            name, e.getErrorMessage());
+                }
+                return;
+            } catch (MongoException | IllegalStateException e) {
+                changeStreamTargets.remove(name);
+                if (!running) {
+                    return;
+                }
+                log.warn("Change stream of target {} failed, reconnecting in {} ms: {}", name, RECONNECT_DELAY_MS, e.getMessage());
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void onChange(String target, ChangeStreamDocument<Document> event) {
+        MongoNamespace namespace = event.getNamespace();
+        if (namespace == null || namespace.getCollectionName() == null) {
+            // dropDatabase and invalidate events
+            invalidateTarget(target);
+            return;
+        }
+        invalidate(target, namespace.getCollectionName());
+        MongoNamespace destination = event.getDestinationNamespace();
+        if (destination != null) {
+            invalidate(target, destination.getCollectionName());
+        }
+    }
+
+    private static final class CachedRows {
+        private final List<Map<String, Object>> rows;
+        private final long cachedAt;
+
+        private CachedRows(List<Map<String, Object>> rows, long cachedAt) {
+            this.rows = rows;
+            this.cachedAt = cachedAt;
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package com.responsive.ai.sql_prompter.service;
+
+import com.responsive.ai.sql_prompter.model.MongoQuery;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.BsonRegularExpression;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites validated find filters into equivalent forms that MongoDB can answer from an index.
+ * <p>
+ * The model defaults to {@code {"$regex": term, "$options": "i"}}, and a case-insensitive regex
+ * cannot use index bounds. Regexes that are really an equality or a prefix are rewritten:
+ * <ul>
+ *   <li>{@code ^literal$} becomes an equality. If the match is case-insensitive and the literal has
+ *       letters, the query is run with a case-insensitive collation (strength 2), which an index with
+ *       the same collation supports, and the regex is kept to re-check the documents found. This is
+ *       only done when nothing else in the query compares strings, since the collation applies to
+ *       the whole filter and to the sort.</li>
+ *   <li>A case-insensitive {@code ^literal} becomes an {@code $in} of case-sensitive prefix
+ *       regexes, one per case variant of its first letters, with the rest of the literal matched
+ *       case-insensitively. Each of those has index bounds.</li>
+ * </ul>
+ * Nested {@code $and}s are flattened into the filter, and {@code $or} branches that test the same
+ * field for equality are merged into one {@code $in}. Every rewrite matches exactly the documents
+ * the original filter matches; anything that cannot be proven equivalent is left as it is.
+ * Aggregation pipelines are not rewritten.
+ */
+public class QueryRewriter {
+    private static final Logger log = LoggerFactory.getLogger(QueryRewriter.class);
+
+    /** Characters that are not literal in a regex pattern */
+    private static final String REGEX_METACHARACTERS = "\\^$.|?*+()[]{}";
+    /** Case variants are generated for at most this many letters (2^3 = 8 prefixes) */
+    private static final int MAX_VARIANT_LETTERS = 3;
+
+    enum Rule {
+        EXACT_EQUALITY, COLLATION_EQUALITY, PREFIX, AND_FLATTEN, OR_TO_IN
+    }
+
+    private final boolean enabled;
+    private final Document collation;
+    private final Map<Rule, Counter> applied = new EnumMap<>(Rule.class);
+
+    /**
+     * @param registry registry for the per-rule counters
+     * @param enabled false to return every query unchanged
+     * @param collationLocale locale of the case-insensitive collation used for equality rewrites;
+     *                        indexes must be created with the same collation to be used
+     */
+    public QueryRewriter(MeterRegistry registry, boolean enabled, String collationLocale) {
+        this.enabled = enabled;
+        this.collation = new Document("locale", collationLocale).append("strength", 2);
+        for (Rule rule : Rule.values()) {
+            applied.put(rule, Counter.builder("query.rewrites")
+                    .tag("rule", rule.name().toLowerCase(Locale.ROOT))
+                    .description("Filter rewrites applied to generated queries")
+                    .register(registry));
+        }
+    }
+
+    /**
+     * @return the query with an equivalent, index-friendlier filter; the query itself if nothing applies
+     */
+    public MongoQuery rewrite(MongoQuery query) {
+        if (!enabled || query.isAggregation() || !query.getCollation().isEmpty()) {
+            return query;
+        }
+        // The collation would also change the sort order and every other string comparison
+        Document original = query.getFilter();
+        boolean collationAllowed = query.getSort().isEmpty() && !comparesStrings(original)
+                && !comparesStrings(query.getProjection());
+        Rewrite rewrite = new Rewrite(collationAllowed);
+        Document filter = rewriteFilter(original, rewrite);
+        if (rewrite.rules.isEmpty()) {
+            return query;
+        }
+
+        rewrite.rules.forEach(rule -> applied.get(rule).increment());
+        MongoQuery rewritten = query.withFilter(filter);
+        if (rewrite.usesCollation) {
+            rewritten = rewritten.withCollation(collation);
+        }
+        log.debug("Rewrote filter {} to {} ({})", original.toJson(), filter.toJson(), rewrite.rules);
+        return rewritten;
+    }
+
+    /**
+     * Rewrites the conditions of a filter and flattens {@code $and}s: members of an {@code $and} (and
+     * a single remaining {@code $or} branch) become conditions of the filter itself unless their field
+     * is already present, in which case they are kept in one {@code $and}.
+     */
+    private Document rewriteFilter(Document filter, Rewrite rewrite) {
+        List<Map.Entry<String, Object>> conjuncts = new ArrayList<>(filter.size());
+        for (Map.Entry<String, Object> entry : filter.entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            if (key.equals("$and") && isDocumentList(value)) {
+                for (Object member : (List<?>) value) {
+                    addConjuncts(rewriteFilter((Document) member, rewrite), conjuncts);
+                }
+                rewrite.rules.add(Rule.AND_FLATTEN);
+            } else if (key.equals("$or") && isDocumentList(value)) {
+                List<Document> branches = rewriteOr((List<?>) value, rewrite);
+                // All branches were merged into one $in
+                if (branches.size() == 1 && ((List<?>) value).size() > 1) {
+                    addConjuncts(branches.get(0), conjuncts);
+                } else {
+                    conjuncts.add(new AbstractMap.SimpleEntry<>(key, branches));
+                }
+            } else if (key.equals("$nor") && isDocumentList(value)) {
+                List<Document> branches = new ArrayList<>();
+                for (Object member : (List<?>) value) {
+                    branches.add(rewriteFilter((Document) member, rewrite));
+                }
+                conjuncts.add(new AbstractMap.SimpleEntry<>(key, branches));
+            } else if (!key.startsWith("$")) {
+                conjuncts.add(new AbstractMap.SimpleEntry<>(key, rewriteCondition(value, rewrite)));
+            } else {
+                conjuncts.add(entry);
+            }
+        }
+
+        Document result = new Document();
+        List<Document> conflicting = new ArrayList<>();
+        for (Map.Entry<String, Object> conjunct : conjuncts) {
+            // A malformed $and is passed on as it is, so the server still rejects it
+            if (result.containsKey(conjunct.getKey()) || conjunct.getKey().equals("$and")) {
+                conflicting.add(new Document(conjunct.getKey(), conjunct.getValue()));
+            } else {
+                result.put(conjunct.getKey(), conjunct.getValue());
+            }
+        }
+        if (!conflicting.isEmpty()) {
+            result.put("$and", conflicting);
+        }
+        return result;
+    }
+
+    private static void addConjuncts(Document filter, List<Map.Entry<String, Object>> conjuncts) {
+        for (Map.Entry<String, Object> entry : filter.entrySet()) {
+            if (entry.getKey().equals("$and") && isDocumentList(entry.getValue())) {
+                for (Object member : (List<?>) entry.getValue()) {
+                    addConjuncts((Document) member, conjuncts);
+                }
+            } else {
+                conjuncts.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the branches of an {@code $or} and merges branches that are equalities on the same
+     * field into a single {@code $in} at the position of the first one.
+     */
+    private List<Document> rewriteOr(List<?> members, Rewrite rewrite) {
+        List<Object> branches = new ArrayList<>(members.size());
+        Map<String, Set<Object>> valuesByField = new LinkedHashMap<>();
+        for (Object member : members) {
+            Document branch = rewriteFilter((Document) member, rewrite);
+            Collection<?> values = equalityValues(branch);
+            if (values == null) {
+                branches.add(branch);
+                continue;
+            }
+            String field = branch.keySet().iterator().next();
+            Set<Object> merged = valuesByField.get(field);
+            if (merged == null) {
+                valuesByField.put(field, new LinkedHashSet<>(values));
+                branches.add(field);
+            } else {
+                merged.addAll(values);
+                rewrite.rules.add(Rule.OR_TO_IN);
+            }
+        }
+
+        List<Document> result = new ArrayList<>(branches.size());
+        for (Object branch : branches) {
+            if (branch instanceof String) {
+                Set<Object> values = valuesByField.get(branch);
+                Object condition = values.size() == 1 ? values.iterator().next()
+                        : new Document("$in", new ArrayList<>(values));
+                result.add(new Document((String) branch, condition));
+            } else {
+                result.add((Document) branch);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the values a single-field branch compares its field to with equality ({@code value},
+     *         {@code $eq} or {@code $in}), or null if the branch is anything else
+     */
+    private static Collection<?> equalityValues(Document branch) {
+        if (branch.size() != 1) {
+            return null;
+        }
+        Map.Entry<String, Object> condition = branch.entrySet().iterator().next();
+        if (condition.getKey().startsWith("$")) {
+            return null;
+        }
+        Object value = condition.getValue();
+        if (isScalar(value)) {
+            return Collections.singletonList(value);
+        }
+        if (!(value instanceof Document) || ((Document) value).size() != 1) {
+            return null;
+        }
+        Document operator = (Document) value;
+        if (operator.containsKey("$eq") && isScalar(operator.get("$eq"))) {
+            return Collections.singletonList(operator.get("$eq"));
+        }
+        Object in = operator.get("$in");
+        if (in instanceof List && !((List<?>) in).isEmpty() && ((List<?>) in).stream().allMatch(QueryRewriter::isScalar)) {
+            return (List<?>) in;
+        }
+        return null;
+    }
+
+    /**
+     * Rewrites a field condition that is a regex without other operators; anything else is returned as is.
+     */
+    private Object rewriteCondition(Object condition, Rewrite rewrite) {
+        String pattern;
+        String options;
+        if (condition instanceof BsonRegularExpression) {
+            pattern = ((BsonRegularExpression) condition).getPattern();
+            options = ((BsonRegularExpression) condition).getOptions();
+        } else if (condition instanceof Document && ((Document) condition).get("$regex") instanceof String
+                && ((Document) condition).keySet().stream().allMatch(k -> k.equals("$regex") || k.equals("$options"))) {
+            pattern = ((Document) condition).getString("$regex");
+            Object value = ((Document) condition).get("$options");
+            if (value != null && !(value instanceof String)) {
+                return condition;
+            }
+            options = value == null ? "" : (String) value;
+        } else {
+            return condition;
+        }
+        if (!options.isEmpty() && !options.equals("i")) {
+            return condition;
+        }
+        boolean caseInsensitive = options.equals("i");
+
+        // Only ^literal and ^literal$ are rewritten
+        if (!pattern.startsWith("^")) {
+            return condition;
+        }
+        boolean anchoredEnd = pattern.endsWith("$") && !pattern.endsWith("\\$");
+        String literal = unescape(pattern.substring(1, anchoredEnd ? pattern.length() - 1 : pattern.length()),
+                caseInsensitive);
+        if (literal == null || literal.isEmpty()) {
+            return condition;
+        }
+        boolean hasLetters = literal.chars().anyMatch(Character::isLetter);
+
+        if (anchoredEnd) {
+            // "$" also matches before a final line break, so "abc\n" matches ^abc$ as well
+            Document equality = new Document("$in", List.of(literal, literal + "\n"));
+            if (!caseInsensitive || !hasLetters) {
+                rewrite.rules.add(Rule.EXACT_EQUALITY);
+                return equality;
+            }
+            if (!rewrite.collationAllowed) {
+                return condition;
+            }
+            rewrite.usesCollation = true;
+            rewrite.rules.add(Rule.COLLATION_EQUALITY);
+            // The collation also equates variants the regex does not (e.g. full-width letters), so
+            // the regex stays as a check on the documents found through the index
+            return equality.append("$regex", pattern).append("$options", options);
+        }
+
+        if (!caseInsensitive) {
+            // A case-sensitive anchored prefix already has index bounds
+            return condition;
+        }
+        if (!hasLetters) {
+            rewrite.rules.add(Rule.PREFIX);
+            return new BsonRegularExpression(pattern);
+        }
+        return prefixVariants(literal, condition, rewrite);
+    }
+
+    /**
+     * Expands the first letters of a case-insensitive prefix into their case variants. 'k' and 's'
+     * end the expanded part because they also match non-ASCII letters (KELVIN SIGN, LONG S) when
+     * matched case-insensitively.
+     */
+    private static Object prefixVariants(String literal, Object condition, Rewrite rewrite) {
+        int end = 0;
+        int letters = 0;
+        while (end < literal.length() && letters < MAX_VARIANT_LETTERS) {
+            char c = literal.charAt(end);
+            if (c == 'k' || c == 'K' || c == 's' || c == 'S') {
+                break;
+            }
+            if (Character.isLetter(c)) {
+                letters++;
+            }
+            end++;
+        }
+        // The server derives no index bounds from patterns containing '|', escaped or not
+        if (letters == 0 || literal.indexOf('|') >= 0) {
+            return condition;
+        }
+
+        String rest = end < literal.length() ? "(?i)" + escape(literal.substring(end)) : "";
+        List<String> prefixes = List.of("");
+        for (int i = 0; i < end; i++) {
+            char c = literal.charAt(i);
+            List<String> next = new ArrayList<>(prefixes.size() * 2);
+            for (String prefix : prefixes) {
+                if (Character.isLetter(c)) {
+                    next.add(prefix + Character.toLowerCase(c));
+                    next.add(prefix + Character.toUpperCase(c));
+                } else {
+                    next.add(prefix + escape(String.valueOf(c)));
+                }
+            }
+            prefixes = next;
+        }
+        List<BsonRegularExpression> variants = new ArrayList<>(prefixes.size());
+        for (String prefix : prefixes) {
+            variants.add(new BsonRegularExpression("^" + prefix + rest));
+        }
+        rewrite.rules.add(Rule.PREFIX);
+        return new Document("$in", variants);
+    }
+
+    /**
+     * @return the text a pattern matches literally, or null if it contains regex syntax; with
+     *         caseInsensitive only printable ASCII is accepted, where regex case folding and the
+     *         collation agree
+     */
+    private static String unescape(String pattern, boolean caseInsensitive) {
+        StringBuilder literal = new StringBuilder(pattern.length());
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\\') {
+                if (++i == pattern.length()) {
+                    return null;
+                }
+                c = pattern.charAt(i);
+                // \d, \w, \Q, ... are classes or directives, not escaped characters
+                if (c > 0x7F || Character.isLetterOrDigit(c)) {
+                    return null;
+                }
+            } else if (REGEX_METACHARACTERS.indexOf(c) >= 0) {
+                return null;
+            }
+            if (caseInsensitive ? c < 0x20 || c > 0x7E : Character.isISOControl(c)) {
+                return null;
+            }
+            literal.append(c);
+        }
+        return literal.toString();
+    }
+
+    private static String escape(String literal) {
+        StringBuilder escaped = new StringBuilder(literal.length());
+        for (char c : literal.toCharArray()) {
+            if (REGEX_METACHARACTERS.indexOf(c) >= 0) {
+                escaped.append('\\');
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * @return true if the filter compares any string value, i.e. would be affected by a collation;
+     *         regex patterns and operator arguments such as $type are not compared
+     */
+    private static boolean comparesStrings(Object value) {
+        if (value instanceof String) {
+            return true;
+        }
+        if (value instanceof Document) {
+            for (Map.Entry<String, Object> entry : ((Document) value).entrySet()) {
+                String key = entry.getKey();
+                if (key.equals("$regex") || key.equals("$options") || key.equals("$type")) {
+                    continue;
+                }
+                if (comparesStrings(entry.getValue())) {
+                    return true;
+                }
+            }
+        } else if (value instanceof List) {
+            for (Object element : (List<?>) value) {
+                if (comparesStrings(element)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isScalar(Object value) {
+        return !(value instanceof Map) && !(value instanceof Collection) && !(value instanceof BsonRegularExpression)
+                && !(value instanceof Pattern) && !(value != null && value.getClass().isArray());
+    }
+
+    private static boolean isDocumentList(Object value) {
+        return value instanceof List && !((List<?>) value).isEmpty()
+                && ((List<?>) value).stream().allMatch(Document.class::isInstance);
+    }
+
+    private static final class Rewrite {
+        private final boolean collationAllowed;
+        private final Set<Rule> rules = new LinkedHashSet<>();
+        private boolean usesCollation;
+
+        private Rewrite(boolean collationAllowed) {
+            this.collationAllowed = collationAllowed;
+        }
+    }
+}
@@ -1,8 +1,39 @@
 package com.responsive.ai.sql_prompter.service;
 
+import com.responsive.ai.sql_prompter.concurrent.Deadline;
 import com.responsive.ai.sql_prompter.model.QueryRequest;
 import com.responsive.ai.sql_prompter.model.QueryResponse;
+import org.bson.Document;
+
+import java.io.IOException;
+import java.io.OutputStream;
 
 public interface QueryService {
     QueryResponse executeQuery(QueryRequest request);
+
+    /**
+     * Like {@link #executeQuery(QueryRequest)}, within a deadline the caller started earlier,
+     * e.g. before handing the request to a worker pool, so time spent queueing counts against it.
+     */
+    QueryResponse executeQuery(QueryRequest request, Deadline deadline);
+
+    /**
+     * @return a deadline starting now, with the request's deadlineMs or the configured default budget
+     */
+    Deadline deadlineFor(QueryRequest request);
+
+    /**
+     * Parses and validates a direct (non-AI) query without executing it.
+     * @return the query document, including its "collection" field
+     */
+    Document parseDirectQuery(String query);
+
+    /**
+     * Executes a parsed direct query and writes each result to the stream as one line of JSON
+     * while iterating the cursor, so memory use does not grow with the result size.
+     * @param target query target to run on; null for the default target
+     * @param queryDoc query returned by {@link #parseDirectQuery(String)}
+     * @return number of documents written
+     */
+    long streamDirectQuery(String target, Document queryDoc, OutputStream out) throws IOException;
 }
@@ -0,0 +1,87 @@
+package com.responsive.ai.sql_prompter.service;
+
+import com.responsive.ai.sql_prompter.concurrent.BoundedTaskExecutor;
+import com.responsive.ai.sql_prompter.concurrent.Deadline;
+import com.responsive.ai.sql_prompter.config.QueryTarget;
+import com.responsive.ai.sql_prompter.config.QueryTargets;
+import com.responsive.ai.sql_prompter.exception.InvalidQueryException;
+import com.responsive.ai.sql_prompter.model.MongoQuery;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Objects;
+
+/**
+ * Non-blocking query execution on the reactive MongoDB driver. Results are emitted as the cursor
+ * yields them instead of being collected into a list, so large results are never held in memory.
+ * Queries are validated exactly like on the blocking endpoints.
+ */
+@Service
+public class ReactiveQueryService {
+    private static final Logger log = LoggerFactory.getLogger(ReactiveQueryService.class);
+
+    private final QueryEngine queryEngine;
+    private final QueryService queryService;
+    private final AiQueryService aiQueryService;
+    private final BoundedTaskExecutor aiTaskExecutor;
+    private final QueryTargets queryTargets;
+
+    @Value("${query.stream.deadline-ms:1800000}")
+    private long streamDeadlineMs;
+
+    public ReactiveQueryService(QueryEngine queryEngine,
+                                QueryService queryService,
+                                AiQueryService aiQueryService,
+                                BoundedTaskExecutor aiTaskExecutor,
+                                QueryTargets queryTargets) {
+        this.queryEngine = Objects.requireNonNull(queryEngine);
+        this.queryService = Objects.requireNonNull(queryService);
+        this.aiQueryService = Objects.requireNonNull(aiQueryService);
+        this.aiTaskExecutor = Objects.requireNonNull(aiTaskExecutor);
+        this.queryTargets = Objects.requireNonNull(queryTargets);
+    }
+
+    /**
+     * Streams the results of a direct query.
+     * @param query JSON filter with a "collection" field naming the collection to query
+     * @param target query target to run on; null for the default target
+     * @throws InvalidQueryException If the query or target is invalid; thrown before anything is streamed
+     */
+    public Flux<Document> executeDirectQuery(String query, String target) {
+        Document queryDoc = queryService.parseDirectQuery(query);
+        String collectionName = queryDoc.getString("collection");
+        if (collectionName == null) {
+            throw new InvalidQueryException("Collection name must be specified in the query");
+        }
+        queryDoc.remove("collection");
+
+        QueryTarget queryTarget = queryTargets.get(target);
+
+        log.debug("Streaming direct query on collection {}", collectionName);
+        // Like the blocking export, a direct stream is bounded by the export budget rather than the request one
+        return queryEngine.publish(queryTarget, new MongoQuery(collectionName, queryDoc, new Document(), 0),
+                Deadline.afterMillis(streamDeadlineMs));
+    }
+
+    /**
+     * Generates the query and checks its plan on the AI worker pool, then streams its results.
+     * @param target query target to run on; null for the default target
+     * @throws java.util.concurrent.RejectedExecutionException If the AI worker pool is saturated
+     */
+    public Flux<Document> executeAiQuery(String naturalLanguageQuery, String target) {
+        QueryTarget queryTarget = queryTargets.get(target);
+        // The deadline covers waiting for a worker, generation and the cursor
+        Deadline deadline = aiQueryService.defaultDeadline();
+        Mono<MongoQuery> generated = Mono.fromFuture(aiTaskExecutor.submit(() -> queryEngine.assess(queryTarget,
+                aiQueryService.generateQuery(queryTarget, naturalLanguageQuery, deadline), deadline).getQuery()));
+        return generated.flatMapMany(mongoQuery -> {
+            log.debug("Streaming generated query: {}", mongoQuery);
+            return queryEngine.publish(queryTarget, mongoQuery, deadline);
+        });
+    }
+}
@@ -0,0 +1,250 @@
+package com.responsive.ai.sql_prompter.service;
+
+import com.responsive.ai.sql_prompter.model.SchemaSnapshot;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Reduces the schema section of the AI prompt to the collections and fields relevant to a question.
+ * Relevance is scored with an inverted index built once per schema snapshot from collection names,
+ * field paths and sampled string values (e.g. department names), so pruning costs a few map lookups.
+ * When nothing in the question matches, the full schema is used unchanged.
+ */
+public class SchemaPruner {
+    private static final Logger log = LoggerFactory.getLogger(SchemaPruner.class);
+
+    private static final int COLLECTION_WEIGHT = 3;
+    private static final int FIELD_WEIGHT = 2;
+    private static final int VALUE_WEIGHT = 1;
+    private static final int MAX_INDEXED_VALUE_LENGTH = 64;
+    private static final int CHARS_PER_TOKEN = 4;
+
+    private static final Set<String> STOP_WORDS = Set.of(
+            "the", "and", "all", "are", "for", "from", "with", "who", "whose", "which", "what", "that",
+            "than", "more", "less", "have", "has", "their", "them", "they", "this", "those", "there",
+            "where", "when", "how", "many", "much", "any", "each", "every", "into", "only", "most", "top");
+
+    private final DistributionSummary tokensSaved;
+    private final DistributionSummary tokensKept;
+    private volatile Index index;
+
+    public SchemaPruner(MeterRegistry registry) {
+        this.tokensSaved = DistributionSummary.builder("ai.prompt.schema.tokens.saved")
+                .description("Estimated prompt tokens removed from the schema section by pruning")
+                .baseUnit("tokens")
+                .register(registry);
+        this.tokensKept = DistributionSummary.builder("ai.prompt.schema.tokens")
+                .description("Estimated prompt tokens of the schema section sent to the model")
+                .baseUnit("tokens")
+                .register(registry);
+    }
+
+    /**
+     * Returns the schema text to embed in the prompt for the given question.
+     *
+     * @param schema current schema snapshot
+     * @param question the (preprocessed) natural language question
+     * @return schema text in the same format as {@link SchemaSnapshot#getDescription()}
+     */
+    public String prune(SchemaSnapshot schema, String question) {
+        Index current = indexFor(schema);
+        String fullText = schema.getDescription();
+
+        Map<String, Integer> collectionScores = new HashMap<>();
+        Map<String, Set<String>> matchedFields = new HashMap<>();
+        for (String token : tokenize(question)) {
+            for (Hit hit : current.hits.getOrDefault(token, Set.of())) {
+                collectionScores.merge(hit.collection, hit.weight, Integer::sum);
+                if (hit.field != null) {
+                    matchedFields.computeIfAbsent(hit.collection, k -> new HashSet<>()).add(hit.field);
+                }
+            }
+        }
+
+        if (collectionScores.isEmpty()) {
+            log.debug("No schema terms matched the question, using the full schema");
+            record(fullText, fullText);
+            return fullText;
+        }
+
+        // Keep every collection scoring at least a third of the best one, so a collection named in the
+        // question is kept together with collections whose sampled values it mentions
+        int bestScore = Collections.max(collectionScores.values());
+        StringBuilder sb = new StringBuilder("Schema: default\nTables:\n");
+        for (Map.Entry<String, Map<String, String>> table : schema.getCollectionSchemas().entrySet()) {
+            Integer score = collectionScores.get(table.getKey());
+            if (score == null || score * 3 < bestScore) {
+                continue;
+            }
+            Set<String> matched = matchedFields.getOrDefault(table.getKey(), Set.of());
+            sb.append("- ").append(table.getKey()).append("\n");
+            for (Map.Entry<String, String> field : table.getValue().entrySet()) {
+                if (isRelevantField(field.getKey(), matched)) {
+                    sb.append("  - ").append(field.getKey()).append(": ").append(field.getValue()).append("\n");
+                }
+            }
+        }
+
+        String pruned = sb.toString();
+        record(fullText, pruned);
+        log.debug("Pruned schema to collections {} ({} -> {} characters)",
+                collectionScores.keySet(), fullText.length(), pruned.length());
+        return pruned;
+    }
+
+    /**
+     * Top-level fields are always kept for a selected collection so the model can still project and
+     * filter on them; nested paths are kept only when they, or their parent, matched the question.
+     */
+    private boolean isRelevantField(String fieldPath, Set<String> matched) {
+        if (fieldPath.indexOf('.') < 0 || matched.contains(fieldPath)) {
+            return true;
+        }
+        String parent = fieldPath.substring(0, fieldPath.indexOf('.'));
+        for (String field : matched) {
+            if (field.equals(parent) || field.startsWith(parent + ".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void record(String fullText, String promptText) {
+        long fullTokens = fullText.length() / CHARS_PER_TOKEN;
+        long keptTokens = promptText.length() / CHARS_PER_TOKEN;
+        tokensKept.record(keptTokens);
+        tokensSaved.record(Math.max(0, fullTokens - keptTokens));
+    }
+
+    private Index indexFor(SchemaSnapshot schema) {
+        Index current = index;
+        if (current == null || !current.version.equals(schema.getVersion())) {
+            current = buildIndex(schema);
+            index = current;
+        }
+        return current;
+    }
+
+    private Index buildIndex(SchemaSnapshot schema) {
+        Map<String, Set<Hit>> hits = new HashMap<>();
+        for (Map.Entry<String, Map<String, String>> table : schema.getCollectionSchemas().entrySet()) {
+            String collection = table.getKey();
+            for (String token : tokenize(collection)) {
+                hits.computeIfAbsent(token, k -> new HashSet<>()).add(new Hit(collection, null, COLLECTION_WEIGHT));
+            }
+            for (String fieldPath : table.getValue().keySet()) {
+                String normalizedPath = fieldPath.replace("[]", "");
+                for (String token : tokenize(normalizedPath)) {
+                    hits.computeIfAbsent(token, k -> new HashSet<>()).add(new Hit(collection, fieldPath, FIELD_WEIGHT));
+                }
+            }
+            for (Document sample : schema.getSamples(collection)) {
+                indexValues(collection, "", sample, hits);
+            }
+        }
+        return new Index(schema.getVersion(), hits);
+    }
+
+    private void indexValues(String collection, String prefix, Document doc, Map<String, Set<Hit>> hits) {
+        for (Map.Entry<String, Object> entry : doc.entrySet()) {
+            String path = prefix.isEmpty() ? entry.getKey() : prefix + "." + entry.getKey();
+            Object value = entry.getValue();
+            if (value instanceof Document) {
+                indexValues(collection, path, (Document) value, hits);
+            } else if (value instanceof String && ((String) value).length() <= MAX_INDEXED_VALUE_LENGTH) {
+                for (String token : tokenize((String) value)) {
+                    hits.computeIfAbsent(token, k -> new HashSet<>()).add(new Hit(collection, path, VALUE_WEIGHT));
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits text into lower-case terms on non-alphanumeric characters and camelCase boundaries,
+     * dropping short and common words and reducing simple plurals to their singular form.
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        StringBuilder current = new StringBuilder();
+        char previous = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            boolean camelBoundary = Character.isUpperCase(c) && Character.isLowerCase(previous);
+            if (!Character.isLetterOrDigit(c) || camelBoundary) {
+                addToken(tokens, current);
+                current.setLength(0);
+            }
+            if (Character.isLetterOrDigit(c)) {
+                current.append(Character.toLowerCase(c));
+            }
+            previous = c;
+        }
+        addToken(tokens, current);
+        return tokens;
+    }
+
+    private static void addToken(List<String> tokens, StringBuilder raw) {
+        if (raw.length() < 3) {
+            return;
+        }
+        String token = raw.toString();
+        if (STOP_WORDS.contains(token)) {
+            return;
+        }
+        if (token.endsWith("ies") && token.length() > 4) {
+            token = token.substring(0, token.length() - 3) + "y";
+        } else if (token.endsWith("s") && !token.endsWith("ss") && token.length() > 3) {
+            token = token.substring(0, token.length() - 1);
+        }
+        tokens.add(token);
+    }
+
+    private static final class Index {
+        private final String version;
+        private final Map<String, Set<Hit>> hits;
+
+        private Index(String version, Map<String, Set<Hit>> hits) {
+            this.version = version;
+            this.hits = hits;
+        }
+    }
+
+    private static final class Hit {
+        private final String collection;
+        private final String field;
+        private final int weight;
+
+        private Hit(String collection, String field, int weight) {
+            this.collection = collection;
+            this.field = field;
+            this.weight = weight;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Hit)) {
+                return false;
+            }
+            Hit other = (Hit) o;
+            return weight == other.weight
+                    && collection.equals(other.collection)
+                    && Objects.equals(field, other.field);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(collection, field, weight);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.responsive.ai.sql_prompter.service;
+
+import com.responsive.ai.sql_prompter.cache.LruTtlCache;
+import com.responsive.ai.sql_prompter.config.QueryTarget;
+import com.responsive.ai.sql_prompter.model.MongoQuery;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.BsonRegularExpression;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Tells whether a query's sort can be served from an index, so the response can report whether
+ * a top-k query was answered by walking an index or needed an in-memory sort.
+ * <p>
+ * The check works from index metadata, which is cached per collection for a minute, and follows
+ * the server's rules: sort keys must appear in index order with all directions equal to or all the
+ * reverse of the index's, and index fields before or between them must be matched by equality in
+ * the filter.
+ */
+@Service
+public class SortIndexInspector {
+    private static final Logger log = LoggerFactory.getLogger(SortIndexInspector.class);
+    private static final Duration INDEX_INFO_TTL = Duration.ofMinutes(1);
+
+    private final LruTtlCache<String, List<IndexInfo>> indexInfo;
+    private final Counter indexedSorts;
+    private final Counter unindexedSorts;
+
+    public SortIndexInspector(MeterRegistry meterRegistry) {
+        this.indexInfo = new LruTtlCache<String, List<IndexInfo>>("sort-index-info", 256, INDEX_INFO_TTL)
+                .bindTo(meterRegistry);
+        this.indexedSorts = Counter.builder("query.sort")
+                .description("Sorted queries by whether an index supports the sort")
+                .tag("indexed", "true")
+                .register(meterRegistry);
+        this.unindexedSorts = Counter.builder("query.sort")
+                .description("Sorted queries by whether an index supports the sort")
+                .tag("indexed", "false")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param target target the query runs on, whose indexes are inspected
+     * @return the name of an index that supports the query's sort, or null if the query is unsorted,
+     *         no index supports the sort, or the collection's indexes could not be read
+     */
+    public String findSortIndex(QueryTarget target, MongoQuery query) {
+        Document sort = query.getSort();
+        if (sort.isEmpty()) {
+            return null;
+        }
+        List<IndexInfo> indexes = getIndexes(target, query.getCollection());
+        if (indexes == null) {
+            return null;
+        }
+
+        Set<String> equalityFields = equalityFields(query.getFilter());
+        for (IndexInfo index : indexes) {
+            if (supportsSort(index, sort, equalityFields)) {
+                indexedSorts.increment();
+                return index.getName();
+            }
+        }
+        unindexedSorts.increment();
+        return null;
+    }
+
+    private List<IndexInfo> getIndexes(QueryTarget target, String collection) {
+        // Collections of the same name in different targets have their own indexes
+        String key = target.getName() + '/' + collection;
+        List<IndexInfo> indexes = indexInfo.get(key);
+        if (indexes == null) {
+            try {
+                indexes = List.copyOf(target.getMongoTemplate().indexOps(collection).getIndexInfo());
+                indexInfo.put(key, indexes);
+            } catch (DataAccessException e) {
+                log.warn("Could not read indexes of collection {}: {}", collection, e.getMessage());
+                return null;
+            }
+        }
+        return indexes;
+    }
+
+    private static boolean supportsSort(IndexInfo index, Document sort, Set<String> equalityFields) {
+        // These index kinds are skipped by the planner for sorting unless the query matches their options
+        if (index.isSparse() || index.isHidden() || index.isHashed() || index.isWildcard()
+                || index.getPartialFilterExpression() != null || index.getCollation().isPresent()) {
+            return false;
+        }
+
+        List<Map.Entry<String, Object>> sortKeys = new ArrayList<>(sort.entrySet());
+        int matched = 0;
+        int orientation = 0;
+        for (IndexField field : index.getIndexFields()) {
+            if (matched == sortKeys.size()) {
+                break;
+            }
+            Map.Entry<String, Object> sortKey = sortKeys.get(matched);
+            Sort.Direction direction = field.getDirection();
+            if (direction != null && field.getKey().equals(sortKey.getKey())) {
+                int indexDirection = direction == Sort.Direction.ASC ? 1 : -1;
+                int relative = indexDirection * ((Number) sortKey.getValue()).intValue();
+                if (orientation != 0 && relative != orientation) {
+                    return false;
+                }
+                orientation = relative;
+                matched++;
+            } else if (!equalityFields.contains(field.getKey())) {
+                return false;
+            }
+        }
+        return matched == sortKeys.size();
+    }
+
+    /**
+     * @return top-level filter fields constrained to a single value, which the index can skip over
+     */
+    private static Set<String> equalityFields(Document filter) {
+        Set<String> fields = new HashSet<>();
+        collectEqualityFields(filter, fields);
+        return fields;
+    }
+
+    private static void collectEqualityFields(Document filter, Set<String> fields) {
+        for (Map.Entry<String, Object> entry : filter.entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            if ("$and".equals(key) && value instanceof List) {
+                for (Object clause : (List<?>) value) {
+                    if (clause instanceof Document) {
+                        collectEqualityFields((Document) clause, fields);
+                    }
+                }
+            } else if (!key.startsWith("$") && isEquality(value)) {
+                fields.add(key);
+            }
+        }
+    }
+
+    private static boolean isEquality(Object value) {
+        if (value instanceof Document) {
+            Document condition = (Document) value;
+            boolean operators = condition.keySet().stream().anyMatch(k -> k.startsWith("$"));
+            // Embedded document equality, or an explicit $eq
+            return !operators || (condition.size() == 1 && condition.containsKey("$eq"));
+        }
+        // Array values also match by element and regular expressions match ranges of keys
+        return !(value instanceof List) && !(value instanceof BsonRegularExpression) && !(value instanceof Pattern);
+    }
+}
@@ -0,0 +1,202 @@
+package com.responsive.ai.sql_prompter.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Chat model that calls Ollama's streaming chat endpoint and stops reading as soon as the
+ * completion contains a balanced top-level JSON object. Models frequently keep explaining the
+ * query after the closing brace; closing the response stream cancels the request, so those tokens
+ * are never generated. Completions without a JSON object are returned in full; a stream that ends
+ * before the model reports it is done fails instead of returning a partial completion.
+ */
+public class StreamingJsonChatModel implements ChatLanguageModel {
+    private static final Logger log = LoggerFactory.getLogger(StreamingJsonChatModel.class);
+
+    private final HttpClient httpClient;
+    private final URI chatUri;
+    private final String modelName;
+    private final double temperature;
+    private final Duration timeout;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Counter cutOff;
+    private final Counter completed;
+
+    /**
+     * @param baseUrl Ollama base URL, e.g. http://localhost:11434
+     * @param modelName model to run
+     * @param temperature sampling temperature
+     * @param timeout upper bound for a whole generation
+     * @param registry registry for the early cut-off counters
+     */
+    public StreamingJsonChatModel(String baseUrl, String modelName, double temperature, Duration timeout,
+                                  MeterRegistry registry) {
+        String base = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.chatUri = URI.create(base + "/api/chat");
+        this.modelName = modelName;
+        this.temperature = temperature;
+        this.timeout = timeout;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        this.cutOff = Counter.builder("ai.generation.streamed")
+                .tag("outcome", "json_cutoff")
+                .description("Streamed generations stopped once a complete JSON object was received")
+                .register(registry);
+        this.completed = Counter.builder("ai.generation.streamed")
+                .tag("outcome", "completed")
+                .description("Streamed generations read until the model finished")
+                .register(registry);
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        HttpRequest request = HttpRequest.newBuilder(chatUri)
+                .timeout(timeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(buildRequestBody(messages), StandardCharsets.UTF_8))
+                .build();
+
+        try {
+            HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            return Response.from(AiMessage.from(readCompletion(response)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the model", e);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to stream completion from Ollama: " + e.getMessage(), e);
+        }
+    }
+
+    private String readCompletion(HttpResponse<InputStream> response) throws IOException {
+        // Closing the body stream aborts the exchange, which makes Ollama stop generating
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(response.body(), StandardCharsets.UTF_8))) {
+            if (response.statusCode() != 200) {
+                throw new IOException("Ollama returned HTTP " + response.statusCode() + ": " + reader.readLine());
+            }
+
+            JsonObjectScanner scanner = new JsonObjectScanner();
+            StringBuilder text = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                JsonNode chunk = objectMapper.readTree(line);
+                if (chunk.hasNonNull("error")) {
+                    throw new IOException("Ollama error: " + chunk.get("error").asText());
+                }
+                String token = chunk.path("message").path("content").asText("");
+                text.append(token);
+                if (scanner.feed(token)) {
+                    cutOff.increment();
+                    log.debug("Complete JSON object received after {} characters, cancelling stream", text.length());
+                    return scanner.getObject();
+                }
+                if (chunk.path("done").asBoolean(false)) {
+                    completed.increment();
+                    return text.toString();
+                }
+            }
+            // A partial completion could still parse as a query that differs from the one the model meant
+            throw new IOException("Ollama stream ended after " + text.length() + " characters without completing");
+        }
+    }
+
+    private String buildRequestBody(List<ChatMessage> messages) {
+        ObjectNode body = objectMapper.createObjectNode();
+        body.put("model", modelName);
+        body.put("stream", true);
+        body.putObject("options").put("temperature", temperature);
+        ArrayNode chatMessages = body.putArray("messages");
+        for (ChatMessage message : messages) {
+            chatMessages.addObject()
+                    .put("role", toRole(message))
+                    .put("content", message.text());
+        }
+        return body.toString();
+    }
+
+    private String toRole(ChatMessage message) {
+        switch (message.type()) {
+            case SYSTEM:
+                return "system";
+            case AI:
+                return "assistant";
+            default:
+                return "user";
+        }
+    }
+
+    /**
+     * Incrementally tracks brace depth over streamed text, ignoring braces inside JSON strings,
+     * and reports when the first top-level object has been closed.
+     */
+    static final class JsonObjectScanner {
+        private final StringBuilder object = new StringBuilder();
+        private int depth;
+        private boolean started;
+        private boolean inString;
+        private boolean escaped;
+
+        /**
+         * @return true once the first top-level JSON object is complete
+         */
+        boolean feed(String chunk) {
+            for (int i = 0; i < chunk.length(); i++) {
+                char c = chunk.charAt(i);
+                if (!started) {
+                    if (c != '{') {
+                        continue;
+                    }
+                    started = true;
+                }
+                object.append(c);
+                if (inString) {
+                    if (escaped) {
+                        escaped = false;
+                    } else if (c == '\\') {
+                        escaped = true;
+                    } else if (c == '"') {
+                        inString = false;
+                    }
+                } else if (c == '"') {
+                    inString = true;
+                } else if (c == '{') {
+                    depth++;
+                } else if (c == '}' && --depth == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        String getObject() {
+            return object.toString();
+        }
+    }
+}
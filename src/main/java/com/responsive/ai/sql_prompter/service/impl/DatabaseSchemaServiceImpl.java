@@ -1,101 +1,243 @@
 package com.responsive.ai.sql_prompter.service.impl;
 
+import com.responsive.ai.sql_prompter.config.QueryTarget;
+import com.responsive.ai.sql_prompter.config.QueryTargets;
+import com.responsive.ai.sql_prompter.config.ReadRouting;
+import com.responsive.ai.sql_prompter.model.SchemaSnapshot;
 import com.responsive.ai.sql_prompter.service.DatabaseSchemaService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.bson.Document;
 import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Implementation of DatabaseSchemaService for MongoDB.
+ * Schema information is served from a snapshot that is rebuilt in the background whenever
+ * collections are created or dropped, or when the refresh interval has elapsed. Every query target
+ * has its own snapshot, built from that target's database.
  */
 @Service
 public class DatabaseSchemaServiceImpl implements DatabaseSchemaService {
+    private static final Logger log = LoggerFactory.getLogger(DatabaseSchemaServiceImpl.class);
+    private static final int SNAPSHOT_SAMPLE_SIZE = 10;
 
-    private final MongoTemplate mongoTemplate;
+    private final ReadRouting readRouting;
+    private final QueryTargets queryTargets;
+    private final ScheduledExecutorService snapshotExecutor;
+    private final ReentrantLock rebuildLock = new ReentrantLock();
+    private final Map<String, SchemaSnapshot> snapshots = new ConcurrentHashMap<>();
+
+    @Value("${schema.snapshot.check-interval-seconds:10}")
+    private long checkIntervalSeconds;
+
+    @Value("${schema.snapshot.refresh-interval-seconds:300}")
+    private long refreshIntervalSeconds;
 
     @Autowired
-    public DatabaseSchemaServiceImpl(MongoTemplate mongoTemplate) {
-        // Create a new MongoTemplate instance with the same settings to prevent exposure of internal representation
-        this.mongoTemplate = new MongoTemplate(
-            mongoTemplate.getMongoDatabaseFactory(),
-            mongoTemplate.getConverter()
-        );
+    public DatabaseSchemaServiceImpl(ReadRouting readRouting, QueryTargets queryTargets) {
+        this.readRouting = Objects.requireNonNull(readRouting);
+        this.queryTargets = Objects.requireNonNull(queryTargets);
+        this.snapshotExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "schema-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PostConstruct
+    public void startSnapshotRefresh() {
+        // Build the first snapshot right away, then only check the (cheap) collection list on each tick
+        snapshotExecutor.scheduleWithFixedDelay(this::refreshIfStale, 0, checkIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stopSnapshotRefresh() {
+        snapshotExecutor.shutdownNow();
     }
 
     @Override
-    public Set<String> getTableList() {
-        return mongoTemplate.getCollectionNames();
+    public Set<String> getTableList(QueryTarget target) {
+        return getSchemaSnapshot(target).getCollectionNames();
     }
 
     @Override
-    public Map<String, Object> getTableSchemaWithSample(String tableName, int sampleSize) {
+    public Map<String, Object> getTableSchemaWithSample(QueryTarget target, String tableName, int sampleSize) {
         Map<String, Object> result = new HashMap<>();
         result.put("tableName", tableName);
-        result.put("schema", getTableSchema(tableName));
-        result.put("samples", getTableSample(tableName, sampleSize));
+        result.put("schema", getTableSchema(target, tableName));
+        result.put("samples", getTableSample(target, tableName, sampleSize));
         return result;
     }
 
     @Override
-    public Map<String, String> getTableSchema(String tableName) {
-        Map<String, String> schema = new HashMap<>();
-        List<Document> samples = mongoTemplate.find(
-            new org.springframework.data.mongodb.core.query.Query()
-                .limit(10), 
-            Document.class, 
-            tableName
-        );
-
-        for (Document doc : samples) {
-            collectFields(doc, "", new HashSet<>())
-                .forEach(field -> {
-                    if (!schema.containsKey(field)) {
-                        Object value = getNestedField(doc, field);
-                        schema.put(field, getMongoType(value));
-                    }
-                });
+    public Map<String, String> getTableSchema(QueryTarget target, String tableName) {
+        Map<String, String> schema = getSchemaSnapshot(target).getCollectionSchema(tableName);
+        if (schema != null) {
+            return schema;
         }
-        
-        return schema;
+        // Collection created after the last snapshot; describe it directly
+        return buildTableSchema(sampleDocuments(target.getMongoTemplate(), tableName, SNAPSHOT_SAMPLE_SIZE));
     }
 
     @Override
-    public List<Map<String, Object>> getTableSample(String tableName, int sampleSize) {
+    public List<Map<String, Object>> getTableSample(QueryTarget target, String tableName, int sampleSize) {
+        SchemaSnapshot current = getSchemaSnapshot(target);
+        List<Document> documents = current.canServeSample(tableName, sampleSize)
+            ? current.getSamples(tableName)
+            : sampleDocuments(target.getMongoTemplate(), tableName, sampleSize);
+        
         List<Map<String, Object>> samples = new ArrayList<>();
-        mongoTemplate.find(
-            new org.springframework.data.mongodb.core.query.Query()
-                .limit(sampleSize),
-            Document.class,
-            tableName
-        ).forEach(doc -> samples.add(doc.entrySet().stream()
-            .collect(HashMap::new, (m, v) -> m.put(v.getKey(), v.getValue()), HashMap::putAll)));
+        documents.stream()
+            .limit(sampleSize)
+            .forEach(doc -> samples.add(doc.entrySet().stream()
+                .collect(HashMap::new, (m, v) -> m.put(v.getKey(), v.getValue()), HashMap::putAll)));
         return samples;
     }
 
     @Override
-    public String getSchemaAsString(String schemaName) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("Schema: ").append(schemaName).append("\n");
-        sb.append("Tables:\n");
+    public String getSchemaAsString(QueryTarget target, String schemaName) {
+        return formatSchema(schemaName, getSchemaSnapshot(target).getTablesText());
+    }
+
+    @Override
+    public String getSchemaDescription(QueryTarget target) {
+        return getSchemaSnapshot(target).getDescription();
+    }
+
+    @Override
+    public SchemaSnapshot getSchemaSnapshot(QueryTarget target) {
+        SchemaSnapshot current = snapshots.get(target.getName());
+        if (current != null) {
+            return current;
+        }
+        // Only reached before the first background build of the target has completed
+        rebuildLock.lock();
+        try {
+            return snapshots.computeIfAbsent(target.getName(), name -> buildSnapshot(target));
+        } finally {
+            rebuildLock.unlock();
+        }
+    }
+
+    @Override
+    public void refreshSchemaSnapshot(QueryTarget target) {
+        snapshotExecutor.execute(() -> rebuildSnapshot(target));
+    }
+
+    /**
+     * Rebuilds the snapshot of each target whose set of collections changed or whose refresh interval elapsed.
+     */
+    private void refreshIfStale() {
+        for (QueryTarget target : queryTargets.all()) {
+            try {
+                SchemaSnapshot current = snapshots.get(target.getName());
+                if (current == null
+                        || !current.getCollectionNames().equals(target.getMongoTemplate().getCollectionNames())
+                        || Duration.between(current.getBuiltAt(), Instant.now()).getSeconds() >= refreshIntervalSeconds) {
+                    rebuildSnapshot(target);
+                }
+            } catch (Exception e) {
+                // Keep serving the previous snapshot and retry on the next tick
+                log.warn("Schema snapshot check failed for target {}: {}", target.getName(), e.getMessage());
+            }
+        }
+    }
+
+    private void rebuildSnapshot(QueryTarget target) {
+        rebuildLock.lock();
+        try {
+            snapshots.put(target.getName(), buildSnapshot(target));
+        } catch (Exception e) {
+            log.warn("Schema snapshot rebuild failed for target {}: {}", target.getName(), e.getMessage());
+        } finally {
+            rebuildLock.unlock();
+        }
+    }
+
+    private SchemaSnapshot buildSnapshot(QueryTarget target) {
+        MongoTemplate mongoTemplate = target.getMongoTemplate();
+        long start = System.currentTimeMillis();
+        Map<String, Map<String, String>> schemas = new LinkedHashMap<>();
+        Map<String, List<Document>> samples = new HashMap<>();
         
-        for (String table : getTableList()) {
-            sb.append("- ").append(table).append("\n");
-            Map<String, String> schema = getTableSchema(table);
-            for (Map.Entry<String, String> entry : schema.entrySet()) {
+        for (String table : new TreeSet<>(mongoTemplate.getCollectionNames())) {
+            List<Document> documents = sampleDocuments(mongoTemplate, table, SNAPSHOT_SAMPLE_SIZE);
+            samples.put(table, Collections.unmodifiableList(documents));
+            schemas.put(table, Collections.unmodifiableMap(buildTableSchema(documents)));
+        }
+        
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Map<String, String>> table : schemas.entrySet()) {
+            sb.append("- ").append(table.getKey()).append("\n");
+            for (Map.Entry<String, String> entry : table.getValue().entrySet()) {
                 sb.append("  - ").append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
             }
         }
+        String tablesText = sb.toString();
+        String description = formatSchema("default", tablesText);
         
-        return sb.toString();
+        StringBuilder versionSource = new StringBuilder(description);
+        samples.forEach((table, docs) -> docs.forEach(doc -> versionSource.append(table).append(doc.toJson())));
+        
+        SchemaSnapshot built = new SchemaSnapshot(
+            schemas,
+            samples,
+            SNAPSHOT_SAMPLE_SIZE,
+            tablesText,
+            description,
+            DigestUtils.md5DigestAsHex(description.getBytes(StandardCharsets.UTF_8)),
+            DigestUtils.md5DigestAsHex(versionSource.toString().getBytes(StandardCharsets.UTF_8)),
+            Instant.now()
+        );
+        log.debug("Schema snapshot with {} collections built in {} ms",
+            schemas.size(), System.currentTimeMillis() - start);
+        return built;
     }
 
-    @Override
-    public String getSchemaDescription() {
-        return getSchemaAsString("default");
+    private List<Document> sampleDocuments(MongoTemplate mongoTemplate, String tableName, int sampleSize) {
+        // Sampling reads go to the analytics member when there is one, away from the query workload
+        return mongoTemplate.find(
+            new org.springframework.data.mongodb.core.query.Query()
+                .limit(sampleSize)
+                .withReadPreference(readRouting.forSchemaSampling()),
+            Document.class,
+            tableName
+        );
+    }
+
+    private Map<String, String> buildTableSchema(List<Document> samples) {
+        Map<String, String> schema = new HashMap<>();
+        for (Document doc : samples) {
+            collectFields(doc, "", new HashSet<>())
+                .forEach(field -> {
+                    if (!schema.containsKey(field)) {
+                        Object value = getNestedField(doc, field);
+                        schema.put(field, getMongoType(value));
+                    }
+                });
+        }
+        return schema;
+    }
+
+    private String formatSchema(String schemaName, String tablesText) {
+        return "Schema: " + schemaName + "\n" + "Tables:\n" + tablesText;
     }
 
     // Helper methods
@@ -1,28 +1,40 @@
 package com.responsive.ai.sql_prompter.service.impl;
 
+import com.responsive.ai.sql_prompter.concurrent.Deadline;
+import com.responsive.ai.sql_prompter.config.QueryTargets;
+import com.responsive.ai.sql_prompter.exception.DeadlineExceededException;
 import com.responsive.ai.sql_prompter.exception.InvalidQueryException;
+import com.responsive.ai.sql_prompter.model.MongoQuery;
+import com.responsive.ai.sql_prompter.service.QueryEngine;
 import com.responsive.ai.sql_prompter.service.QueryExecutionService;
 import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.query.BasicQuery;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
 import java.util.Map;
 
 /**
- * Implementation of QueryExecutionService for executing direct MongoDB queries.
+ * Implementation of QueryExecutionService for executing direct MongoDB queries on the default query target.
  */
 @Service
 public class QueryExecutionServiceImpl implements QueryExecutionService {
     private static final Logger log = LoggerFactory.getLogger(QueryExecutionServiceImpl.class);
     
     private final MongoTemplate mongoTemplate;
+    private final QueryEngine queryEngine;
+    private final QueryTargets queryTargets;
+    
+    @Value("${query.deadline-ms:25000}")
+    private long defaultDeadlineMs;
 
-    public QueryExecutionServiceImpl(MongoTemplate mongoTemplate) {
+    public QueryExecutionServiceImpl(MongoTemplate mongoTemplate, QueryEngine queryEngine, QueryTargets queryTargets) {
         this.mongoTemplate = mongoTemplate;
+        this.queryEngine = queryEngine;
+        this.queryTargets = queryTargets;
     }
 
     @Override
@@ -31,25 +43,20 @@ public class QueryExecutionServiceImpl implements QueryExecutionService {
             // Parse the query to validate it's valid JSON
             Document queryDoc = Document.parse(jsonQuery);
             
-            // Extract collection name if present
+            // Extract collection name if present; without one the default collection for documents is queried
             String collectionName = queryDoc.getString("collection");
             queryDoc.remove("collection");
+            if (collectionName == null) {
+                collectionName = mongoTemplate.getCollectionName(Document.class);
+            }
             
-            // Create the query directly from the document
-            BasicQuery query = new BasicQuery(queryDoc);
-            
-            // Execute the query
-            List<Document> documents = collectionName != null ?
-                mongoTemplate.find(query, Document.class, collectionName) :
-                mongoTemplate.find(query, Document.class);
-            
-            // Convert List<Document> to List<Map<String, Object>>
-            return documents.stream()
-                .map(Document::toJson)
-                .map(Document::parse)
-                .map(doc -> (Map<String, Object>) doc)
-                .toList();
+            // Execute the query directly from the document; every match is returned, as before the engine existed
+            MongoQuery query = new MongoQuery(collectionName, queryDoc, new Document(), 0);
+            return queryEngine.executeDirect(queryTargets.getDefault(), query, Deadline.afterMillis(defaultDeadlineMs))
+                    .getRows();
             
+        } catch (DeadlineExceededException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Error executing query: {}", e.getMessage(), e);
             throw new InvalidQueryException("Invalid query: " + e.getMessage(), e);
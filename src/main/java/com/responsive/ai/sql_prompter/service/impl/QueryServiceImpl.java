@@ -1,60 +1,105 @@
 package com.responsive.ai.sql_prompter.service.impl;
 
 import com.mongodb.MongoException;
+import com.responsive.ai.sql_prompter.concurrent.Deadline;
+import com.responsive.ai.sql_prompter.config.QueryTarget;
+import com.responsive.ai.sql_prompter.config.QueryTargets;
+import com.responsive.ai.sql_prompter.exception.DeadlineExceededException;
 import com.responsive.ai.sql_prompter.exception.InvalidQueryException;
+import com.responsive.ai.sql_prompter.model.CompactResultSet;
+import com.responsive.ai.sql_prompter.model.ContinuationToken;
+import com.responsive.ai.sql_prompter.model.MongoQuery;
 import com.responsive.ai.sql_prompter.model.QueryRequest;
 import com.responsive.ai.sql_prompter.model.QueryResponse;
 import com.responsive.ai.sql_prompter.service.AiQueryService;
+import com.responsive.ai.sql_prompter.service.QueryCostGuard;
+import com.responsive.ai.sql_prompter.service.QueryEngine;
+import com.responsive.ai.sql_prompter.service.QueryOperatorValidator;
 import com.responsive.ai.sql_prompter.service.QueryService;
+import com.responsive.ai.sql_prompter.service.SortIndexInspector;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.bson.Document;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriter;
+import org.bson.json.JsonWriterSettings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StopWatch;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.stream.Stream;
 
 /**
- * Service implementation for executing database queries with optional AI processing.
- * This service ensures thread safety by creating defensive copies of mutable objects
- * and properly managing service dependencies.
- */
-
-/**
- * Thread-safe implementation of QueryService that executes database queries with AI processing.
- * This implementation creates defensive copies of all mutable objects to ensure thread safety.
+ * Thread-safe implementation of QueryService that executes database queries with optional AI processing.
+ * Validation and paging happen here; every query is executed through the shared {@link QueryEngine}.
  */
 @Service
 public final class QueryServiceImpl implements QueryService {
-    private final MongoTemplate mongoTemplate;
+    private final QueryEngine queryEngine;
     private final AiQueryService aiQueryService;
+    private final SortIndexInspector sortIndexInspector;
+    private final QueryTargets queryTargets;
     private static final Logger log = LoggerFactory.getLogger(QueryServiceImpl.class);
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    
+    @Value("${query.deadline-ms:25000}")
+    private long defaultDeadlineMs;
+    @Value("${query.stream.deadline-ms:1800000}")
+    private long streamDeadlineMs;
+    @Value("${query.paging.token-secret:}")
+    private String tokenSecret = "";
+    /** Signs continuation tokens when no secret is configured; such tokens only work on this instance until restart */
+    private final byte[] instanceTokenKey = randomTokenKey();
+    private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec();
+    private static final JsonWriterSettings NDJSON_SETTINGS = JsonWriterSettings.builder()
+            .outputMode(JsonMode.RELAXED)
+            .build();
     
     /**
      * Constructs a QueryServiceImpl with the required dependencies.
      * 
-     * @param mongoTemplate The MongoTemplate instance to use for database operations
-     * @param aiQueryService The AiQueryService for AI-based query processing
-     */
-    /**
-     * Constructs a QueryServiceImpl with the required dependencies.
-     * 
-     * @param mongoTemplate The MongoTemplate instance to use for database operations
+     * @param queryEngine Executes every query, with plan checks and result caching
      * @param aiQueryService The AiQueryService for AI-based query processing
+     * @param sortIndexInspector Reports whether an index supports a generated query's sort
+     * @param queryTargets Resolves the database a request names
      */
-    public QueryServiceImpl(MongoTemplate mongoTemplate, AiQueryService aiQueryService) {
-        // Create defensive copies of mutable objects
-        this.mongoTemplate = new MongoTemplate(Objects.requireNonNull(mongoTemplate.getMongoDatabaseFactory()));
+    public QueryServiceImpl(QueryEngine queryEngine, AiQueryService aiQueryService,
+                            SortIndexInspector sortIndexInspector, QueryTargets queryTargets) {
+        this.queryEngine = Objects.requireNonNull(queryEngine);
         this.aiQueryService = Objects.requireNonNull(aiQueryService);
+        this.sortIndexInspector = Objects.requireNonNull(sortIndexInspector);
+        this.queryTargets = Objects.requireNonNull(queryTargets);
     }
 
     @Override
     public QueryResponse executeQuery(QueryRequest request) {
+        return executeQuery(request, deadlineFor(request));
+    }
+
+    @Override
+    public Deadline deadlineFor(QueryRequest request) {
+        return Deadline.afterMillis(request.getDeadlineMs() != null ? request.getDeadlineMs() : defaultDeadlineMs);
+    }
+
+    @Override
+    public QueryResponse executeQuery(QueryRequest request, Deadline deadline) {
+        // Schema lookup, planning, execution and caching all work on the requested target
+        QueryTarget target = queryTargets.get(request.getTarget());
         StopWatch stopWatch = new StopWatch();
         stopWatch.start();
         
@@ -62,20 +107,28 @@ public final class QueryServiceImpl implements QueryService {
         String query = request.getQuery().trim();
         
         try {
-            // Validate the query
-            validateQuery(query, request.isUseAi());
+            // The budget covers queueing, generation and execution; MongoDB gets what is left as maxTimeMS
+            deadline.check("waiting for a worker");
+            // Validate the query; direct queries are parsed once here and executed from the parsed document
+            Document queryDoc = validateQuery(query, request.isUseAi());
             
             log.debug("Executing {}query: {}", request.isUseAi() ? "AI " : "", query);
             
             List<Map<String, Object>> results;
             
-            if (request.isUseAi()) {
-                // Use AI to process and execute the query
-                results = aiQueryService.processAndExecuteQuery(query);
+            if (request.getPageSize() != null || request.getContinuationToken() != null) {
+                // Keyset-paged execution; follow-up pages reuse the query carried by the token
+                results = executePage(target, request, query, queryDoc, response, deadline);
+                response.setGeneratedQuery(query);
+            } else if (request.isUseAi()) {
+                // Use AI to generate the query, then check its plan and execute it
+                MongoQuery mongoQuery = aiQueryService.generateQuery(target, query, deadline);
+                results = execute(queryEngine.execute(target, mongoQuery, deadline), response);
+                reportSortIndex(target, mongoQuery, response);
                 response.setGeneratedQuery(query);
             } else {
-                // Direct MongoDB query execution
-                results = executeMongoQuery(query);
+                // Direct MongoDB query execution, without the cost guard and row cap unless configured
+                results = execute(queryEngine.executeDirect(target, toMongoQuery(queryDoc), deadline), response);
                 response.setGeneratedQuery(query);
             }
             
@@ -83,11 +136,18 @@ public final class QueryServiceImpl implements QueryService {
             response.setData(results);
             response.setMessage("Query executed successfully");
             
+        } catch (DeadlineExceededException e) {
+            log.warn("Query stopped: {}", e.getMessage());
+            throw e;
+            
         } catch (InvalidQueryException e) {
             log.warn("Invalid query: {}", e.getMessage());
             throw e; // Re-throw validation exceptions
             
         } catch (MongoException e) {
+            if (DeadlineExceededException.isTimeout(e)) {
+                throw deadline.exceeded("query execution", e);
+            }
             String errorMsg = "MongoDB error: " + e.getMessage();
             log.error("Database error executing query: {}", errorMsg);
             throw new InvalidQueryException(errorMsg, e);
@@ -105,49 +165,212 @@ public final class QueryServiceImpl implements QueryService {
         return response;
     }
     
-    private List<Map<String, Object>> executeMongoQuery(String query) {
-        try {
-            // Parse the query as a MongoDB query document
-            Document queryDoc = Document.parse(query);
-            
-            // Extract collection name from the query
-            String collectionName = queryDoc.getString("collection");
-            if (collectionName == null) {
-                throw new InvalidQueryException("Collection name must be specified in the query");
+    /**
+     * Records the cost decision and cache use of an engine result on the response.
+     * @return the result's rows
+     */
+    private List<Map<String, Object>> execute(QueryEngine.Result result, QueryResponse response) {
+        response.setCostDecision(result.getCostDecision());
+        response.setFromCache(result.isFromCache());
+        return result.getRows();
+    }
+    
+    /**
+     * Records on the response whether an index supports the query's sort; unsorted queries report nothing.
+     */
+    private void reportSortIndex(QueryTarget target, MongoQuery mongoQuery, QueryResponse response) {
+        if (mongoQuery.getSort().isEmpty()) {
+            return;
+        }
+        String index = sortIndexInspector.findSortIndex(target, mongoQuery);
+        response.setSortIndexed(index != null);
+        response.setSortIndex(index);
+    }
+    
+    /**
+     * Executes one page of a query, ordered by its sort and then _id, and sets the continuation token for the next page.
+     * Direct queries are rebuilt from the (re-validated) request; AI queries are taken from the token
+     * and re-checked, so the model is only called for the first page. The cost guard runs on the first page.
+     */
+    private CompactResultSet executePage(QueryTarget target, QueryRequest request, String query, Document queryDoc,
+                                         QueryResponse response, Deadline deadline) {
+        ContinuationToken token;
+        // Tokens are only valid on the target they were issued for
+        String requestKey = target.getName() + "\n" + query;
+        if (request.getContinuationToken() != null) {
+            token = ContinuationToken.decode(request.getContinuationToken(), tokenKey());
+            if (!token.belongsTo(requestKey, request.isUseAi())) {
+                throw new InvalidQueryException("Continuation token does not belong to this query");
             }
-            
-            // Remove collection name from the query document
-            queryDoc.remove("collection");
-            
-            // Create the query directly from the document
-            BasicQuery basicQuery = new BasicQuery(queryDoc);
-            
-            // Execute the query
-            return mongoTemplate.find(
-                basicQuery,
-                Document.class,
-                collectionName
-            ).stream()
-             .map(Document::toJson)
-             .map(Document::parse)
-             .map(doc -> (Map<String, Object>) doc)
-             .toList();
-        } catch (Exception e) {
-            log.error("Error executing MongoDB query: {}", e.getMessage(), e);
-            throw new InvalidQueryException("Error executing MongoDB query: " + e.getMessage(), e);
+            if (request.isUseAi()) {
+                QueryOperatorValidator.checkOperators(token.getQuery().getFilter());
+                QueryOperatorValidator.checkOperators(token.getQuery().getProjection());
+            } else {
+                // Keeps a limit the cost guard set on the first page
+                token = token.withQuery(toMongoQuery(queryDoc).withLimit(token.getQuery().getLimit()));
+            }
+        } else {
+            MongoQuery mongoQuery = request.isUseAi()
+                    ? aiQueryService.generateQuery(target, query, deadline)
+                    : toMongoQuery(queryDoc);
+            if (request.isUseAi() || queryEngine.isGuardingDirectQueries()) {
+                // Same plan check as unpaged execution; a lowered limit is carried by the token to later pages
+                QueryCostGuard.Assessment assessment = queryEngine.assess(target, mongoQuery, deadline);
+                mongoQuery = assessment.getQuery();
+                response.setCostDecision(assessment.getDecision());
+            }
+            token = ContinuationToken.first(mongoQuery, requestKey, request.isUseAi());
         }
+        
+        MongoQuery mongoQuery = token.getQuery();
+        if (mongoQuery.isAggregation() || !mongoQuery.getJoins().isEmpty()) {
+            throw new InvalidQueryException("Paging is not supported for aggregation or join queries");
+        }
+        Document keysetSort = token.keysetSort();
+        Document projection = keysetProjection(mongoQuery.getProjection(), keysetSort);
+        
+        int pageSize = request.getPageSize() != null ? request.getPageSize() : DEFAULT_PAGE_SIZE;
+        int pageRows = Math.min(pageSize, token.getRemaining());
+        
+        // Fetch one extra row to learn whether another page exists
+        MongoQuery pageQuery = new MongoQuery(mongoQuery.getCollection(), token.pageFilter(), projection, keysetSort,
+                token.isFirstPage() ? mongoQuery.getSkip() : 0, pageRows + 1)
+                .withCollation(mongoQuery.getCollation());
+        if (token.isFirstPage()) {
+            reportSortIndex(target, mongoQuery, response);
+        }
+        // The limit bounds the list; raw documents are kept for the keyset of the last row
+        List<Document> documents = queryEngine.read(target, pageQuery, deadline, Stream::toList);
+        
+        int count = Math.min(documents.size(), pageRows);
+        CompactResultSet.Builder results = CompactResultSet.builder();
+        documents.subList(0, count).forEach(results::add);
+        
+        if (documents.size() > pageRows && count > 0 && token.getRemaining() > count) {
+            response.setContinuationToken(token.next(documents.get(count - 1), count).encode(tokenKey()));
+        }
+        return results.build();
+    }
+    
+    private byte[] tokenKey() {
+        return tokenSecret.isEmpty() ? instanceTokenKey : tokenSecret.getBytes(StandardCharsets.UTF_8);
+    }
+    
+    private static byte[] randomTokenKey() {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+    
+    /**
+     * Makes sure every page row carries its keyset fields: they are added to inclusion projections,
+     * and a projection that excludes or narrows one of them is rejected.
+     */
+    private static Document keysetProjection(Document projection, Document keysetSort) {
+        boolean inclusion = projection.entrySet().stream()
+                .anyMatch(e -> !"_id".equals(e.getKey()) && isIncluded(e.getValue()));
+        Document result = new Document(projection);
+        for (String field : keysetSort.keySet()) {
+            boolean covered = "_id".equals(field) && !projection.containsKey("_id");
+            for (Map.Entry<String, Object> entry : projection.entrySet()) {
+                String projected = entry.getKey();
+                if (field.equals(projected) || field.startsWith(projected + ".")) {
+                    if (!isIncluded(entry.getValue())) {
+                        throw new InvalidQueryException("Paged queries must include the sort field '" + field + "' in the projection");
+                    }
+                    covered = true;
+                } else if (projected.startsWith(field + ".")) {
+                    throw new InvalidQueryException("Paged queries must include the whole sort field '" + field + "' in the projection");
+                }
+            }
+            if (!covered && inclusion) {
+                result.append(field, 1);
+            }
+        }
+        return result;
+    }
+    
+    private static boolean isIncluded(Object projectionValue) {
+        if (projectionValue instanceof Number) {
+            return ((Number) projectionValue).doubleValue() != 0;
+        }
+        return !Boolean.FALSE.equals(projectionValue);
+    }
+    
+    /**
+     * Wraps a parsed direct query; direct queries have no projection and no limit.
+     */
+    private MongoQuery toMongoQuery(Document queryDoc) {
+        String collectionName = queryDoc.getString("collection");
+        if (collectionName == null) {
+            throw new InvalidQueryException("Collection name must be specified in the query");
+        }
+        Document filter = new Document(queryDoc);
+        filter.remove("collection");
+        return new MongoQuery(collectionName, filter, new Document(), 0);
+    }
+    
+    @Override
+    public Document parseDirectQuery(String query) {
+        return validateQuery(query == null ? null : query.trim(), false);
     }
     
-    private void validateQuery(String query, boolean isAiQuery) {
+    @Override
+    public long streamDirectQuery(String target, Document queryDoc, OutputStream out) throws IOException {
+        QueryTarget queryTarget = queryTargets.get(target);
+        String collectionName = queryDoc.getString("collection");
+        if (collectionName == null) {
+            throw new InvalidQueryException("Collection name must be specified in the query");
+        }
+        queryDoc.remove("collection");
+        
+        // Exports get their own, much longer budget: once the first line is written the status is
+        // committed, and a timeout could only cut the response short
+        MongoQuery mongoQuery = new MongoQuery(collectionName, queryDoc, new Document(), 0);
+        Deadline deadline = Deadline.afterMillis(streamDeadlineMs);
+        
+        // Encode straight from the cursor to the response; only the current batch is held in memory
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        EncoderContext encoderContext = EncoderContext.builder().build();
+        long count;
+        try {
+            count = queryEngine.read(queryTarget, mongoQuery, deadline, documents -> {
+                long written = 0;
+                try {
+                    Iterator<Document> iterator = documents.iterator();
+                    while (iterator.hasNext()) {
+                        DOCUMENT_CODEC.encode(new JsonWriter(writer, NDJSON_SETTINGS), iterator.next(), encoderContext);
+                        writer.write('\n');
+                        written++;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return written;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.flush();
+        log.debug("Streamed {} documents from collection {}", count, collectionName);
+        return count;
+    }
+    
+    /**
+     * Validates the query and, for direct queries, returns the parsed query document.
+     * @return The parsed document for direct queries, null for AI queries
+     */
+    private Document validateQuery(String query, boolean isAiQuery) {
         if (query == null || query.trim().isEmpty()) {
             throw new InvalidQueryException("Query cannot be empty");
         }
         
+        Document queryDoc = null;
         // For non-AI queries, validate MongoDB query format
         if (!isAiQuery) {
             try {
                 // Try to parse the query as a JSON document
-                Document.parse(query);
+                queryDoc = Document.parse(query);
             } catch (Exception e) {
                 throw new InvalidQueryException("Invalid MongoDB query format: " + e.getMessage());
             }
@@ -165,5 +388,6 @@ public final class QueryServiceImpl implements QueryService {
             
             // Prevent potentially dangerous operations
         }
+        return queryDoc;
     }
 }
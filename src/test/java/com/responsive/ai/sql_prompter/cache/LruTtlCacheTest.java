@@ -0,0 +1,130 @@
+package com.responsive.ai.sql_prompter.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Eviction order, expiry and meters of the LRU/TTL cache.
+ */
+class LruTtlCacheTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private double meter(String name, String result) {
+        return result == null
+                ? registry.get(name).tag("cache", "test").functionCounter().count()
+                : registry.get(name).tag("cache", "test").tag("result", result).functionCounter().count();
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedEntry() {
+        LruTtlCache<String, Integer> cache = new LruTtlCache<String, Integer>("test", 2, Duration.ZERO).bindTo(registry);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        // Reading "a" makes "b" the least recently used entry
+        assertThat(cache.get("a")).isEqualTo(1);
+
+        cache.put("c", 3);
+
+        assertThat(cache.get("b")).isNull();
+        assertThat(cache.get("a")).isEqualTo(1);
+        assertThat(cache.get("c")).isEqualTo(3);
+        assertThat(cache.getEvictionCount()).isEqualTo(1);
+    }
+
+    @Test
+    void replacingAnEntryEvictsNothing() {
+        LruTtlCache<String, Integer> cache = new LruTtlCache<>("test", 2, Duration.ZERO);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("a", 3);
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.get("a")).isEqualTo(3);
+        assertThat(cache.getEvictionCount()).isZero();
+    }
+
+    @Test
+    void expiresEntriesAfterTheirTimeToLive() throws Exception {
+        LruTtlCache<String, Integer> cache = new LruTtlCache<>("test", 10, Duration.ofMillis(50));
+        cache.put("a", 1);
+        assertThat(cache.get("a")).isEqualTo(1);
+
+        Thread.sleep(80);
+
+        assertThat(cache.get("a")).isNull();
+        assertThat(cache.size()).isZero();
+        assertThat(cache.getEvictionCount()).isEqualTo(1);
+    }
+
+    @Test
+    void purgesExpiredEntriesWithoutReadingThem() throws Exception {
+        LruTtlCache<String, Integer> cache = new LruTtlCache<>("test", 10, Duration.ofMillis(50));
+        cache.put("a", 1);
+        cache.put("b", 2);
+        Thread.sleep(80);
+        cache.put("c", 3);
+
+        cache.purgeExpired();
+
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.get("c")).isEqualTo(3);
+        assertThat(cache.getEvictionCount()).isEqualTo(2);
+    }
+
+    @Test
+    void keepsEntriesWithoutATimeToLive() throws Exception {
+        LruTtlCache<String, Integer> cache = new LruTtlCache<>("test", 10, Duration.ZERO);
+        cache.put("a", 1);
+        Thread.sleep(20);
+
+        assertThat(cache.get("a")).isEqualTo(1);
+    }
+
+    @Test
+    void invalidatesOneOrAllEntries() {
+        LruTtlCache<String, Integer> cache = new LruTtlCache<>("test", 10, Duration.ZERO);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("c", 3);
+
+        cache.invalidate("a");
+        assertThat(cache.get("a")).isNull();
+        assertThat(cache.size()).isEqualTo(2);
+
+        cache.invalidateAll();
+        assertThat(cache.size()).isZero();
+        assertThat(cache.get("b")).isNull();
+        // Invalidation is not eviction
+        assertThat(cache.getEvictionCount()).isZero();
+    }
+
+    @Test
+    void reportsHitsMissesEvictionsAndSizeAsMeters() {
+        LruTtlCache<String, Integer> cache = new LruTtlCache<String, Integer>("test", 1, Duration.ZERO).bindTo(registry);
+        cache.put("a", 1);
+        cache.get("a");
+        cache.get("a");
+        cache.get("missing");
+        cache.put("b", 2);
+
+        assertThat(meter("cache.gets", "hit")).isEqualTo(2.0);
+        assertThat(meter("cache.gets", "miss")).isEqualTo(1.0);
+        assertThat(meter("cache.evictions", null)).isEqualTo(1.0);
+        assertThat(registry.get("cache.size").tag("cache", "test").gauge().value()).isEqualTo(1.0);
+    }
+
+    @Test
+    void rejectsNullValuesAndNonPositiveSizes() {
+        LruTtlCache<String, Integer> cache = new LruTtlCache<>("test", 1, Duration.ZERO);
+
+        assertThatThrownBy(() -> cache.put("a", null)).isInstanceOf(NullPointerException.class);
+        assertThatThrownBy(() -> new LruTtlCache<String, Integer>("test", 0, Duration.ZERO))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
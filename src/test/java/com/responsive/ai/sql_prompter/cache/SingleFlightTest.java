@@ -0,0 +1,112 @@
+package com.responsive.ai.sql_prompter.cache;
+
+import com.responsive.ai.sql_prompter.concurrent.Deadline;
+import com.responsive.ai.sql_prompter.exception.DeadlineExceededException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Coalescing of concurrent calls, and what followers do when the leader fails or runs out of time.
+ */
+class SingleFlightTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final SingleFlight<String, String> flight = new SingleFlight<>("test.flight", registry);
+    private final ExecutorService leaderThread = Executors.newSingleThreadExecutor();
+    private final CountDownLatch leaderStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseLeader = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() {
+        releaseLeader.countDown();
+        leaderThread.shutdownNow();
+    }
+
+    /** Starts a leader that blocks until released, then fails with the given exception or returns "leader" */
+    private CompletableFuture<String> startLeader(RuntimeException failure) throws InterruptedException {
+        CompletableFuture<String> leader = CompletableFuture.supplyAsync(() -> flight.execute("key", () -> {
+            leaderStarted.countDown();
+            try {
+                releaseLeader.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return "leader";
+        }, Deadline.afterMillis(5000)), leaderThread);
+        assertThat(leaderStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        return leader;
+    }
+
+    private double calls(String role) {
+        return registry.get("test.flight").tag("role", role).counter().count();
+    }
+
+    @Test
+    void followersShareTheLeadersResult() throws Exception {
+        CompletableFuture<String> leader = startLeader(null);
+        CompletableFuture<String> follower = CompletableFuture.supplyAsync(
+                () -> flight.execute("key", () -> "follower", Deadline.afterMillis(5000)));
+        Thread.sleep(50);
+        releaseLeader.countDown();
+
+        assertThat(follower.get(5, TimeUnit.SECONDS)).isEqualTo("leader");
+        assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo("leader");
+        assertThat(calls("leader")).isEqualTo(1.0);
+        assertThat(calls("coalesced")).isEqualTo(1.0);
+    }
+
+    @Test
+    void followersWithTimeLeftRetryWhenTheLeaderTimesOut() throws Exception {
+        CompletableFuture<String> leader = startLeader(Deadline.afterMillis(1).exceeded("query generation", null));
+        AtomicInteger followerLoads = new AtomicInteger();
+        CompletableFuture<String> follower = CompletableFuture.supplyAsync(() -> flight.execute("key", () -> {
+            followerLoads.incrementAndGet();
+            return "follower";
+        }, Deadline.afterMillis(5000)));
+        Thread.sleep(50);
+        releaseLeader.countDown();
+
+        assertThat(follower.get(5, TimeUnit.SECONDS)).isEqualTo("follower");
+        assertThat(followerLoads).hasValue(1);
+        assertThat(leader).failsWithin(5, TimeUnit.SECONDS);
+        assertThat(calls("leader")).isEqualTo(2.0);
+    }
+
+    @Test
+    void followersShareOtherFailures() throws Exception {
+        startLeader(new IllegalStateException("model unavailable"));
+        CompletableFuture<String> follower = CompletableFuture.supplyAsync(
+                () -> flight.execute("key", () -> "follower", Deadline.afterMillis(5000)));
+        Thread.sleep(50);
+        releaseLeader.countDown();
+
+        assertThatThrownBy(() -> follower.get(5, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("model unavailable");
+        assertThat(calls("leader")).isEqualTo(1.0);
+    }
+
+    @Test
+    void followersStopAtTheirOwnDeadline() throws Exception {
+        startLeader(null);
+
+        assertThatThrownBy(() -> flight.execute("key", () -> "follower", Deadline.afterMillis(50)))
+                .isInstanceOf(DeadlineExceededException.class)
+                .hasMessageContaining("waiting for an identical in-flight call");
+        assertThat(calls("leader")).isEqualTo(1.0);
+    }
+}
@@ -0,0 +1,100 @@
+package com.responsive.ai.sql_prompter.concurrent;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * How many slow tasks each mode holds in flight before it rejects new ones.
+ */
+class BoundedTaskExecutorTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private BoundedTaskExecutor executor;
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private CompletableFuture<String> submitBlocking() {
+        return executor.submit(() -> {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Thread.currentThread().getName();
+        });
+    }
+
+    private double rejected() {
+        return registry.get("ai.executor.rejected").counter().count();
+    }
+
+    @Test
+    void platformPoolHoldsItsThreadsPlusItsQueue() throws Exception {
+        executor = new BoundedTaskExecutor("ai.executor", 2, 3, registry);
+        List<CompletableFuture<String>> inFlight = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            inFlight.add(submitBlocking());
+        }
+
+        assertThatThrownBy(this::submitBlocking)
+                .isInstanceOf(RejectedExecutionException.class)
+                .hasMessageContaining("Server is busy");
+        assertThat(rejected()).isEqualTo(1.0);
+        assertThat(registry.get("ai.executor.queue.depth").gauge().value()).isEqualTo(3.0);
+
+        release.countDown();
+        for (CompletableFuture<String> future : inFlight) {
+            assertThat(future.get(5, TimeUnit.SECONDS)).startsWith("ai.executor-");
+        }
+        assertThat(submitBlocking().get(5, TimeUnit.SECONDS)).startsWith("ai.executor-");
+    }
+
+    @Test
+    void virtualThreadsHoldUpToTheirPermits() throws Exception {
+        assumeTrue(BoundedTaskExecutor.isVirtualThreadsSupported(), "virtual threads need Java 21+");
+        int maxConcurrency = 1000;
+        executor = BoundedTaskExecutor.virtualThreads("ai.executor", maxConcurrency, registry);
+        List<CompletableFuture<String>> inFlight = new ArrayList<>();
+        for (int i = 0; i < maxConcurrency; i++) {
+            inFlight.add(submitBlocking());
+        }
+
+        assertThatThrownBy(this::submitBlocking).isInstanceOf(RejectedExecutionException.class);
+        assertThat(registry.get("ai.executor.active").gauge().value()).isEqualTo(maxConcurrency);
+
+        release.countDown();
+        for (CompletableFuture<String> future : inFlight) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        assertThat(registry.get("ai.executor.active").gauge().value()).isZero();
+    }
+
+    @Test
+    void virtualThreadsAreRefusedOnOlderJdks() {
+        assumeFalse(BoundedTaskExecutor.isVirtualThreadsSupported());
+
+        assertThatThrownBy(() -> BoundedTaskExecutor.virtualThreads("ai.executor", 10, registry))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Java 21");
+    }
+}
@@ -0,0 +1,59 @@
+package com.responsive.ai.sql_prompter.config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Rendering of decoded documents, as the driver returns them, straight to JSON.
+ */
+class BsonJacksonModuleTest {
+
+    private final ObjectMapper mapper = new ObjectMapper().registerModule(new BsonJacksonModule());
+
+    @Test
+    void writesNestedEmployeeDocuments() throws Exception {
+        ObjectId id = new ObjectId("65f0c0ffee0000000000abcd");
+        Document employee = new Document("_id", id)
+                .append("name", "Ada")
+                .append("salary", new Decimal128(new BigDecimal("85000.50")))
+                .append("hiredAt", new Date(0))
+                .append("address", new Document("city", "Pune").append("geo", List.of(18.52, 73.85)))
+                .append("emergencyContacts", List.of(new Document("name", "Bob").append("managerId", id)));
+
+        JsonNode json = mapper.readTree(mapper.writeValueAsString(employee));
+
+        assertThat(json.get("_id").asText()).isEqualTo("65f0c0ffee0000000000abcd");
+        assertThat(json.get("salary").isNumber()).isTrue();
+        assertThat(json.get("salary").decimalValue()).isEqualByComparingTo("85000.50");
+        assertThat(json.get("hiredAt").asLong()).isZero();
+        assertThat(json.get("address").get("city").asText()).isEqualTo("Pune");
+        assertThat(json.get("address").get("geo").get(1).asDouble()).isEqualTo(73.85);
+        assertThat(json.get("emergencyContacts").get(0).get("managerId").asText()).isEqualTo("65f0c0ffee0000000000abcd");
+    }
+
+    @Test
+    void writesOtherBsonTypes() throws Exception {
+        Document document = new Document("nan", Decimal128.NaN)
+                .append("binary", new Binary(new byte[] {1, 2, 3}))
+                .append("ts", new BsonTimestamp(1700000000, 7));
+
+        JsonNode json = mapper.readTree(mapper.writeValueAsString(document));
+
+        assertThat(json.get("nan").asText()).isEqualTo("NaN");
+        assertThat(json.get("binary").asText()).isEqualTo("AQID");
+        assertThat(json.get("ts").get("t").asInt()).isEqualTo(1700000000);
+        assertThat(json.get("ts").get("i").asInt()).isEqualTo(7);
+    }
+}
@@ -0,0 +1,229 @@
+package com.responsive.ai.sql_prompter.controller;
+
+import com.responsive.ai.sql_prompter.concurrent.BoundedTaskExecutor;
+import com.responsive.ai.sql_prompter.concurrent.Deadline;
+import com.responsive.ai.sql_prompter.config.QueryTarget;
+import com.responsive.ai.sql_prompter.config.QueryTargets;
+import com.responsive.ai.sql_prompter.exception.GlobalExceptionHandler;
+import com.responsive.ai.sql_prompter.exception.InvalidQueryException;
+import com.responsive.ai.sql_prompter.model.MongoQuery;
+import com.responsive.ai.sql_prompter.model.QueryRequest;
+import com.responsive.ai.sql_prompter.model.QueryResponse;
+import com.responsive.ai.sql_prompter.service.AiQueryService;
+import com.responsive.ai.sql_prompter.service.QueryCostGuard;
+import com.responsive.ai.sql_prompter.service.QueryEngine;
+import com.responsive.ai.sql_prompter.service.SortIndexInspector;
+import com.responsive.ai.sql_prompter.service.impl.QueryServiceImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * /api/query/nlq on top of the real QueryServiceImpl; the model and MongoDB are replaced by mocks.
+ */
+class NaturalLanguageControllerTest {
+
+    /** Rows of the stand-in collection, ordered by _id */
+    private static final List<Document> USERS = IntStream.rangeClosed(1, 5)
+            .mapToObj(i -> new Document("_id", i).append("name", "user" + i))
+            .toList();
+
+    private AiQueryService aiQueryService;
+    private QueryEngine queryEngine;
+    private QueryTarget other;
+    private BoundedTaskExecutor executor;
+    private NaturalLanguageController controller;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        queryEngine = mock(QueryEngine.class);
+        // Evaluates the keyset filter {_id: {$gt: last}} of follow-up pages over USERS
+        when(queryEngine.read(any(), any(), any(), any())).thenAnswer(invocation -> {
+            MongoQuery page = invocation.getArgument(1);
+            Object after = page.getFilter().get("_id") instanceof Document
+                    ? ((Document) page.getFilter().get("_id")).get("$gt") : null;
+            Stream<Document> rows = USERS.stream()
+                    .filter(row -> after == null || row.getInteger("_id") > (Integer) after)
+                    .limit(page.getLimit());
+            return ((Function<Stream<Document>, Object>) invocation.getArgument(3)).apply(rows);
+        });
+        // The cost guard lets every query through unchanged
+        when(queryEngine.assess(any(), any(), any())).thenAnswer(invocation -> {
+            QueryCostGuard.Assessment assessment = mock(QueryCostGuard.Assessment.class);
+            when(assessment.getQuery()).thenReturn(invocation.getArgument(1));
+            return assessment;
+        });
+        aiQueryService = mock(AiQueryService.class);
+        when(aiQueryService.generateQuery(any(), eq("list users"), any()))
+                .thenReturn(new MongoQuery("users", new Document(), new Document(), 10));
+        other = new QueryTarget("other", "other", mock(MongoTemplate.class), mock(ReactiveMongoTemplate.class), null,
+                List.of());
+        QueryTargets targets = new QueryTargets(List.of(new QueryTarget("default", "test",
+                mock(MongoTemplate.class), mock(ReactiveMongoTemplate.class), null, List.of()), other), "default");
+        QueryServiceImpl queryService = new QueryServiceImpl(queryEngine, aiQueryService,
+                mock(SortIndexInspector.class), targets);
+        ReflectionTestUtils.setField(queryService, "defaultDeadlineMs", 25_000L);
+
+        executor = new BoundedTaskExecutor("ai.executor", 2, 10, new SimpleMeterRegistry());
+        controller = new NaturalLanguageController();
+        ReflectionTestUtils.setField(controller, "queryService", queryService);
+        ReflectionTestUtils.setField(controller, "aiTaskExecutor", executor);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    private QueryResponse post(QueryRequest request) throws Exception {
+        return controller.processNaturalLanguageQuery(request).get(5, TimeUnit.SECONDS).getBody();
+    }
+
+    private static List<Object> ids(QueryResponse response) {
+        return response.getData().stream().map(row -> row.get("_id")).toList();
+    }
+
+    @Test
+    void walksTwoPagesWithTheContinuationToken() throws Exception {
+        QueryRequest first = new QueryRequest();
+        first.setQuery("list users");
+        first.setPageSize(3);
+
+        QueryResponse page1 = post(first);
+
+        assertThat(ids(page1)).containsExactly(1, 2, 3);
+        assertThat(page1.getContinuationToken()).isNotNull();
+
+        QueryRequest second = new QueryRequest();
+        second.setQuery("list users");
+        second.setPageSize(3);
+        second.setContinuationToken(page1.getContinuationToken());
+
+        QueryResponse page2 = post(second);
+
+        assertThat(ids(page2)).containsExactly(4, 5);
+        assertThat(page2.getContinuationToken()).isNull();
+        // Follow-up pages take the query from the token
+        verify(aiQueryService, times(1)).generateQuery(any(), eq("list users"), any());
+    }
+
+    @Test
+    void returnsAllRowsWithoutPaging() throws Exception {
+        QueryEngine.Result result = mock(QueryEngine.Result.class);
+        when(result.getRows()).thenReturn(List.<Map<String, Object>>copyOf(USERS));
+        when(queryEngine.execute(any(), any(), any())).thenReturn(result);
+        QueryRequest request = new QueryRequest();
+        request.setQuery("list users");
+
+        QueryResponse response = post(request);
+
+        assertThat(response.getData()).hasSize(5);
+        assertThat(response.getContinuationToken()).isNull();
+    }
+
+    @Test
+    void runsOnTheRequestedTargetFromTheWorkerThread() throws Exception {
+        QueryEngine.Result result = mock(QueryEngine.Result.class);
+        when(result.getRows()).thenReturn(List.of());
+        when(queryEngine.execute(any(), any(), any())).thenReturn(result);
+        QueryRequest request = new QueryRequest();
+        request.setQuery("list users");
+        request.setTarget("other");
+
+        post(request);
+
+        // The request is handled on the AI worker pool, not on the thread that received it
+        verify(aiQueryService).generateQuery(eq(other), eq("list users"), any());
+        verify(queryEngine).execute(eq(other), any(), any());
+    }
+
+    @Test
+    void pagesStayOnTheTargetTheTokenWasIssuedFor() throws Exception {
+        QueryRequest first = new QueryRequest();
+        first.setQuery("list users");
+        first.setPageSize(3);
+        first.setTarget("other");
+        QueryResponse page1 = post(first);
+
+        QueryRequest second = new QueryRequest();
+        second.setQuery("list users");
+        second.setPageSize(3);
+        second.setContinuationToken(page1.getContinuationToken());
+
+        assertThatThrownBy(() -> post(second))
+                .hasRootCauseInstanceOf(InvalidQueryException.class)
+                .hasRootCauseMessage("Continuation token does not belong to this query");
+        verify(queryEngine, times(1)).read(eq(other), any(), any(), any());
+    }
+
+    @Test
+    void rejectsATamperedTokenWithoutReadingAnything() throws Exception {
+        QueryRequest first = new QueryRequest();
+        first.setQuery("list users");
+        first.setPageSize(3);
+        String token = post(first).getContinuationToken();
+        // Flip one character of the payload, keeping the signature
+        char flipped = token.charAt(5) == 'A' ? 'B' : 'A';
+
+        QueryRequest second = new QueryRequest();
+        second.setQuery("list users");
+        second.setPageSize(3);
+        second.setContinuationToken(token.substring(0, 5) + flipped + token.substring(6));
+
+        assertThatThrownBy(() -> post(second))
+                .hasRootCauseInstanceOf(InvalidQueryException.class)
+                .hasRootCauseMessage("Invalid continuation token");
+        verify(queryEngine, times(1)).read(any(), any(), any(), any());
+    }
+
+    @Test
+    void answersWithGatewayTimeoutWhenTheDeadlineExpires() throws Exception {
+        when(aiQueryService.generateQuery(any(), eq("slow question"), any())).thenAnswer(invocation -> {
+            Thread.sleep(150);
+            invocation.<Deadline>getArgument(2).check("generating the query");
+            return null;
+        });
+        MockMvc mvc = MockMvcBuilders.standaloneSetup(controller)
+                .setControllerAdvice(new GlobalExceptionHandler())
+                .build();
+
+        MvcResult result = mvc.perform(MockMvcRequestBuilders.post("/api/query/nlq")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"query\": \"slow question\", \"deadlineMs\": 100}"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mvc.perform(asyncDispatch(result))
+                .andExpect(status().isGatewayTimeout());
+    }
+}
@@ -0,0 +1,105 @@
+package com.responsive.ai.sql_prompter.controller;
+
+import com.responsive.ai.sql_prompter.concurrent.BoundedTaskExecutor;
+import com.responsive.ai.sql_prompter.concurrent.Deadline;
+import com.responsive.ai.sql_prompter.exception.GlobalExceptionHandler;
+import com.responsive.ai.sql_prompter.exception.InvalidQueryException;
+import com.responsive.ai.sql_prompter.service.QueryService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Status codes of /api/query/ai and /direct when the query service fails, with the service replaced by a mock.
+ */
+class QueryControllerTest {
+
+    private QueryService queryService;
+    private BoundedTaskExecutor executor;
+    private MockMvc mvc;
+
+    @BeforeEach
+    void setUp() {
+        queryService = mock(QueryService.class);
+        executor = new BoundedTaskExecutor("ai.executor", 2, 10, new SimpleMeterRegistry());
+        QueryController controller = new QueryController();
+        ReflectionTestUtils.setField(controller, "queryService", queryService);
+        ReflectionTestUtils.setField(controller, "aiTaskExecutor", executor);
+        controller.init();
+        mvc = MockMvcBuilders.standaloneSetup(controller)
+                .setControllerAdvice(new GlobalExceptionHandler())
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void answersAiQueriesThatRunOutOfTimeWithGatewayTimeout() throws Exception {
+        when(queryService.deadlineFor(any())).thenReturn(Deadline.afterMillis(100));
+        when(queryService.executeQuery(any(), any())).thenAnswer(invocation -> {
+            Thread.sleep(150);
+            invocation.<Deadline>getArgument(1).check("generating the query");
+            return null;
+        });
+
+        MvcResult result = mvc.perform(post("/api/query/ai")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"query\": \"list users\", \"deadlineMs\": 100}"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mvc.perform(asyncDispatch(result))
+                .andExpect(status().isGatewayTimeout());
+    }
+
+    @Test
+    void answersDirectQueriesOnASaturatedPoolWithServiceUnavailable() throws Exception {
+        when(queryService.executeQuery(any())).thenThrow(new RejectedExecutionException("Server is busy"));
+
+        mvc.perform(post("/api/query/direct")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"query\": \"{\\\"collection\\\": \\\"users\\\"}\"}"))
+                .andExpect(status().isServiceUnavailable());
+    }
+
+    @Test
+    void keepsTheMessageOfInvalidDirectQueries() throws Exception {
+        when(queryService.executeQuery(any())).thenThrow(new InvalidQueryException("Unknown query target: missing"));
+
+        mvc.perform(post("/api/query/direct")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"query\": \"{\\\"collection\\\": \\\"users\\\"}\"}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Unknown query target: missing"));
+    }
+
+    @Test
+    void forbidsDirectQueriesThatViolateTheSecurityRules() throws Exception {
+        when(queryService.executeQuery(any())).thenThrow(new SecurityException("Operator $where is not allowed"));
+
+        mvc.perform(post("/api/query/direct")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"query\": \"{\\\"collection\\\": \\\"users\\\"}\"}"))
+                .andExpect(status().isForbidden());
+    }
+}
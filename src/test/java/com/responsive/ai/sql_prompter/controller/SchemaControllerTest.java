@@ -0,0 +1,100 @@
+package com.responsive.ai.sql_prompter.controller;
+
+import com.responsive.ai.sql_prompter.config.QueryTarget;
+import com.responsive.ai.sql_prompter.config.QueryTargets;
+import com.responsive.ai.sql_prompter.exception.GlobalExceptionHandler;
+import com.responsive.ai.sql_prompter.model.SchemaSnapshot;
+import com.responsive.ai.sql_prompter.service.DatabaseSchemaService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Which target's snapshot the schema endpoints describe and tag, with the schema service replaced by a mock.
+ */
+class SchemaControllerTest {
+
+    private DatabaseSchemaService schemaService;
+    private QueryTarget other;
+    private MockMvc mvc;
+
+    @BeforeEach
+    void setUp() {
+        QueryTarget target = target("default");
+        other = target("other");
+        schemaService = mock(DatabaseSchemaService.class);
+        when(schemaService.getSchemaSnapshot(target)).thenReturn(snapshot("users", "v-default"));
+        when(schemaService.getSchemaSnapshot(other)).thenReturn(snapshot("customers", "v-other"));
+
+        SchemaController controller = new SchemaController();
+        ReflectionTestUtils.setField(controller, "schemaService", schemaService);
+        ReflectionTestUtils.setField(controller, "queryTargets", new QueryTargets(List.of(target, other), "default"));
+        mvc = MockMvcBuilders.standaloneSetup(controller)
+                .setControllerAdvice(new GlobalExceptionHandler())
+                .build();
+    }
+
+    private static QueryTarget target(String name) {
+        return new QueryTarget(name, name, mock(MongoTemplate.class), mock(ReactiveMongoTemplate.class), null, List.of());
+    }
+
+    private static SchemaSnapshot snapshot(String collection, String version) {
+        return new SchemaSnapshot(Map.of(collection, Map.of("name", "string")), Map.of(), 10,
+                "- " + collection + "\n", "Tables:\n- " + collection + "\n", "fp-" + version, version, Instant.now());
+    }
+
+    @Test
+    void describesTheDefaultTargetWithoutATargetParameter() throws Exception {
+        mvc.perform(get("/api/schema/tables"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("[\"users\"]"))
+                .andExpect(header().string("ETag", "\"v-default\""));
+    }
+
+    @Test
+    void describesAndTagsTheRequestedTarget() throws Exception {
+        mvc.perform(get("/api/schema").param("target", "other"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("Tables:\n- customers\n"))
+                .andExpect(header().string("ETag", "\"v-other\""));
+
+        mvc.perform(get("/api/schema/tables/customers").param("target", "other"))
+                .andExpect(status().isOk());
+        verify(schemaService).getTableSchema(other, "customers");
+    }
+
+    @Test
+    void validatesTheEtagAgainstTheRequestedTarget() throws Exception {
+        mvc.perform(get("/api/schema/tables").param("target", "other").header("If-None-Match", "\"v-other\""))
+                .andExpect(status().isNotModified());
+        // The default target's version says nothing about the other target's schema
+        mvc.perform(get("/api/schema/tables").param("target", "other").header("If-None-Match", "\"v-default\""))
+                .andExpect(status().isOk())
+                .andExpect(content().json("[\"customers\"]"));
+    }
+
+    @Test
+    void rejectsUnknownTargets() throws Exception {
+        mvc.perform(get("/api/schema/tables").param("target", "missing"))
+                .andExpect(status().isBadRequest());
+        verify(schemaService, never()).getSchemaSnapshot(any());
+    }
+}
@@ -0,0 +1,85 @@
+package com.responsive.ai.sql_prompter.model;
+
+import com.responsive.ai.sql_prompter.exception.InvalidQueryException;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Encoding, signing and validation of continuation tokens.
+ */
+class ContinuationTokenTest {
+
+    private static final byte[] KEY = "test-secret".getBytes(StandardCharsets.UTF_8);
+    private static final MongoQuery QUERY = new MongoQuery("users", new Document("age", new Document("$gt", 30)),
+            new Document(), 50);
+
+    private static String secondPage() {
+        return ContinuationToken.first(QUERY, "default\nlist users", true)
+                .next(new Document("_id", 7).append("name", "g"), 10)
+                .encode(KEY);
+    }
+
+    /** Replaces the payload of a token and keeps its signature */
+    private static String withPayload(String encoded, Document payload) {
+        String signature = encoded.substring(encoded.lastIndexOf('.'));
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(payload.toJson().getBytes(StandardCharsets.UTF_8)) + signature;
+    }
+
+    private static Document payloadOf(String encoded) {
+        return Document.parse(new String(Base64.getUrlDecoder().decode(encoded.substring(0, encoded.lastIndexOf('.'))),
+                StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void decodesTheQueryAndPositionItEncoded() {
+        ContinuationToken token = ContinuationToken.decode(secondPage(), KEY);
+
+        assertThat(token.getQuery().getCollection()).isEqualTo("users");
+        assertThat(token.getQuery().getFilter()).isEqualTo(QUERY.getFilter());
+        assertThat(token.isFirstPage()).isFalse();
+        assertThat(token.getRemaining()).isEqualTo(40);
+        assertThat(token.belongsTo("default\nlist users", true)).isTrue();
+        assertThat(token.belongsTo("default\nlist users", false)).isFalse();
+    }
+
+    @Test
+    void rejectsATokenWhoseCollectionWasChanged() {
+        String encoded = secondPage();
+        Document payload = payloadOf(encoded).append("c", "secrets");
+
+        assertThatThrownBy(() -> ContinuationToken.decode(withPayload(encoded, payload), KEY))
+                .isInstanceOf(InvalidQueryException.class)
+                .hasMessage("Invalid continuation token");
+    }
+
+    @Test
+    void rejectsATokenWhosePositionOrFilterWasChanged() {
+        String encoded = secondPage();
+
+        assertThatThrownBy(() -> ContinuationToken.decode(
+                withPayload(encoded, payloadOf(encoded).append("n", 0)), KEY))
+                .isInstanceOf(InvalidQueryException.class);
+        assertThatThrownBy(() -> ContinuationToken.decode(
+                withPayload(encoded, payloadOf(encoded).append("f", new Document())), KEY))
+                .isInstanceOf(InvalidQueryException.class);
+    }
+
+    @Test
+    void rejectsTokensSignedWithAnotherKeyOrUnsigned() {
+        String encoded = secondPage();
+
+        assertThatThrownBy(() -> ContinuationToken.decode(encoded, "other-secret".getBytes(StandardCharsets.UTF_8)))
+                .isInstanceOf(InvalidQueryException.class);
+        assertThatThrownBy(() -> ContinuationToken.decode(encoded.substring(0, encoded.lastIndexOf('.')), KEY))
+                .isInstanceOf(InvalidQueryException.class);
+        assertThatThrownBy(() -> ContinuationToken.decode(encoded + "!", KEY))
+                .isInstanceOf(InvalidQueryException.class);
+    }
+}
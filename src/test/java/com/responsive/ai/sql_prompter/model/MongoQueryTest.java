@@ -0,0 +1,59 @@
+package com.responsive.ai.sql_prompter.model;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Immutability of queries, which are shared between requests through the generated query cache.
+ */
+class MongoQueryTest {
+
+    @Test
+    void keepsItsOwnCopyOfTheDocumentsItWasBuiltFrom() {
+        List<Object> statuses = new ArrayList<>(List.of("active"));
+        Document filter = new Document("status", new Document("$in", statuses));
+        Document projection = new Document("name", 1);
+        MongoQuery query = new MongoQuery("users", filter, projection, 10);
+
+        statuses.add("deleted");
+        filter.append("age", 30);
+        projection.append("password", 1);
+
+        assertThat(query.getFilter()).isEqualTo(new Document("status", new Document("$in", List.of("active"))));
+        assertThat(query.getProjection()).isEqualTo(new Document("name", 1));
+    }
+
+    @Test
+    void returnsCopiesThatCallersMayModify() {
+        MongoQuery query = new MongoQuery("users", new Document("status", new Document("$in", List.of("active"))),
+                new Document(), new Document("name", 1), 0, 10);
+
+        query.getFilter().get("status", Document.class).put("$in", List.of("deleted"));
+        query.getSort().append("_id", 1);
+        query.getProjection().append("password", 1);
+
+        assertThat(query.getFilter()).isEqualTo(new Document("status", new Document("$in", List.of("active"))));
+        assertThat(query.getSort()).isEqualTo(new Document("name", 1));
+        assertThat(query.getProjection()).isEmpty();
+    }
+
+    @Test
+    void copiesPipelinesAndJoins() {
+        MongoQuery aggregation = MongoQuery.aggregation("users",
+                List.of(new Document("$match", new Document("status", "active")), new Document("$limit", 10)), 10);
+        aggregation.getPipeline().get(0).get("$match", Document.class).put("status", "deleted");
+
+        assertThat(aggregation.getPipeline().get(0)).isEqualTo(new Document("$match", new Document("status", "active")));
+
+        JoinSpec join = new JoinSpec("orders", "_id", "userId", "orders", new Document("paid", true),
+                new Document(), false);
+        join.getFilter().put("paid", false);
+
+        assertThat(join.getFilter()).isEqualTo(new Document("paid", true));
+    }
+}
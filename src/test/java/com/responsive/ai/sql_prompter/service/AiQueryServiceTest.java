@@ -0,0 +1,160 @@
+package com.responsive.ai.sql_prompter.service;
+
+import com.responsive.ai.sql_prompter.cache.LruTtlCache;
+import com.responsive.ai.sql_prompter.cache.SingleFlight;
+import com.responsive.ai.sql_prompter.concurrent.Deadline;
+import com.responsive.ai.sql_prompter.config.QueryTarget;
+import com.responsive.ai.sql_prompter.model.MongoQuery;
+import com.responsive.ai.sql_prompter.model.SchemaSnapshot;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Generation and parsing of queries, with the model and the schema replaced by stand-ins.
+ */
+class AiQueryServiceTest {
+
+    private final QueryTarget target = target("default");
+    private ChatLanguageModel chatModel;
+    private DatabaseSchemaService schemaService;
+    private AiQueryService service;
+
+    @BeforeEach
+    void setUp() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        schemaService = mock(DatabaseSchemaService.class);
+        when(schemaService.getSchemaSnapshot(target)).thenReturn(new SchemaSnapshot(
+                Map.of("users", Map.of("name", "String", "age", "Integer")), Map.of(), 5,
+                "users: name, age", "Collection: users\n  - name: String\n  - age: Integer\n", "fp", "v1",
+                Instant.now()));
+        chatModel = mock(ChatLanguageModel.class);
+        service = new AiQueryService(mock(MongoTemplate.class), schemaService, chatModel,
+                new LruTtlCache<>("ai.query", 100, Duration.ofMinutes(5)),
+                new SingleFlight<>("ai.query.generations", registry),
+                new SchemaPruner(registry),
+                new QueryRewriter(registry, false, "en"),
+                mock(QueryEngine.class));
+    }
+
+    private static QueryTarget target(String name) {
+        return new QueryTarget(name, name, mock(MongoTemplate.class), mock(ReactiveMongoTemplate.class), null, List.of());
+    }
+
+    private MongoQuery generate(String completion) {
+        when(chatModel.generate(anyString())).thenReturn(completion);
+        return service.generateQuery(target, "users older than 30", Deadline.afterMillis(5000));
+    }
+
+    @Test
+    void parsesTheCompletionIntoAQuery() {
+        MongoQuery query = generate("""
+                Here is the query:
+                ```json
+                {"collection": "users", "query": {"age": {"$gt": 30}}, "projection": {"name": 1},
+                 "sort": {"age": "desc"}, "skip": 5, "limit": 20}
+                ```
+                """);
+
+        assertThat(query.getCollection()).isEqualTo("users");
+        assertThat(query.getFilter()).isEqualTo(new Document("age", new Document("$gt", 30)));
+        assertThat(query.getProjection()).isEqualTo(new Document("name", 1).append("_id", 1));
+        assertThat(query.getSort()).isEqualTo(new Document("age", -1));
+        assertThat(query.getSkip()).isEqualTo(5);
+        assertThat(query.getLimit()).isEqualTo(20);
+        assertThat(query.isAggregation()).isFalse();
+    }
+
+    @Test
+    void defaultsAndCapsTheLimit() {
+        assertThat(generate("{\"collection\": \"users\", \"query\": {}}").getLimit()).isEqualTo(10);
+        assertThat(service.generateQuery(target, "all users", Deadline.afterMillis(5000)).getProjection()).isEmpty();
+        when(chatModel.generate(anyString())).thenReturn("{\"collection\": \"users\", \"query\": {}, \"limit\": 50000}");
+        assertThat(service.generateQuery(target, "every user", Deadline.afterMillis(5000)).getLimit()).isEqualTo(1000);
+    }
+
+    @Test
+    void parsesAggregations() {
+        MongoQuery query = generate("{\"collection\": \"users\", \"query\": {\"age\": {\"$gt\": 30}},"
+                + " \"pipeline\": [{\"$group\": {\"_id\": \"$age\", \"count\": {\"$sum\": 1}}}]}");
+
+        assertThat(query.isAggregation()).isTrue();
+        assertThat(query.getPipeline().get(0)).isEqualTo(new Document("$match", new Document("age", new Document("$gt", 30))));
+        assertThat(query.getPipeline().get(1)).containsKey("$group");
+    }
+
+    @Test
+    void rejectsForbiddenOperatorsNestedInTheFilter() {
+        assertThatThrownBy(() -> generate("{\"collection\": \"users\", \"query\": {\"$and\": [{\"age\": 1},"
+                + " {\"$where\": \"sleep(1000)\"}]}}"))
+                .isInstanceOf(SecurityException.class);
+    }
+
+    @Test
+    void rejectsCompletionsWithoutACollection() {
+        assertThatThrownBy(() -> generate("{\"query\": {}}"))
+                .hasMessageContaining("missing required 'collection' field");
+    }
+
+    @Test
+    void takesAQueryCachedJustBeforeItsGenerationStartedFromTheCache() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        LruTtlCache<String, MongoQuery> cache = spy(new LruTtlCache<String, MongoQuery>("ai.query", 100,
+                Duration.ofMinutes(5)));
+        MongoQuery cached = new MongoQuery("users", new Document(), new Document(), 10);
+        // Missed by the lookup, then cached by a generation that finished before this request's flight began
+        doReturn(null).doReturn(cached).when(cache).get(anyString());
+        AiQueryService racing = new AiQueryService(mock(MongoTemplate.class), schemaService, chatModel, cache,
+                new SingleFlight<>("ai.query.generations", registry), new SchemaPruner(registry),
+                new QueryRewriter(registry, false, "en"), mock(QueryEngine.class));
+
+        assertThat(racing.generateQuery(target, "users older than 30", Deadline.afterMillis(5000))).isSameAs(cached);
+        verify(chatModel, never()).generate(anyString());
+    }
+
+    @Test
+    void reusesTheParsedQueryForTheSameQuestion() {
+        MongoQuery first = generate("{\"collection\": \"users\", \"query\": {\"age\": {\"$gt\": 30}}}");
+        MongoQuery second = service.generateQuery(target, "Users older than 30?", Deadline.afterMillis(5000));
+
+        assertThat(second).isSameAs(first);
+        verify(chatModel, times(1)).generate(anyString());
+    }
+
+    @Test
+    void generatesFromTheSchemaOfTheGivenTarget() {
+        QueryTarget other = target("other");
+        when(schemaService.getSchemaSnapshot(other)).thenReturn(new SchemaSnapshot(
+                Map.of("customers", Map.of("name", "String")), Map.of(), 5,
+                "customers: name", "Collection: customers\n  - name: String\n", "fp-other", "v2", Instant.now()));
+        generate("{\"collection\": \"users\", \"query\": {}}");
+        when(chatModel.generate(anyString())).thenReturn("{\"collection\": \"customers\", \"query\": {}}");
+
+        MongoQuery onOther = service.generateQuery(other, "users older than 30", Deadline.afterMillis(5000));
+
+        // Same question, but another schema: not answered from the first target's cached query
+        assertThat(onOther.getCollection()).isEqualTo("customers");
+        verify(chatModel).generate(contains("customers"));
+    }
+}
@@ -0,0 +1,161 @@
+package com.responsive.ai.sql_prompter.service;
+
+import com.mongodb.ReadPreference;
+import com.responsive.ai.sql_prompter.concurrent.Deadline;
+import com.responsive.ai.sql_prompter.config.QueryTarget;
+import com.responsive.ai.sql_prompter.config.ReadRouting;
+import com.responsive.ai.sql_prompter.exception.InvalidQueryException;
+import com.responsive.ai.sql_prompter.model.JoinSpec;
+import com.responsive.ai.sql_prompter.model.MongoQuery;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Batched joins of the JoinExecutor, with the driving and the joined collections replaced by mocks
+ * that answer {@code $in} lookups on a top-level field.
+ */
+class JoinExecutorTest {
+
+    private final JoinExecutor executor = new JoinExecutor(
+            new ReadRouting(ReadPreference.primary(), ReadPreference.primary()));
+    private final List<Query> drivingQueries = new ArrayList<>();
+    private final List<Query> lookups = new ArrayList<>();
+    private MongoTemplate mongoTemplate;
+    private QueryTarget target;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        target = new QueryTarget("default", "test", mongoTemplate, mock(ReactiveMongoTemplate.class), null, List.of());
+    }
+
+    /** Serves the driving rows, cut to the query's limit as the server would */
+    private void orders(List<Document> rows) {
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq("orders"))).thenAnswer(invocation -> {
+            Query query = invocation.getArgument(0);
+            drivingQueries.add(query);
+            return rows.stream().limit(query.getLimit() > 0 ? query.getLimit() : rows.size()).map(Document::new);
+        });
+    }
+
+    /** Serves the documents of a joined collection whose field holds one of the $in keys */
+    private void joined(String collection, String field, List<Document> documents) {
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq(collection))).thenAnswer(invocation -> {
+            Query query = invocation.getArgument(0);
+            lookups.add(query);
+            List<?> keys = inKeys(query, field);
+            return documents.stream()
+                    .filter(document -> keys.contains(((Number) document.get(field)).longValue()))
+                    .map(Document::new);
+        });
+    }
+
+    private static List<Object> inKeys(Query query, String field) {
+        return query.getQueryObject().get(field, Document.class).getList("$in", Object.class);
+    }
+
+    private static JoinSpec join(String from, String localField, String foreignField, String as, Document projection,
+                                 boolean inner) {
+        return new JoinSpec(from, localField, foreignField, as, new Document(), projection, inner);
+    }
+
+    private List<Map<String, Object>> execute(MongoQuery query) {
+        return executor.execute(target, query, Deadline.afterMillis(5000));
+    }
+
+    @Test
+    void resolvesEachBatchWithOneInQuery() {
+        orders(IntStream.range(0, 1200).mapToObj(i -> new Document("_id", i).append("customerId", i % 10)).toList());
+        joined("customers", "_id", IntStream.range(0, 10).mapToObj(i -> new Document("_id", i)).toList());
+
+        List<Map<String, Object>> rows = execute(new MongoQuery("orders", new Document(), new Document(), 0)
+                .withJoins(List.of(join("customers", "customerId", "_id", "customer", new Document(), false))));
+
+        assertThat(rows).hasSize(1200);
+        assertThat(rows.get(1199).get("customer")).isEqualTo(List.of(new Document("_id", 9)));
+        // Batches of 500, 500 and 200 driving rows, each with the distinct keys of its batch
+        assertThat(lookups).hasSize(3);
+        assertThat(inKeys(lookups.get(0), "_id")).hasSize(10);
+    }
+
+    @Test
+    void leftJoinsKeepRowsWithoutAKeyAndInnerJoinsDropThem() {
+        orders(List.of(new Document("_id", 1).append("customerId", 1), new Document("_id", 2),
+                new Document("_id", 3).append("customerId", null)));
+        joined("customers", "_id", List.of(new Document("_id", 1)));
+        MongoQuery query = new MongoQuery("orders", new Document(), new Document(), 10);
+
+        List<Map<String, Object>> left = execute(query.withJoins(
+                List.of(join("customers", "customerId", "_id", "customer", new Document(), false))));
+        List<Map<String, Object>> inner = execute(query.withJoins(
+                List.of(join("customers", "customerId", "_id", "customer", new Document(), true))));
+
+        assertThat(left).extracting(row -> row.get("customer"))
+                .containsExactly(List.of(new Document("_id", 1)), List.of(), List.of());
+        assertThat(inner).extracting(row -> row.get("_id")).containsExactly(1);
+        // Missing and null keys are never looked up
+        assertThat(inKeys(lookups.get(0), "_id")).containsExactly(1L);
+    }
+
+    @Test
+    void readsKeysThroughArraysOfSubdocuments() {
+        orders(List.of(new Document("_id", 1).append("items", List.of(
+                new Document("productId", 1), new Document("productId", 2), new Document("productId", 1)))));
+        joined("products", "_id", List.of(new Document("_id", 1), new Document("_id", 2), new Document("_id", 3)));
+
+        List<Map<String, Object>> rows = execute(new MongoQuery("orders", new Document(), new Document(), 10)
+                .withJoins(List.of(join("products", "items.productId", "_id", "products", new Document(), true))));
+
+        assertThat(rows).hasSize(1);
+        assertThat(rows.get(0).get("products")).isEqualTo(List.of(new Document("_id", 1), new Document("_id", 2)));
+        assertThat(inKeys(lookups.get(0), "_id")).containsExactly(1L, 2L);
+    }
+
+    @Test
+    void removesKeyFieldsTheProjectionsLeftOut() {
+        // Rows as the server returns them for the widened projections
+        orders(List.of(new Document("_id", 1).append("name", "first").append("customerId", 7)
+                .append("items", List.of(new Document("productId", 1)))));
+        joined("customers", "code", List.of(new Document("_id", 70).append("name", "Ada").append("code", 7)));
+        joined("products", "_id", List.of(new Document("_id", 1)));
+        MongoQuery query = new MongoQuery("orders", new Document(), new Document("name", 1), 10).withJoins(List.of(
+                join("customers", "customerId", "code", "customer", new Document("name", 1), false),
+                join("products", "items.productId", "_id", "products", new Document(), false)));
+
+        List<Map<String, Object>> rows = execute(query);
+
+        assertThat(drivingQueries.get(0).getFieldsObject())
+                .isEqualTo(new Document("name", 1).append("customerId", 1).append("items.productId", 1));
+        assertThat(lookups.get(0).getFieldsObject()).isEqualTo(new Document("name", 1).append("code", 1));
+        assertThat(rows.get(0)).containsOnlyKeys("_id", "name", "customer", "products");
+        assertThat(rows.get(0).get("customer")).isEqualTo(List.of(new Document("_id", 70).append("name", "Ada")));
+    }
+
+    @Test
+    void failsInsteadOfTruncatingWhenInnerJoinsMatchTooFewRows() {
+        orders(IntStream.range(0, 20_100).mapToObj(i -> new Document("_id", i).append("customerId", -1)).toList());
+        joined("customers", "_id", List.of(new Document("_id", 1)));
+
+        assertThatThrownBy(() -> execute(new MongoQuery("orders", new Document(), new Document(), 10)
+                .withJoins(List.of(join("customers", "customerId", "_id", "customer", new Document(), true)))))
+                .isInstanceOf(InvalidQueryException.class)
+                .hasMessageContaining("found only 0 matching rows in the first 20000 rows");
+        assertThat(drivingQueries.get(0).getLimit()).isEqualTo(20_001);
+    }
+}
@@ -0,0 +1,143 @@
+package com.responsive.ai.sql_prompter.service;
+
+import com.responsive.ai.sql_prompter.exception.InvalidQueryException;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Stage rules and normalization of generated aggregation pipelines.
+ */
+class PipelineValidatorTest {
+
+    private static Document stage(String name, Object body) {
+        return new Document(name, body);
+    }
+
+    @Test
+    void acceptsReadOnlyStagesAndBoundsTheOutput() {
+        List<Document> pipeline = PipelineValidator.validate(List.of(
+                stage("$match", new Document("status", "active")),
+                stage("$project", new Document("name", 1))), 100);
+
+        assertThat(pipeline).containsExactly(
+                stage("$match", new Document("status", "active")),
+                stage("$project", new Document("name", 1)),
+                stage("$limit", 100));
+    }
+
+    @Test
+    void rejectsStagesOutsideTheAllowlist() {
+        for (String name : List.of("$out", "$merge", "$lookup", "$graphLookup", "$addFields")) {
+            assertThatThrownBy(() -> PipelineValidator.validate(List.of(stage(name, new Document())), 100))
+                    .as(name)
+                    .isInstanceOf(SecurityException.class)
+                    .hasMessage("Pipeline stage is not allowed: " + name);
+        }
+    }
+
+    @Test
+    void rejectsMalformedPipelines() {
+        assertThatThrownBy(() -> PipelineValidator.validate(List.of(), 100))
+                .isInstanceOf(InvalidQueryException.class);
+        assertThatThrownBy(() -> PipelineValidator.validate(new Document("$match", new Document()), 100))
+                .isInstanceOf(InvalidQueryException.class);
+        assertThatThrownBy(() -> PipelineValidator.validate(
+                List.of(new Document("$match", new Document()).append("$limit", 5)), 100))
+                .isInstanceOf(InvalidQueryException.class)
+                .hasMessageContaining("single stage operator");
+        assertThatThrownBy(() -> PipelineValidator.validate(List.of(stage("$group", new Document("n", 1))), 100))
+                .isInstanceOf(InvalidQueryException.class)
+                .hasMessage("Invalid $group stage");
+    }
+
+    @Test
+    void checksStageBodiesWithTheFilterRules() {
+        assertThatThrownBy(() -> PipelineValidator.validate(
+                List.of(stage("$match", new Document("$where", "sleep(1000)"))), 100))
+                .isInstanceOf(SecurityException.class);
+    }
+
+    @Test
+    void limitsTheNumberOfStagesUnwindsAndGroups() {
+        List<Document> tooMany = new ArrayList<>();
+        for (int i = 0; i < 11; i++) {
+            tooMany.add(stage("$project", new Document("name", 1)));
+        }
+        assertThatThrownBy(() -> PipelineValidator.validate(tooMany, 100))
+                .isInstanceOf(InvalidQueryException.class)
+                .hasMessage("Pipeline may have at most 10 stages");
+
+        assertThatThrownBy(() -> PipelineValidator.validate(List.of(
+                stage("$unwind", "$a"), stage("$unwind", "$b"), stage("$unwind", "$c")), 100))
+                .isInstanceOf(InvalidQueryException.class)
+                .hasMessage("Pipeline may have at most 2 $unwind stages");
+
+        Document group = new Document("_id", "$city");
+        assertThatThrownBy(() -> PipelineValidator.validate(List.of(
+                stage("$group", group), stage("$group", group), stage("$group", group)), 100))
+                .isInstanceOf(InvalidQueryException.class)
+                .hasMessage("Pipeline may have at most 2 $group stages");
+    }
+
+    @Test
+    void validatesUnwindPathsAndOptions() {
+        assertThat(PipelineValidator.validate(List.of(stage("$unwind",
+                new Document("path", "$items").append("preserveNullAndEmptyArrays", true))), 100)).hasSize(2);
+        assertThatThrownBy(() -> PipelineValidator.validate(List.of(stage("$unwind", "items")), 100))
+                .isInstanceOf(InvalidQueryException.class)
+                .hasMessage("Invalid $unwind stage");
+        assertThatThrownBy(() -> PipelineValidator.validate(List.of(stage("$unwind",
+                new Document("path", "$items").append("as", "item"))), 100))
+                .isInstanceOf(InvalidQueryException.class)
+                .hasMessage("Invalid $unwind option: as");
+    }
+
+    @Test
+    void movesMatchesAheadOfSortsAndMergesThem() {
+        List<Document> pipeline = PipelineValidator.validate(List.of(
+                stage("$match", new Document("status", "active")),
+                stage("$sort", new Document("age", -1)),
+                stage("$match", new Document("city", "Oslo")),
+                stage("$limit", 10)), 100);
+
+        assertThat(pipeline).containsExactly(
+                stage("$match", new Document("$and", List.of(new Document("status", "active"),
+                        new Document("city", "Oslo")))),
+                stage("$sort", new Document("age", -1)),
+                stage("$limit", 10));
+    }
+
+    @Test
+    void keepsMatchesAfterAGroupInPlace() {
+        List<Document> pipeline = PipelineValidator.validate(List.of(
+                stage("$group", new Document("_id", "$city").append("n", new Document("$sum", 1))),
+                stage("$match", new Document("n", new Document("$gt", 5)))), 100);
+
+        assertThat(pipeline).extracting(stage -> stage.keySet().iterator().next())
+                .containsExactly("$group", "$match", "$limit");
+    }
+
+    @Test
+    void clampsOrKeepsTheFinalStageThatBoundsTheOutput() {
+        assertThat(PipelineValidator.validate(List.of(stage("$limit", 5000)), 100))
+                .containsExactly(stage("$limit", 100));
+        assertThat(PipelineValidator.validate(List.of(stage("$count", "total")), 100))
+                .containsExactly(stage("$count", "total"));
+    }
+
+    @Test
+    void boundOutputLowersALimitWithoutModifyingThePipeline() {
+        List<Document> pipeline = List.of(stage("$match", new Document()), stage("$limit", 100));
+
+        assertThat(PipelineValidator.boundOutput(pipeline, 20))
+                .containsExactly(stage("$match", new Document()), stage("$limit", 20));
+        assertThat(PipelineValidator.boundOutput(pipeline, 500)).isEqualTo(pipeline);
+        assertThat(pipeline.get(1)).isEqualTo(stage("$limit", 100));
+    }
+}
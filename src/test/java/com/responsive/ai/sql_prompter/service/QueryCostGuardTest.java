@@ -0,0 +1,169 @@
+package com.responsive.ai.sql_prompter.service;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.client.MongoCollection;
+import com.responsive.ai.sql_prompter.concurrent.Deadline;
+import com.responsive.ai.sql_prompter.config.QueryTarget;
+import com.responsive.ai.sql_prompter.config.ReadRouting;
+import com.responsive.ai.sql_prompter.exception.InvalidQueryException;
+import com.responsive.ai.sql_prompter.model.CostDecision;
+import com.responsive.ai.sql_prompter.model.MongoQuery;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Decisions of the cost guard for a collection scan over a large collection, with MongoDB replaced by mocks.
+ */
+class QueryCostGuardTest {
+
+    private static final Document COLLSCAN_EXPLAIN = new Document("queryPlanner",
+            new Document("winningPlan", new Document("stage", "COLLSCAN")));
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private MongoTemplate mongoTemplate;
+    private QueryTarget target;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = collscanOver(200_000L);
+        target = target("default", mongoTemplate);
+    }
+
+    /** A template whose explains report a collection scan over users, of the given size */
+    @SuppressWarnings("unchecked")
+    private static MongoTemplate collscanOver(long documents) {
+        MongoTemplate template = mock(MongoTemplate.class);
+        when(template.executeCommand(any(Document.class), any(ReadPreference.class))).thenReturn(COLLSCAN_EXPLAIN);
+        MongoCollection<Document> users = mock(MongoCollection.class);
+        when(users.withReadPreference(any())).thenReturn(users);
+        when(users.estimatedDocumentCount()).thenReturn(documents);
+        when(template.getCollection(eq("users"))).thenReturn(users);
+        return template;
+    }
+
+    private static QueryTarget target(String name, MongoTemplate template) {
+        return new QueryTarget(name, "test", template, mock(ReactiveMongoTemplate.class), null, List.of());
+    }
+
+    private QueryCostGuard guard(String collscanAction) {
+        return new QueryCostGuard(registry, new ReadRouting(ReadPreference.primary(), ReadPreference.primary()),
+                true, 50_000, 500_000, collscanAction, 100, 300);
+    }
+
+    private static Deadline deadline() {
+        return Deadline.afterMillis(5000);
+    }
+
+    @Test
+    void lowersTheLimitOfQueriesThatCarryOne() {
+        QueryCostGuard.Assessment assessment = guard("limit")
+                .assess(target, new MongoQuery("users", new Document(), new Document(), 500), deadline());
+
+        assertThat(assessment.getQuery().getLimit()).isEqualTo(100);
+        assertThat(assessment.getDecision().getOutcome()).isEqualTo(CostDecision.Outcome.LIMITED);
+        assertThat(assessment.getDecision().getWinningPlan()).isEqualTo("COLLSCAN");
+        assertThat(registry.get("query.cost_guard").tag("outcome", "limited").counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void keepsLimitsBelowTheCap() {
+        QueryCostGuard.Assessment assessment = guard("limit")
+                .assess(target, new MongoQuery("users", new Document(), new Document(), 10), deadline());
+
+        assertThat(assessment.getQuery().getLimit()).isEqualTo(10);
+    }
+
+    @Test
+    void rejectsUnlimitedQueriesInsteadOfTruncatingThem() {
+        MongoQuery direct = new MongoQuery("users", new Document("name", "a"), new Document(), 0);
+
+        assertThatThrownBy(() -> guard("limit").assess(target, direct, deadline()))
+                .isInstanceOf(InvalidQueryException.class)
+                .hasMessageContaining("200000 documents of 'users'")
+                .hasMessageContaining("streaming endpoint");
+        assertThat(registry.get("query.cost_guard").tag("outcome", "rejected").counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void rejectsEveryScanWithTheRejectAction() {
+        assertThatThrownBy(() -> guard("reject")
+                .assess(target, new MongoQuery("users", new Document(), new Document(), 10), deadline()))
+                .isInstanceOf(InvalidQueryException.class)
+                .hasMessageContaining("without using an index");
+    }
+
+    @Test
+    void allowsScansOfSmallCollections() {
+        when(mongoTemplate.getCollection("users").estimatedDocumentCount()).thenReturn(1_000L);
+
+        QueryCostGuard.Assessment assessment = guard("limit")
+                .assess(target, new MongoQuery("users", new Document(), new Document(), 0), deadline());
+
+        assertThat(assessment.getQuery().getLimit()).isZero();
+        assertThat(assessment.getDecision().getOutcome()).isEqualTo(CostDecision.Outcome.ALLOWED);
+    }
+
+    @Test
+    void lowersTheFinalLimitOfPassThroughAggregations() {
+        MongoQuery aggregation = MongoQuery.aggregation("users", List.of(
+                new Document("$match", new Document("name", "a")), new Document("$limit", 500)), 500);
+
+        QueryCostGuard.Assessment assessment = guard("limit").assess(target, aggregation, deadline());
+
+        assertThat(assessment.getDecision().getOutcome()).isEqualTo(CostDecision.Outcome.LIMITED);
+        assertThat(assessment.getQuery().getPipeline()).containsExactly(
+                new Document("$match", new Document("name", "a")), new Document("$limit", 100));
+        assertThat(assessment.getQuery().getLimit()).isEqualTo(100);
+    }
+
+    @Test
+    void groupsUpToTheirOwnThreshold() {
+        MongoQuery grouping = MongoQuery.aggregation("users", List.of(
+                new Document("$group", new Document("_id", "$city").append("n", new Document("$sum", 1))),
+                new Document("$limit", 500)), 500);
+
+        // 200000 documents: over the find threshold, under the aggregation threshold, and not capped
+        QueryCostGuard.Assessment assessment = guard("limit").assess(target, grouping, deadline());
+        assertThat(assessment.getDecision().getOutcome()).isEqualTo(CostDecision.Outcome.ALLOWED);
+        assertThat(assessment.getQuery()).isSameAs(grouping);
+
+        QueryTarget large = target("large", collscanOver(1_000_000L));
+        assertThatThrownBy(() -> guard("limit").assess(large, grouping, deadline()))
+                .isInstanceOf(InvalidQueryException.class)
+                .hasMessageContaining("1000000 documents of 'users'");
+    }
+
+    @Test
+    void plansEachTargetOnItsOwnDatabase() {
+        MongoTemplate smallTemplate = collscanOver(1_000L);
+        QueryTarget small = target("small", smallTemplate);
+        QueryCostGuard guard = guard("limit");
+        MongoQuery query = new MongoQuery("users", new Document(), new Document(), 500);
+
+        assertThat(guard.assess(target, query, deadline()).getDecision().getOutcome())
+                .isEqualTo(CostDecision.Outcome.LIMITED);
+        // Same shape on another target: its plan is not taken from the first target's cache entry
+        CostDecision onSmall = guard.assess(small, query, deadline()).getDecision();
+        assertThat(onSmall.getOutcome()).isEqualTo(CostDecision.Outcome.ALLOWED);
+        assertThat(onSmall.isCachedPlan()).isFalse();
+        assertThat(guard.assess(small, query, deadline()).getDecision().isCachedPlan()).isTrue();
+
+        verify(mongoTemplate, times(1)).executeCommand(any(Document.class), any(ReadPreference.class));
+        verify(smallTemplate, times(1)).executeCommand(any(Document.class), any(ReadPreference.class));
+    }
+}
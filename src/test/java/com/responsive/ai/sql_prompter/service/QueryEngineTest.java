@@ -0,0 +1,184 @@
+package com.responsive.ai.sql_prompter.service;
+
+import com.mongodb.ReadPreference;
+import com.responsive.ai.sql_prompter.concurrent.Deadline;
+import com.responsive.ai.sql_prompter.config.QueryTarget;
+import com.responsive.ai.sql_prompter.config.QueryTargets;
+import com.responsive.ai.sql_prompter.config.ReadRouting;
+import com.responsive.ai.sql_prompter.exception.InvalidQueryException;
+import com.responsive.ai.sql_prompter.model.CostDecision;
+import com.responsive.ai.sql_prompter.model.MongoQuery;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Which checks the engine applies to generated and to direct queries, and which target's templates
+ * and cache entries it uses, with MongoDB replaced by mocks.
+ */
+class QueryEngineTest {
+
+    private static final int MAX_ROWS = 3;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    // Schema sampling on secondaries, so a query sent there would show up in the captured read preference
+    private final ReadRouting readRouting = new ReadRouting(ReadPreference.primary(), ReadPreference.secondary());
+    private MongoTemplate mongoTemplate;
+    private QueryCostGuard costGuard;
+    private QueryTarget target;
+    private QueryTarget other;
+    private QueryTargets queryTargets;
+    private QueryResultCache resultCache;
+
+    @BeforeEach
+    void setUp() {
+        // Five rows on the default target, more than MAX_ROWS; two on the other one
+        mongoTemplate = usersTemplate(5);
+        costGuard = mock(QueryCostGuard.class);
+        target = new QueryTarget("default", "test", mongoTemplate, mock(ReactiveMongoTemplate.class), null, List.of());
+        other = new QueryTarget("other", "other", usersTemplate(2), mock(ReactiveMongoTemplate.class), null, List.of());
+        queryTargets = new QueryTargets(List.of(target, other), "default");
+        resultCache = new QueryResultCache(queryTargets, registry, readRouting, false, 10, 10, 30, 600);
+    }
+
+    /** A template whose users collection holds the given number of rows, cut to the query's limit as the server would */
+    private static MongoTemplate usersTemplate(int rows) {
+        MongoTemplate template = mock(MongoTemplate.class);
+        when(template.stream(any(Query.class), eq(Document.class), eq("users"))).thenAnswer(invocation -> {
+            int limit = invocation.<Query>getArgument(0).getLimit();
+            return IntStream.rangeClosed(1, rows).limit(limit > 0 ? limit : rows).mapToObj(i -> new Document("_id", i));
+        });
+        return template;
+    }
+
+    private QueryEngine engine(boolean guardDirectQueries) {
+        return new QueryEngine(mock(JoinExecutor.class), costGuard, resultCache, registry, readRouting, 100, MAX_ROWS,
+                false, guardDirectQueries);
+    }
+
+    private static MongoQuery unlimited() {
+        return new MongoQuery("users", new Document(), new Document(), 0);
+    }
+
+    private static Deadline deadline() {
+        return Deadline.afterMillis(5000);
+    }
+
+    @Test
+    void directQueriesReturnEveryRowWithoutTheCostGuard() {
+        QueryEngine.Result result = engine(false).executeDirect(target, unlimited(), deadline());
+
+        assertThat(result.getRows()).hasSize(5);
+        assertThat(result.getCostDecision()).isNull();
+        verify(costGuard, never()).assess(any(), any(), any());
+    }
+
+    @Test
+    void directQueriesAreGuardedWhenConfigured() {
+        when(costGuard.assess(any(), any(), any())).thenAnswer(invocation -> assessment(invocation.getArgument(1)));
+
+        assertThatThrownBy(() -> engine(true).executeDirect(target, unlimited(), deadline()))
+                .isInstanceOf(InvalidQueryException.class)
+                .hasMessageContaining("more than " + MAX_ROWS + " rows");
+        verify(costGuard).assess(eq(target), any(), any());
+    }
+
+    @Test
+    void generatedQueriesAreGuardedAndCapped() {
+        when(costGuard.assess(any(), any(), any())).thenAnswer(invocation -> assessment(invocation.getArgument(1)));
+
+        assertThatThrownBy(() -> engine(false).execute(target, unlimited(), deadline()))
+                .isInstanceOf(InvalidQueryException.class)
+                .hasMessageContaining("more than " + MAX_ROWS + " rows");
+
+        QueryEngine.Result result = engine(false)
+                .execute(target, new MongoQuery("users", new Document(), new Document(), MAX_ROWS), deadline());
+        assertThat(result.getCostDecision().getOutcome()).isEqualTo(CostDecision.Outcome.SKIPPED);
+    }
+
+    @Test
+    void readsFromTheTemplateOfTheGivenTarget() {
+        QueryEngine.Result result = engine(false).executeDirect(other, unlimited(), deadline());
+
+        assertThat(result.getRows()).hasSize(2);
+        verify(other.getMongoTemplate()).stream(any(Query.class), eq(Document.class), eq("users"));
+        verify(mongoTemplate, never()).stream(any(Query.class), eq(Document.class), any(String.class));
+    }
+
+    @Test
+    void sendsQueriesWithTheQueryReadPreference() {
+        engine(false).executeDirect(target, unlimited(), deadline());
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).stream(query.capture(), eq(Document.class), eq("users"));
+        assertThat(query.getValue().getReadPreference()).isEqualTo(ReadPreference.primary());
+    }
+
+    @Test
+    void cachesResultsPerTarget() {
+        resultCache = new QueryResultCache(queryTargets, registry, readRouting, true, 10, 10, 30, 600);
+        QueryEngine engine = engine(false);
+
+        assertThat(engine.executeDirect(target, unlimited(), deadline()).getRows()).hasSize(5);
+        QueryEngine.Result onOther = engine.executeDirect(other, unlimited(), deadline());
+        assertThat(onOther.isFromCache()).isFalse();
+        assertThat(onOther.getRows()).hasSize(2);
+        QueryEngine.Result again = engine.executeDirect(target, unlimited(), deadline());
+        assertThat(again.isFromCache()).isTrue();
+        assertThat(again.getRows()).hasSize(5);
+
+        verify(mongoTemplate, times(1)).stream(any(Query.class), eq(Document.class), eq("users"));
+        verify(other.getMongoTemplate(), times(1)).stream(any(Query.class), eq(Document.class), eq("users"));
+    }
+
+    @Test
+    void doesNotServeUncappedDirectResultsToCappedQueries() {
+        resultCache = new QueryResultCache(queryTargets, registry, readRouting, true, 10, 10, 30, 600);
+        when(costGuard.assess(any(), any(), any())).thenAnswer(invocation -> assessment(invocation.getArgument(1)));
+        QueryEngine engine = engine(false);
+
+        assertThat(engine.executeDirect(target, unlimited(), deadline()).getRows()).hasSize(5);
+
+        // The five cached rows exceed the cap of the generated path, which must not bypass it through the cache
+        assertThatThrownBy(() -> engine.execute(target, unlimited(), deadline()))
+                .isInstanceOf(InvalidQueryException.class)
+                .hasMessageContaining("more than " + MAX_ROWS + " rows");
+    }
+
+    @Test
+    void streamsFromTheReactiveTemplateOfTheGivenTarget() {
+        when(other.getReactiveMongoTemplate().find(any(Query.class), eq(Document.class), eq("users")))
+                .thenReturn(Flux.just(new Document("_id", 1)));
+
+        List<Document> documents = engine(false).publish(other, unlimited(), deadline()).collectList().block();
+
+        assertThat(documents).containsExactly(new Document("_id", 1));
+        verify(target.getReactiveMongoTemplate(), never()).find(any(Query.class), eq(Document.class), any(String.class));
+    }
+
+    /** An assessment that lets the query through unchanged, as with the cost guard disabled */
+    private QueryCostGuard.Assessment assessment(MongoQuery query) {
+        QueryCostGuard disabled = new QueryCostGuard(new SimpleMeterRegistry(), readRouting,
+                false, 50_000, 50_000, "limit", 100, 300);
+        return disabled.assess(target, query, deadline());
+    }
+}
@@ -0,0 +1,203 @@
+package com.responsive.ai.sql_prompter.service;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+/**
+ * Compares the validator with the regular expressions it replaced, which are kept here verbatim
+ * as the reference for what must be flagged.
+ */
+class QueryOperatorValidatorTest {
+
+    private static final String INJECTION_PATTERN = "(?i)\\b(?:\\.(?:save|insert|update|remove|delete|drop|create|rename|eval|shutdown|fsync|repair|replSet|sharding|logRotate|logRotate|replSetInitiate|replSetReconfig|replSetStepDown|replSetFreeze|replSetMaintenance|replSetSyncFrom|resync|validate|compact|collMod|dbHash|dbStats|cloneCollection|cloneCollectionAsCapped|convertToCapped|createIndexes|dropIndexes|reIndex|filemd5|connPoolSync|connPoolStats|cursorInfo|getCmdLineOpts|getLog|getParameter|getShardVersion|hostInfo|listCommands|listDatabases|ping|profile|serverStatus|shardConnPoolStats|top|whatsmyuri|dbStats|collStats|connPoolStats|cursorInfo|getCmdLineOpts|getLog|getParameter|getShardVersion|hostInfo|listCommands|listDatabases|ping|profile|serverStatus|shardConnPoolStats|top|whatsmyuri|dbStats|collStats|connPoolStats|cursorInfo|getCmdLineOpts|getLog|getParameter|getShardVersion|hostInfo|listCommands|listDatabases|ping|profile|serverStatus|shardConnPoolStats|top|whatsmyuri)\\b|\\$(?:where|function|eval|accumulator|addToSet|push|pull|rename|unset|currentDate|inc|min|max|mul|setOnInsert|pop|bit|isolated|all|elemMatch|size|type|not|mod|regex|text|where|geoWithin|geoIntersects|near|nearSphere|geoNear))\\s*:";
+
+    private static final String FORBIDDEN_KEY_PATTERN = "(?i)\\$(where|eval|accumulator|function|group|merge|out|geoNear|lookup|graphLookup|redact|$cmd|$query|$orderby|$comment|$hint|$max|$min|$returnKey|$showDiskLoc|$snapshot|$explain|$natural|$meta|$text|$regex|$mod|$type|$all|$elemMatch|$size|$bitsAllClear|$bitsAllSet|$bitsAnyClear|$bitsAnySet|$comment|$meta|$slice)\\b";
+
+    private static final List<String> METHOD_NAMES = List.of(
+            "save", "insert", "update", "remove", "delete", "drop", "create", "rename", "eval", "shutdown", "fsync",
+            "repair", "replSet", "sharding", "logRotate", "replSetInitiate", "replSetReconfig", "replSetStepDown",
+            "replSetFreeze", "replSetMaintenance", "replSetSyncFrom", "resync", "validate", "compact", "collMod",
+            "dbHash", "dbStats", "cloneCollection", "cloneCollectionAsCapped", "convertToCapped", "createIndexes",
+            "dropIndexes", "reIndex", "filemd5", "connPoolSync", "connPoolStats", "cursorInfo", "getCmdLineOpts",
+            "getLog", "getParameter", "getShardVersion", "hostInfo", "listCommands", "listDatabases", "ping",
+            "profile", "serverStatus", "shardConnPoolStats", "top", "whatsmyuri", "collStats");
+
+    private static final List<String> TEXT_OPERATORS = List.of(
+            "where", "function", "eval", "accumulator", "addToSet", "push", "pull", "rename", "unset", "currentDate",
+            "inc", "min", "max", "mul", "setOnInsert", "pop", "bit", "isolated", "all", "elemMatch", "size", "type",
+            "not", "mod", "regex", "text", "geoWithin", "geoIntersects", "near", "nearSphere", "geoNear");
+
+    private static final List<String> FORBIDDEN_KEYS = List.of(
+            "where", "eval", "accumulator", "function", "group", "merge", "out", "geoNear", "lookup", "graphLookup",
+            "redact");
+
+    /** Operators the old key pattern listed after a stray '$', which made them unreachable */
+    private static final List<String> ALLOWED_KEYS = List.of(
+            "cmd", "query", "orderby", "comment", "hint", "max", "min", "returnKey", "text", "regex", "mod", "type",
+            "all", "elemMatch", "size", "slice", "match", "and", "or", "in", "gt", "sum");
+
+    private static final Pattern INJECTION = Pattern.compile(".*" + INJECTION_PATTERN + ".*");
+
+    private static boolean oldContainsInjection(String input) {
+        if (input == null || input.trim().isEmpty()) {
+            return false;
+        }
+        return INJECTION.matcher(input).matches();
+    }
+
+    private static boolean oldFlagsKey(String key) {
+        return key.matches(FORBIDDEN_KEY_PATTERN);
+    }
+
+    private static List<String> caseVariants(String name) {
+        String mixed = name.length() > 1
+                ? name.substring(0, 1).toUpperCase(Locale.ROOT) + name.substring(1).toLowerCase(Locale.ROOT)
+                : name.toUpperCase(Locale.ROOT);
+        return List.of(name, name.toLowerCase(Locale.ROOT), name.toUpperCase(Locale.ROOT), mixed);
+    }
+
+    static Stream<String> forbiddenKeys() {
+        return FORBIDDEN_KEYS.stream().flatMap(name -> caseVariants(name).stream()).map(name -> "$" + name);
+    }
+
+    static Stream<String> otherKeys() {
+        List<String> keys = new ArrayList<>();
+        for (String name : ALLOWED_KEYS) {
+            caseVariants(name).forEach(variant -> keys.add("$" + variant));
+        }
+        for (String name : FORBIDDEN_KEYS) {
+            keys.add(name);
+            keys.add("$" + name + "s");
+            keys.add("$" + name + "_");
+            keys.add("$$" + name);
+            keys.add("x$" + name);
+            keys.add(" $" + name);
+        }
+        keys.add("$");
+        keys.add("");
+        return keys.stream();
+    }
+
+    static Stream<String> textInputs() {
+        List<String> inputs = new ArrayList<>();
+        for (String name : METHOD_NAMES) {
+            for (String variant : caseVariants(name)) {
+                inputs.add("db.users." + variant + ":");
+                inputs.add("db.users." + variant + " \t:");
+                inputs.add("users ." + variant + ":");
+                inputs.add("." + variant + ":");
+                inputs.add("db.users." + variant + "x:");
+                inputs.add("db.users." + variant + "_:");
+                inputs.add("db.users." + variant + "1:");
+                inputs.add("db.users." + variant + "()");
+                inputs.add("db.users." + variant + "\n:");
+                inputs.add("line one\ndb.users." + variant + ":");
+                inputs.add("db.users." + variant + ": then\nmore");
+                inputs.add("é." + variant + ":");
+            }
+        }
+        for (String name : TEXT_OPERATORS) {
+            for (String variant : caseVariants(name)) {
+                inputs.add("find {$" + variant + ": 1}");
+                inputs.add("find x$" + variant + ":");
+                inputs.add("$" + variant + ":");
+                inputs.add("find {$" + variant + "s: 1}");
+                inputs.add("find {$" + variant + "  : 1}");
+                inputs.add("find {$" + variant + "\r\n: 1}");
+                inputs.add("first line\r\nfind {$" + variant + ": 1}");
+            }
+        }
+        inputs.add("");
+        inputs.add("   ");
+        inputs.add("users named Drop: table");
+        inputs.add("price in $: 10");
+        inputs.add("emails ending in .com: all of them");
+        return inputs.stream();
+    }
+
+    @ParameterizedTest
+    @MethodSource("forbiddenKeys")
+    void flagsForbiddenKeysAtEveryDepthLikeTheOldPattern(String key) {
+        assertThat(oldFlagsKey(key)).isTrue();
+        assertThat(QueryOperatorValidator.isForbiddenKey(key)).isTrue();
+
+        for (Document query : List.of(
+                new Document(key, "x"),
+                new Document("query", new Document("age", new Document(key, 1))),
+                new Document("query", new Document("$and", List.of(new Document("a", 1), new Document(key, 1)))))) {
+            assertThatThrownBy(() -> QueryOperatorValidator.checkOperators(query))
+                    .isInstanceOf(SecurityException.class)
+                    .hasMessageContaining(key);
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("otherKeys")
+    void allowsOtherKeysLikeTheOldPattern(String key) {
+        assertThat(QueryOperatorValidator.isForbiddenKey(key)).isEqualTo(oldFlagsKey(key)).isFalse();
+
+        QueryOperatorValidator.checkOperators(new Document("query", new Document("a", new Document(key, 1))));
+    }
+
+    @ParameterizedTest
+    @MethodSource("textInputs")
+    void flagsTheSameTextAsTheOldPattern(String input) {
+        assertThat(QueryOperatorValidator.containsInjection(input)).isEqualTo(oldContainsInjection(input));
+    }
+
+    @Test
+    void scansAdversarialInputsInLinearTime() {
+        // Near misses at every position: each would make the old pattern backtrack over the rest of the input
+        List<String> inputs = List.of(
+                "a.replSet".repeat(1111),
+                "x$geoWithin ".repeat(833),
+                "a.b".repeat(3333) + "\n:",
+                "$".repeat(10_000),
+                "w.".repeat(5000));
+        assertTimeoutPreemptively(Duration.ofSeconds(2), () -> {
+            for (int i = 0; i < 100; i++) {
+                for (String input : inputs) {
+                    assertThat(QueryOperatorValidator.containsInjection(input)).isFalse();
+                }
+            }
+        });
+    }
+
+    @Test
+    void flagsTheSameRandomTextAsTheOldPattern() {
+        String[] fragments = {"db", ".", "$", ":", " ", "\t", "\n", "\r", "_", "1", "é", "\u0301", "users", "x"};
+        List<String> names = new ArrayList<>(METHOD_NAMES);
+        names.addAll(TEXT_OPERATORS);
+        Random random = new Random(42);
+        for (int i = 0; i < 50_000; i++) {
+            StringBuilder input = new StringBuilder();
+            int parts = 1 + random.nextInt(8);
+            for (int p = 0; p < parts; p++) {
+                if (random.nextInt(3) == 0) {
+                    String name = names.get(random.nextInt(names.size()));
+                    input.append(random.nextBoolean() ? name : name.toUpperCase(Locale.ROOT));
+                } else {
+                    input.append(fragments[random.nextInt(fragments.length)]);
+                }
+            }
+            String text = input.toString();
+            assertThat(QueryOperatorValidator.containsInjection(text))
+                    .as("input %s", text.replace("\n", "\\n").replace("\r", "\\r"))
+                    .isEqualTo(oldContainsInjection(text));
+        }
+    }
+}
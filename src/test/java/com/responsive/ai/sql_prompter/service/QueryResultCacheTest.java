@@ -0,0 +1,115 @@
+package com.responsive.ai.sql_prompter.service;
+
+import com.mongodb.ReadPreference;
+import com.responsive.ai.sql_prompter.config.QueryTarget;
+import com.responsive.ai.sql_prompter.config.QueryTargets;
+import com.responsive.ai.sql_prompter.config.ReadRouting;
+import com.responsive.ai.sql_prompter.model.MongoQuery;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * When cached results are served: until invalidated while a change stream is open and queries read
+ * from the primary, otherwise only within the TTL.
+ */
+class QueryResultCacheTest {
+
+    private static final MongoQuery QUERY = new MongoQuery("users", new Document("age", 30), new Document(), 10);
+    private static final List<Map<String, Object>> ROWS = List.of(Map.of("_id", 1));
+    private static final int MAX_ROWS = 100;
+
+    private QueryTarget target;
+    private QueryTarget other;
+    private QueryTargets queryTargets;
+
+    @BeforeEach
+    void setUp() {
+        target = new QueryTarget("default", "test", mock(MongoTemplate.class), mock(ReactiveMongoTemplate.class), null,
+                List.of());
+        other = new QueryTarget("other", "other", mock(MongoTemplate.class), mock(ReactiveMongoTemplate.class), null,
+                List.of());
+        queryTargets = new QueryTargets(List.of(target, other), "default");
+    }
+
+    /** A cache with a TTL of 0, whose entries are only served while a change stream is open */
+    @SuppressWarnings("unchecked")
+    private QueryResultCache cache(ReadPreference queries) {
+        QueryResultCache cache = new QueryResultCache(queryTargets, new SimpleMeterRegistry(),
+                new ReadRouting(queries, ReadPreference.primary()), true, 10, 10, 0, 600);
+        // As after the listeners opened the change streams of both targets
+        ((Set<String>) ReflectionTestUtils.getField(cache, "changeStreamTargets")).addAll(Set.of("default", "other"));
+        return cache;
+    }
+
+    private boolean servedFromCache(QueryResultCache cache) throws InterruptedException {
+        cache.getOrLoad(target, QUERY, MAX_ROWS, () -> ROWS);
+        Thread.sleep(5);
+        return cache.getOrLoad(target, QUERY, MAX_ROWS, () -> ROWS).isFromCache();
+    }
+
+    @Test
+    void primaryReadsAreServedUntilInvalidated() throws InterruptedException {
+        QueryResultCache cache = cache(ReadPreference.primary());
+
+        assertThat(servedFromCache(cache)).isTrue();
+
+        cache.invalidate("default", "users");
+        assertThat(cache.getOrLoad(target, QUERY, MAX_ROWS, () -> ROWS).isFromCache()).isFalse();
+    }
+
+    @Test
+    void targetsHaveTheirOwnEntriesAndInvalidations() {
+        QueryResultCache cache = cache(ReadPreference.primary());
+        List<Map<String, Object>> otherRows = List.of(Map.of("_id", 2));
+        cache.getOrLoad(target, QUERY, MAX_ROWS, () -> ROWS);
+
+        QueryResultCache.Lookup onOther = cache.getOrLoad(other, QUERY, MAX_ROWS, () -> otherRows);
+        assertThat(onOther.isFromCache()).isFalse();
+        assertThat(onOther.getRows()).isEqualTo(otherRows);
+
+        // A write to users on one target leaves the other target's entry in place
+        cache.invalidate("default", "users");
+        assertThat(cache.getOrLoad(other, QUERY, MAX_ROWS, () -> otherRows).isFromCache()).isTrue();
+        assertThat(cache.getOrLoad(target, QUERY, MAX_ROWS, () -> ROWS).isFromCache()).isFalse();
+
+        cache.invalidateTarget("other");
+        assertThat(cache.getOrLoad(target, QUERY, MAX_ROWS, () -> ROWS).isFromCache()).isTrue();
+        assertThat(cache.getOrLoad(other, QUERY, MAX_ROWS, () -> otherRows).isFromCache()).isFalse();
+    }
+
+    @Test
+    void secondaryReadsAreOnlyServedWithinTheTtl() throws InterruptedException {
+        assertThat(servedFromCache(cache(ReadPreference.secondaryPreferred()))).isFalse();
+        assertThat(servedFromCache(cache(ReadPreference.nearest()))).isFalse();
+    }
+
+    @Test
+    void withoutAChangeStreamOnlyTheTtlApplies() throws InterruptedException {
+        QueryResultCache cache = cache(ReadPreference.primary());
+        ((Set<?>) ReflectionTestUtils.getField(cache, "changeStreamTargets")).clear();
+
+        assertThat(servedFromCache(cache)).isFalse();
+    }
+
+    @Test
+    void keepsResultsLoadedUnderDifferentRowCapsApart() {
+        QueryResultCache cache = cache(ReadPreference.primary());
+        cache.getOrLoad(target, QUERY, Integer.MAX_VALUE, () -> ROWS);
+
+        assertThat(cache.getOrLoad(target, QUERY, MAX_ROWS, () -> ROWS).isFromCache()).isFalse();
+        assertThat(cache.getOrLoad(target, QUERY, MAX_ROWS, () -> ROWS).isFromCache()).isTrue();
+        assertThat(cache.getOrLoad(target, QUERY, Integer.MAX_VALUE, () -> ROWS).isFromCache()).isTrue();
+    }
+}
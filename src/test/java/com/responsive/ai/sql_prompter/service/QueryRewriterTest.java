@@ -0,0 +1,184 @@
+package com.responsive.ai.sql_prompter.service;
+
+import com.responsive.ai.sql_prompter.model.MongoQuery;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonRegularExpression;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * One group of cases per rewrite rule, including the cases each rule must leave alone.
+ */
+class QueryRewriterTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final QueryRewriter rewriter = new QueryRewriter(registry, true, "en");
+
+    private static Document regex(String pattern, String options) {
+        return new Document("$regex", pattern).append("$options", options);
+    }
+
+    private MongoQuery rewrite(Document filter) {
+        return rewriter.rewrite(new MongoQuery("users", filter, new Document(), 10));
+    }
+
+    /** @return true if the rewriter returned the query itself, leaving its filter alone */
+    private boolean leavesAlone(Document filter) {
+        MongoQuery query = new MongoQuery("users", filter, new Document(), 10);
+        return rewriter.rewrite(query) == query;
+    }
+
+    private double applied(QueryRewriter.Rule rule) {
+        return registry.get("query.rewrites").tag("rule", rule.name().toLowerCase(Locale.ROOT)).counter().count();
+    }
+
+    @Test
+    void exactEqualityIncludesTheTrailingLineBreakVariant() {
+        MongoQuery query = rewrite(new Document("name", regex("^alice$", "")));
+
+        assertThat(query.getFilter()).isEqualTo(new Document("name", new Document("$in", List.of("alice", "alice\n"))));
+        assertThat(query.getCollation()).isEmpty();
+        assertThat(applied(QueryRewriter.Rule.EXACT_EQUALITY)).isEqualTo(1.0);
+        // Why the variant is needed: "$" also matches before a final line break
+        assertThat(Pattern.compile("^alice$").matcher("alice\n").find()).isTrue();
+        assertThat(Pattern.compile("^alice$").matcher("alice\n\n").find()).isFalse();
+    }
+
+    @Test
+    void exactEqualityAppliesToCaseInsensitiveLiteralsWithoutLetters() {
+        MongoQuery query = rewrite(new Document("code", new BsonRegularExpression("^42\\.0$", "i")));
+
+        assertThat(query.getFilter()).isEqualTo(new Document("code", new Document("$in", List.of("42.0", "42.0\n"))));
+        assertThat(query.getCollation()).isEmpty();
+    }
+
+    @Test
+    void leavesPatternsWithRegexSyntaxAlone() {
+        for (String pattern : List.of("^al.ce$", "alice$", "^a\\dc$", "^(alice)$", "^$")) {
+            Document filter = new Document("name", regex(pattern, ""));
+            assertThat(leavesAlone(filter)).as(pattern).isTrue();
+        }
+        Document multiline = new Document("name", regex("^alice$", "m"));
+        assertThat(leavesAlone(multiline)).isTrue();
+    }
+
+    @Test
+    void collationEqualityKeepsTheRegexAsACheck() {
+        MongoQuery query = rewrite(new Document("name", regex("^Alice$", "i")).append("age", 30));
+
+        assertThat(query.getFilter()).isEqualTo(new Document("name",
+                new Document("$in", List.of("Alice", "Alice\n")).append("$regex", "^Alice$").append("$options", "i"))
+                .append("age", 30));
+        assertThat(query.getCollation()).isEqualTo(new Document("locale", "en").append("strength", 2));
+        assertThat(applied(QueryRewriter.Rule.COLLATION_EQUALITY)).isEqualTo(1.0);
+    }
+
+    @Test
+    void collationEqualityIsSkippedWhenTheCollationWouldChangeOtherComparisons() {
+        Document filter = new Document("name", regex("^Alice$", "i")).append("city", "Berlin");
+        assertThat(rewrite(filter).getFilter()).isEqualTo(filter);
+
+        MongoQuery sorted = new MongoQuery("users", new Document("name", regex("^Alice$", "i")), new Document(),
+                new Document("age", 1), 0, 10);
+        assertThat(rewriter.rewrite(sorted)).isSameAs(sorted);
+
+        MongoQuery withCollation = new MongoQuery("users", new Document("name", regex("^Alice$", "i")),
+                new Document(), 10).withCollation(new Document("locale", "fr"));
+        assertThat(rewriter.rewrite(withCollation)).isSameAs(withCollation);
+
+        assertThat(applied(QueryRewriter.Rule.COLLATION_EQUALITY)).isZero();
+    }
+
+    @Test
+    void prefixExpandsTheFirstThreeLetters() {
+        MongoQuery query = rewrite(new Document("name", regex("^abcd", "i")));
+
+        assertThat(query.getFilter()).isEqualTo(new Document("name", new Document("$in", List.of(
+                new BsonRegularExpression("^abc(?i)d"), new BsonRegularExpression("^abC(?i)d"),
+                new BsonRegularExpression("^aBc(?i)d"), new BsonRegularExpression("^aBC(?i)d"),
+                new BsonRegularExpression("^Abc(?i)d"), new BsonRegularExpression("^AbC(?i)d"),
+                new BsonRegularExpression("^ABc(?i)d"), new BsonRegularExpression("^ABC(?i)d")))));
+        assertThat(applied(QueryRewriter.Rule.PREFIX)).isEqualTo(1.0);
+    }
+
+    @Test
+    void prefixExpansionStopsAtKAndS() {
+        // 'k' and 's' also match the KELVIN SIGN and LONG S case-insensitively
+        assertThat(rewrite(new Document("name", regex("^ask", "i"))).getFilter()).isEqualTo(new Document("name",
+                new Document("$in", List.of(new BsonRegularExpression("^a(?i)sk"), new BsonRegularExpression("^A(?i)sk")))));
+
+        for (String pattern : List.of("^kate", "^Sam")) {
+            Document filter = new Document("name", regex(pattern, "i"));
+            assertThat(leavesAlone(filter)).as(pattern).isTrue();
+        }
+        assertThat(Pattern.compile("^k", Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE).matcher("Kate").find())
+                .isTrue();
+    }
+
+    @Test
+    void prefixWithoutLettersDropsTheOption() {
+        assertThat(rewrite(new Document("phone", regex("^\\+49", "i"))).getFilter())
+                .isEqualTo(new Document("phone", new BsonRegularExpression("^\\+49")));
+
+        Document caseSensitive = new Document("name", regex("^abc", ""));
+        assertThat(leavesAlone(caseSensitive)).isTrue();
+    }
+
+    @Test
+    void andFlattenMergesMembersIntoTheFilter() {
+        MongoQuery query = rewrite(new Document("$and", List.of(
+                new Document("age", new Document("$gt", 30)),
+                new Document("$and", List.of(new Document("city", "Berlin"), new Document("active", true))))));
+
+        assertThat(query.getFilter()).isEqualTo(new Document("age", new Document("$gt", 30))
+                .append("city", "Berlin").append("active", true));
+        assertThat(applied(QueryRewriter.Rule.AND_FLATTEN)).isEqualTo(1.0);
+    }
+
+    @Test
+    void andFlattenKeepsConflictingFieldsInAnAnd() {
+        MongoQuery query = rewrite(new Document("age", new Document("$gt", 30))
+                .append("$and", List.of(new Document("age", new Document("$lt", 50)), new Document("city", "Berlin"))));
+
+        assertThat(query.getFilter()).isEqualTo(new Document("age", new Document("$gt", 30))
+                .append("city", "Berlin")
+                .append("$and", List.of(new Document("age", new Document("$lt", 50)))));
+    }
+
+    @Test
+    void orToInMergesEqualitiesOnTheSameField() {
+        MongoQuery query = rewrite(new Document("$or", List.of(
+                new Document("status", "new"), new Document("status", new Document("$eq", "open")))));
+
+        assertThat(query.getFilter()).isEqualTo(new Document("status", new Document("$in", List.of("new", "open"))));
+        assertThat(applied(QueryRewriter.Rule.OR_TO_IN)).isEqualTo(1.0);
+    }
+
+    @Test
+    void orToInKeepsOtherBranches() {
+        MongoQuery query = rewrite(new Document("$or", List.of(
+                new Document("status", "new"),
+                new Document("priority", new Document("$gt", 3)),
+                new Document("status", new Document("$in", List.of("open", "new"))))));
+
+        assertThat(query.getFilter()).isEqualTo(new Document("$or", List.of(
+                new Document("status", new Document("$in", List.of("new", "open"))),
+                new Document("priority", new Document("$gt", 3)))));
+    }
+
+    @Test
+    void leavesDisabledRewritesAndAggregationsAlone() {
+        MongoQuery query = new MongoQuery("users", new Document("name", regex("^alice$", "")), new Document(), 10);
+        assertThat(new QueryRewriter(new SimpleMeterRegistry(), false, "en").rewrite(query)).isSameAs(query);
+
+        MongoQuery aggregation = MongoQuery.aggregation("users",
+                List.of(new Document("$match", new Document("name", regex("^alice$", "")))), 10);
+        assertThat(rewriter.rewrite(aggregation)).isSameAs(aggregation);
+    }
+}
@@ -0,0 +1,104 @@
+package com.responsive.ai.sql_prompter.service;
+
+import com.responsive.ai.sql_prompter.concurrent.BoundedTaskExecutor;
+import com.responsive.ai.sql_prompter.concurrent.Deadline;
+import com.responsive.ai.sql_prompter.config.QueryTarget;
+import com.responsive.ai.sql_prompter.config.QueryTargets;
+import com.responsive.ai.sql_prompter.exception.InvalidQueryException;
+import com.responsive.ai.sql_prompter.model.MongoQuery;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Target routing of the streaming endpoints, whose AI queries are generated on the worker pool
+ * and streamed from yet another thread; the engine and the model are replaced by mocks.
+ */
+class ReactiveQueryServiceTest {
+
+    private static final MongoQuery GENERATED = new MongoQuery("users", new Document(), new Document(), 10);
+
+    private QueryEngine queryEngine;
+    private AiQueryService aiQueryService;
+    private QueryService queryService;
+    private QueryTarget other;
+    private BoundedTaskExecutor executor;
+    private ReactiveQueryService service;
+
+    @BeforeEach
+    void setUp() {
+        queryEngine = mock(QueryEngine.class);
+        aiQueryService = mock(AiQueryService.class);
+        queryService = mock(QueryService.class);
+        QueryTarget target = new QueryTarget("default", "test", mock(MongoTemplate.class),
+                mock(ReactiveMongoTemplate.class), null, List.of());
+        other = new QueryTarget("other", "other", mock(MongoTemplate.class), mock(ReactiveMongoTemplate.class), null,
+                List.of());
+        executor = new BoundedTaskExecutor("ai.executor", 2, 10, new SimpleMeterRegistry());
+        service = new ReactiveQueryService(queryEngine, queryService, aiQueryService, executor,
+                new QueryTargets(List.of(target, other), "default"));
+        ReflectionTestUtils.setField(service, "streamDeadlineMs", 1_800_000L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void generatesChecksAndStreamsAiQueriesOnTheRequestedTarget() {
+        when(aiQueryService.defaultDeadline()).thenReturn(Deadline.afterMillis(5000));
+        AtomicReference<String> generatedOn = new AtomicReference<>();
+        when(aiQueryService.generateQuery(eq(other), eq("list users"), any())).thenAnswer(invocation -> {
+            generatedOn.set(Thread.currentThread().getName());
+            return GENERATED;
+        });
+        QueryCostGuard.Assessment assessment = mock(QueryCostGuard.Assessment.class);
+        when(assessment.getQuery()).thenReturn(GENERATED);
+        when(queryEngine.assess(eq(other), eq(GENERATED), any())).thenReturn(assessment);
+        when(queryEngine.publish(eq(other), eq(GENERATED), any())).thenReturn(Flux.just(new Document("_id", 1)));
+
+        List<Document> rows = service.executeAiQuery("list users", "other").collectList().block(Duration.ofSeconds(5));
+
+        assertThat(rows).containsExactly(new Document("_id", 1));
+        assertThat(generatedOn.get()).startsWith("ai.executor-");
+        verify(queryEngine).assess(eq(other), eq(GENERATED), any());
+    }
+
+    @Test
+    void streamsDirectQueriesOnTheRequestedTarget() {
+        when(queryService.parseDirectQuery("{\"collection\": \"users\"}")).thenReturn(new Document("collection", "users"));
+        when(queryEngine.publish(eq(other), any(), any())).thenReturn(Flux.empty());
+
+        service.executeDirectQuery("{\"collection\": \"users\"}", "other").blockLast(Duration.ofSeconds(5));
+
+        verify(queryEngine).publish(eq(other), any(), any());
+    }
+
+    @Test
+    void rejectsUnknownTargetsBeforeGenerating() {
+        assertThatThrownBy(() -> service.executeAiQuery("list users", "missing"))
+                .isInstanceOf(InvalidQueryException.class)
+                .hasMessageContaining("Unknown query target: missing");
+        verify(aiQueryService, never()).generateQuery(any(), any(), any());
+    }
+}
@@ -0,0 +1,151 @@
+package com.responsive.ai.sql_prompter.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dev.langchain4j.data.message.UserMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Runs the model against a local stand-in for Ollama's streaming /api/chat endpoint.
+ */
+class StreamingJsonChatModelTest {
+
+    private HttpServer server;
+    private SimpleMeterRegistry registry;
+    private StreamingJsonChatModel model;
+
+    /** Lines the stand-in streams for the next request, with the delay before each one */
+    private volatile List<String> lines = List.of();
+    private volatile long delayMs;
+    private final AtomicInteger linesWritten = new AtomicInteger();
+    private final CountDownLatch clientDisconnected = new CountDownLatch(1);
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/chat", this::stream);
+        server.start();
+        registry = new SimpleMeterRegistry();
+        model = new StreamingJsonChatModel("http://127.0.0.1:" + server.getAddress().getPort() + "/", "stand-in",
+                0.0, Duration.ofSeconds(10), registry);
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    private void stream(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (String line : lines) {
+                Thread.sleep(delayMs);
+                out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                linesWritten.incrementAndGet();
+            }
+        } catch (IOException e) {
+            clientDisconnected.countDown();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String token(String content) {
+        return "{\"message\":{\"role\":\"assistant\",\"content\":\"" + content.replace("\"", "\\\"") + "\"},\"done\":false}";
+    }
+
+    private static final String DONE = "{\"message\":{\"role\":\"assistant\",\"content\":\"\"},\"done\":true}";
+
+    private String generate() {
+        return model.generate(List.of(UserMessage.from("list users"))).content().text();
+    }
+
+    private double streamed(String outcome) {
+        return registry.get("ai.generation.streamed").tag("outcome", outcome).counter().count();
+    }
+
+    @Test
+    void stopsReadingOnceTheJsonObjectCloses() throws InterruptedException {
+        List<String> stream = new ArrayList<>(List.of(
+                token("Here you go: {\"collection\": \"users\", "),
+                token("\"query\": {\"name\": \"a}b\"}"),
+                token("}"),
+                token(" This query finds")));
+        for (int i = 0; i < 200; i++) {
+            stream.add(token(" more explanation"));
+        }
+        stream.add(DONE);
+        lines = stream;
+        delayMs = 10;
+
+        long started = System.nanoTime();
+        String completion = generate();
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+        assertThat(completion).isEqualTo("{\"collection\": \"users\", \"query\": {\"name\": \"a}b\"}}");
+        // The remaining 200 lines would take at least 2 s to stream
+        assertThat(elapsedMs).isLessThan(1500);
+        assertThat(streamed("json_cutoff")).isEqualTo(1.0);
+        assertThat(streamed("completed")).isZero();
+        // Closing the body aborts the exchange, so the server's writes fail well before the end of the stream
+        assertThat(clientDisconnected.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(linesWritten.get()).isLessThan(stream.size());
+    }
+
+    @Test
+    void returnsCompletionsWithoutJsonInFull() {
+        lines = List.of(token("I cannot "), token("answer that."), DONE);
+
+        assertThat(generate()).isEqualTo("I cannot answer that.");
+        assertThat(streamed("completed")).isEqualTo(1.0);
+        assertThat(streamed("json_cutoff")).isZero();
+    }
+
+    @Test
+    void failsWhenTheStreamEndsBeforeTheModelIsDone() {
+        lines = List.of(token("{\"collection\": \"users\", "), token("\"query\": {\"age\": "));
+
+        assertThatThrownBy(this::generate)
+                .isInstanceOf(RuntimeException.class)
+                .hasMessageContaining("without completing");
+        assertThat(streamed("completed")).isZero();
+        assertThat(streamed("json_cutoff")).isZero();
+    }
+
+    @Test
+    void failsOnMalformedChunks() {
+        lines = List.of(token("{\"collection\": "), "{\"message\": {\"content\": \"us");
+
+        assertThatThrownBy(this::generate)
+                .isInstanceOf(RuntimeException.class)
+                .hasMessageStartingWith("Failed to stream completion from Ollama");
+    }
+
+    @Test
+    void reportsErrorsStreamedByOllama() {
+        lines = List.of("{\"error\":\"model 'stand-in' not found\"}");
+
+        assertThatThrownBy(this::generate)
+                .isInstanceOf(RuntimeException.class)
+                .hasMessageContaining("model 'stand-in' not found");
+    }
+}
@@ -0,0 +1,72 @@
+package com.responsive.ai.sql_prompter.service.impl;
+
+import com.mongodb.ReadPreference;
+import com.responsive.ai.sql_prompter.config.QueryTarget;
+import com.responsive.ai.sql_prompter.config.QueryTargets;
+import com.responsive.ai.sql_prompter.config.ReadRouting;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Where schema sampling reads are sent, with MongoDB replaced by a mock.
+ */
+class DatabaseSchemaServiceImplTest {
+
+    private MongoTemplate mongoTemplate;
+    private QueryTarget target;
+    private DatabaseSchemaServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        when(mongoTemplate.getCollectionNames()).thenReturn(Set.of("users"));
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("users")))
+                .thenReturn(List.of(new Document("name", "Ada")));
+        target = new QueryTarget("default", "test", mongoTemplate, mock(ReactiveMongoTemplate.class), null, List.of());
+        service = new DatabaseSchemaServiceImpl(new ReadRouting(ReadPreference.primary(), ReadPreference.secondary()),
+                new QueryTargets(List.of(target), "default"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.stopSnapshotRefresh();
+    }
+
+    @Test
+    void samplesTheSnapshotWithTheSchemaSamplingReadPreference() {
+        assertThat(service.getTableSchema(target, "users")).containsEntry("name", "string");
+
+        ArgumentCaptor<Query> sample = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(sample.capture(), eq(Document.class), eq("users"));
+        assertThat(sample.getValue().getReadPreference()).isEqualTo(ReadPreference.secondary());
+    }
+
+    @Test
+    void samplesCollectionsMissingFromTheSnapshotWithTheSchemaSamplingReadPreference() {
+        service.getSchemaSnapshot(target);
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("orders")))
+                .thenReturn(List.of(new Document("total", 3)));
+
+        assertThat(service.getTableSchema(target, "orders")).containsKey("total");
+
+        ArgumentCaptor<Query> sample = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(sample.capture(), eq(Document.class), eq("orders"));
+        assertThat(sample.getValue().getReadPreference()).isEqualTo(ReadPreference.secondary());
+    }
+}
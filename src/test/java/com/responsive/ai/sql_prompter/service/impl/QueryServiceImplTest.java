@@ -0,0 +1,176 @@
+package com.responsive.ai.sql_prompter.service.impl;
+
+import com.responsive.ai.sql_prompter.concurrent.Deadline;
+import com.responsive.ai.sql_prompter.config.QueryTarget;
+import com.responsive.ai.sql_prompter.config.QueryTargets;
+import com.responsive.ai.sql_prompter.exception.DeadlineExceededException;
+import com.responsive.ai.sql_prompter.exception.InvalidQueryException;
+import com.responsive.ai.sql_prompter.model.MongoQuery;
+import com.responsive.ai.sql_prompter.model.QueryRequest;
+import com.responsive.ai.sql_prompter.service.AiQueryService;
+import com.responsive.ai.sql_prompter.service.QueryCostGuard;
+import com.responsive.ai.sql_prompter.service.QueryEngine;
+import com.responsive.ai.sql_prompter.service.SortIndexInspector;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Request handling of QueryServiceImpl, with the engine and the model replaced by mocks.
+ */
+class QueryServiceImplTest {
+
+    private QueryEngine queryEngine;
+    private AiQueryService aiQueryService;
+    private QueryTarget target;
+    private QueryTarget other;
+    private QueryServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        queryEngine = mock(QueryEngine.class);
+        aiQueryService = mock(AiQueryService.class);
+        target = new QueryTarget("default", "test", mock(MongoTemplate.class), mock(ReactiveMongoTemplate.class), null,
+                List.of());
+        other = new QueryTarget("other", "other", mock(MongoTemplate.class), mock(ReactiveMongoTemplate.class), null,
+                List.of());
+        QueryTargets targets = new QueryTargets(List.of(target, other), "default");
+        service = new QueryServiceImpl(queryEngine, aiQueryService, mock(SortIndexInspector.class), targets);
+        ReflectionTestUtils.setField(service, "defaultDeadlineMs", 25_000L);
+        ReflectionTestUtils.setField(service, "streamDeadlineMs", 1_800_000L);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readReturns(Document... documents) {
+        when(queryEngine.read(any(), any(), any(), any())).thenAnswer(invocation ->
+                ((Function<Stream<Document>, Object>) invocation.getArgument(3)).apply(Stream.of(documents)));
+    }
+
+    @Test
+    void streamsDirectQueriesWithTheExportBudget() throws Exception {
+        readReturns(new Document("_id", 1).append("name", "a"), new Document("_id", 2).append("name", "b"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        long count = service.streamDirectQuery(null, service.parseDirectQuery("{\"collection\": \"users\", \"age\": 3}"), out);
+
+        assertThat(count).isEqualTo(2);
+        assertThat(out.toString(StandardCharsets.UTF_8))
+                .isEqualTo("{\"_id\": 1, \"name\": \"a\"}\n{\"_id\": 2, \"name\": \"b\"}\n");
+        ArgumentCaptor<MongoQuery> query = ArgumentCaptor.forClass(MongoQuery.class);
+        ArgumentCaptor<Deadline> deadline = ArgumentCaptor.forClass(Deadline.class);
+        verify(queryEngine).read(eq(target), query.capture(), deadline.capture(), any());
+        assertThat(query.getValue().getFilter()).isEqualTo(new Document("age", 3));
+        // Not the 25 s request budget, which would cut large exports short after the status is committed
+        assertThat(deadline.getValue().getBudgetMillis()).isEqualTo(1_800_000L);
+    }
+
+    @Test
+    void takesTheBudgetFromTheRequestOrTheDefault() {
+        QueryRequest request = new QueryRequest();
+        request.setQuery("list users");
+
+        assertThat(service.deadlineFor(request).getBudgetMillis()).isEqualTo(25_000L);
+        request.setDeadlineMs(500L);
+        assertThat(service.deadlineFor(request).getBudgetMillis()).isEqualTo(500L);
+    }
+
+    @Test
+    void stopsRequestsWhoseDeadlinePassedWhileQueued() throws Exception {
+        QueryRequest request = new QueryRequest();
+        request.setQuery("list users");
+        request.setUseAi(true);
+        Deadline deadline = Deadline.afterMillis(1);
+        Thread.sleep(5);
+
+        assertThatThrownBy(() -> service.executeQuery(request, deadline))
+                .isInstanceOf(DeadlineExceededException.class)
+                .hasMessageContaining("waiting for a worker");
+        verify(aiQueryService, never()).generateQuery(any(), any(), any());
+    }
+
+    @Test
+    void runsEachRequestOnTheTargetItNames() throws Exception {
+        QueryRequest request = new QueryRequest();
+        request.setQuery("{\"collection\": \"users\"}");
+        request.setTarget("other");
+        when(queryEngine.executeDirect(any(), any(), any())).thenReturn(mock(QueryEngine.Result.class));
+        readReturns();
+
+        service.executeQuery(request);
+        service.streamDirectQuery("other", service.parseDirectQuery("{\"collection\": \"users\"}"),
+                new ByteArrayOutputStream());
+
+        verify(queryEngine).executeDirect(eq(other), any(), any());
+        verify(queryEngine).read(eq(other), any(), any(), any());
+        verify(queryEngine, never()).executeDirect(eq(target), any(), any());
+    }
+
+    @Test
+    void checksThePlanOfTheFirstPage() {
+        MongoQuery generated = new MongoQuery("users", new Document("name", "a"), new Document(), 0);
+        when(aiQueryService.generateQuery(any(), eq("list users"), any())).thenReturn(generated);
+        when(queryEngine.assess(any(), eq(generated), any())).thenThrow(new InvalidQueryException(
+                "Query would scan all 60000 documents of 'users' without using an index."));
+        QueryRequest request = new QueryRequest();
+        request.setQuery("list users");
+        request.setUseAi(true);
+        request.setPageSize(10);
+
+        assertThatThrownBy(() -> service.executeQuery(request))
+                .isInstanceOf(InvalidQueryException.class)
+                .hasMessageContaining("without using an index");
+        verify(queryEngine, never()).read(any(), any(), any(), any());
+    }
+
+    @Test
+    void pagesThroughTheLimitTheCostGuardSet() {
+        MongoQuery generated = new MongoQuery("users", new Document(), new Document(), 500);
+        when(aiQueryService.generateQuery(any(), eq("list users"), any())).thenReturn(generated);
+        QueryCostGuard.Assessment assessment = mock(QueryCostGuard.Assessment.class);
+        when(assessment.getQuery()).thenReturn(generated.withLimit(5));
+        when(queryEngine.assess(any(), eq(generated), any())).thenReturn(assessment);
+        readReturns();
+        QueryRequest request = new QueryRequest();
+        request.setQuery("list users");
+        request.setUseAi(true);
+        request.setPageSize(10);
+
+        service.executeQuery(request);
+
+        ArgumentCaptor<MongoQuery> page = ArgumentCaptor.forClass(MongoQuery.class);
+        verify(queryEngine).read(eq(target), page.capture(), any(), any());
+        // Five rows plus the one that tells whether another page exists
+        assertThat(page.getValue().getLimit()).isEqualTo(6);
+    }
+
+    @Test
+    void rejectsUnknownTargets() {
+        QueryRequest request = new QueryRequest();
+        request.setQuery("{\"collection\": \"users\"}");
+        request.setTarget("missing");
+
+        assertThatThrownBy(() -> service.executeQuery(request))
+                .isInstanceOf(InvalidQueryException.class)
+                .hasMessageContaining("Unknown query target: missing");
+        verify(queryEngine, never()).executeDirect(any(), any(), any());
+    }
+}